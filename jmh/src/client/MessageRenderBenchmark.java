@@ -0,0 +1,105 @@
+package client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the throughput, in messages per second, of the client's handling of an incoming message before it
+ * is shown, for messages of 10, 100, 1,000 and 10,000 characters:
+ * tokenize - MessageTokenizer.getTokens
+ * parse - MessageParser.getTextArray and getStyleArray, on tokens made beforehand
+ * tokenizeAndParse - both, as client.Room does for every message
+ * Each size is measured for several kinds of message (see message):
+ * plain - words and spaces only
+ * formatted - every third word is bold, italic or struck through
+ * emoticons - every fifth word is an emoticon
+ * mixed - both formatting and emoticons
+ * unclosed - plain, but starting with a bold tag that is never closed, so the whole message is unformatted again
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MessageRenderBenchmark {
+
+    private static final String[] WORDS = {"hello", "there", "how", "are", "you", "doing", "today", "chat"};
+    private static final String[] EMOTICONS = {":)", ":D", ":(", ":P", ":O", ";)", "8)"};
+    private static final String[] TAGS = {"*", "_", "-"};
+
+    @Param({"10", "100", "1000", "10000"})
+    public int chars;
+
+    @Param({"plain", "formatted", "emoticons", "mixed", "unclosed"})
+    public String kind;
+
+    private String message;
+    private Token[] tokens;
+
+    @Setup(Level.Trial)
+    public void start() {
+        message = message(kind, chars);
+        tokens = new MessageTokenizer(message).getTokens();
+    }
+
+    @Benchmark
+    public Token[] tokenize() {
+        return new MessageTokenizer(message).getTokens();
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) {
+        bh.consume(MessageParser.getTextArray(tokens));
+        bh.consume(MessageParser.getStyleArray(tokens));
+    }
+
+    @Benchmark
+    public void tokenizeAndParse(Blackhole bh) {
+        Token[] t = new MessageTokenizer(message).getTokens();
+        bh.consume(MessageParser.getTextArray(t));
+        bh.consume(MessageParser.getStyleArray(t));
+    }
+
+    /**
+     * Makes a message of words separated by spaces, the same every time for the same arguments
+     * @param kind - requires kind be plain, formatted, emoticons, mixed or unclosed
+     * @param chars - requires chars > 0, the length of the message
+     * @return - a message of exactly chars characters, that does not start or end with a space
+     */
+    public static String message(String kind, int chars) {
+        boolean formatted = kind.equals("formatted") || kind.equals("mixed");
+        boolean emoticons = kind.equals("emoticons") || kind.equals("mixed");
+        StringBuilder sb = new StringBuilder();
+        if (kind.equals("unclosed")) {
+            sb.append('*');
+        }
+        for (int i = 0; sb.length() < chars; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            if (emoticons && i % 5 == 4) {
+                sb.append(EMOTICONS[i / 5 % EMOTICONS.length]);
+            }
+            else if (formatted && i % 3 == 2) {
+                String tag = TAGS[i / 3 % TAGS.length];
+                sb.append(tag).append(WORDS[i % WORDS.length]).append(tag);
+            }
+            else {
+                sb.append(WORDS[i % WORDS.length]);
+            }
+        }
+        sb.setLength(chars);
+        while (sb.charAt(sb.length() - 1) == ' ') {     // a message is trimmed when it is tokenized
+            sb.setCharAt(sb.length() - 1, 'x');
+        }
+        return sb.toString();
+    }
+}
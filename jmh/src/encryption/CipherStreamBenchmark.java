@@ -0,0 +1,133 @@
+package encryption;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.DESKeySpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the DES/CFB8 cipher streams every session runs over (see EstablishClientHandshake and
+ * EstablishServerHandshake), for writes and reads of 64 bytes (about one chat line) and 4096 bytes:
+ * encrypt - writing through a CipherOutputStream to a stream that hands the bytes to the Blackhole
+ * decrypt - reading through a CipherInputStream from 64KB encrypted once, over and over
+ * One operation is one chunk, so bytes per second are the score times the chunk.
+ * The key is made as the handshake makes it, from 8 random bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CipherStreamBenchmark {
+
+    private static final String TRANSFORMATION = "DES/CFB8/NoPadding";
+    private static final int CIPHER_TEXT_BYTES = 1 << 16;
+
+    @Param({"64", "4096"})
+    public int chunk;
+
+    private byte[] plain;
+    private byte[] buffer;
+    private CipherOutputStream out;
+    private CipherInputStream in;
+    private Blackhole sink;
+
+    @Setup(Level.Trial)
+    public void start(Blackhole bh) throws Exception {
+        SecureRandom random = new SecureRandom();
+        byte[] keyBytes = new byte[8];
+        random.nextBytes(keyBytes);
+        SecretKey key = SecretKeyFactory.getInstance("DES").generateSecret(new DESKeySpec(keyBytes));
+        Cipher encode = Cipher.getInstance(TRANSFORMATION);
+        encode.init(Cipher.ENCRYPT_MODE, key);
+        IvParameterSpec iv = new IvParameterSpec(encode.getIV());
+        sink = bh;
+        out = new CipherOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                sink.consume(b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                sink.consume(b);
+            }
+        }, encode);
+        plain = new byte[chunk];
+        random.nextBytes(plain);
+
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        Cipher batchEncode = Cipher.getInstance(TRANSFORMATION);
+        batchEncode.init(Cipher.ENCRYPT_MODE, key, iv);
+        CipherOutputStream encrypting = new CipherOutputStream(encrypted, batchEncode);
+        byte[] batch = new byte[CIPHER_TEXT_BYTES];
+        random.nextBytes(batch);
+        encrypting.write(batch);
+        encrypting.flush();
+        Cipher decode = Cipher.getInstance(TRANSFORMATION);
+        decode.init(Cipher.DECRYPT_MODE, key, iv);
+        in = new CipherInputStream(new Repeating(encrypted.toByteArray()), decode);
+        buffer = new byte[chunk];
+    }
+
+    @Benchmark
+    public void encrypt() throws IOException {
+        out.write(plain);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws IOException {
+        int read = 0;
+        while (read < chunk) {
+            read += in.read(buffer, read, chunk - read);
+        }
+        return buffer;
+    }
+
+    /**
+     * A stream that gives the same bytes over and over, without end. CFB8 recovers within a block after the
+     * jump back to the start, so the decrypt cost stays that of a real stream
+     */
+    private static class Repeating extends InputStream {
+        private final byte[] bytes;
+        private int next;
+
+        private Repeating(byte[] bytes) {
+            this.bytes = bytes;
+            this.next = 0;
+        }
+
+        @Override
+        public int read() {
+            int b = bytes[next] & 0xff;
+            next = (next + 1) % bytes.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, bytes.length - next);
+            System.arraycopy(bytes, next, b, off, n);
+            next = (next + n) % bytes.length;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package server;
+
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import server.ChatServer.UserAlreadyExistsException;
+import server.test.TestListener;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Measures the lookups every invite, accept and say goes through, on 1, 4 and 16 threads, to show how they
+ * hold up under contention:
+ * getRoom - ChatServer.getRoom on 10,000 rooms, read from a ConcurrentIntMap
+ * getUser - ChatServer.getUser with 1,000 users online, which is synchronized on the server
+ *
+ * The users are logged in over in-memory pipes that stay open, so they stay online while the lookups run.
+ * Each thread steps through the rooms and users in its own order, from its own Cursor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LookupBenchmark {
+
+    private static final int ROOMS = 10000;
+    private static final int USERS = 1000;
+
+    private ChatServer server;
+    private String[] names;
+
+    /**
+     * The next room and user one thread looks up
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int room;
+        private int user;
+    }
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        TestUserFile.use();
+        server = new ChatServer(0);
+        server.getConfig().setPingIntervalMillis(0);
+        TestListener listener = new TestListener();
+        for (int i = 0; i < ROOMS; i++) {
+            server.createRoom("user" + i, listener);
+        }
+        OutputStream discard = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        };
+        names = new String[USERS];
+        for (int i = 0; i < USERS; i++) {
+            names[i] = "lookup" + i;
+            try {
+                server.register(names[i], "123");
+            } catch (UserAlreadyExistsException e) {
+                // registered by an earlier trial in this JVM
+            }
+            PipedOutputStream pipe = new PipedOutputStream();
+            Thread t = new Thread(new User(server, new PipedInputStream(pipe), discard, false, false));
+            t.setDaemon(true);
+            t.start();
+            pipe.write(("login " + names[i] + " 123\n").getBytes("UTF-8"));
+            pipe.flush();
+        }
+        for (String name : names) {
+            while (!server.isOnline(name)) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.kill();
+    }
+
+    private Room getRoom(Cursor cursor) {
+        cursor.room = (cursor.room + 7919) % ROOMS;
+        return server.getRoom(cursor.room);
+    }
+
+    private User getUser(Cursor cursor) {
+        cursor.user = (cursor.user + 1) % USERS;
+        return server.getUser(names[cursor.user]);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Room getRoom1(Cursor cursor) {
+        return getRoom(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Room getRoom4(Cursor cursor) {
+        return getRoom(cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Room getRoom16(Cursor cursor) {
+        return getRoom(cursor);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public User getUser1(Cursor cursor) {
+        return getUser(cursor);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public User getUser4(Cursor cursor) {
+        return getUser(cursor);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public User getUser16(Cursor cursor) {
+        return getUser(cursor);
+    }
+}
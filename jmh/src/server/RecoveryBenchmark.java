@@ -0,0 +1,77 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import server.test.TestListener;
+import server.test.TestUserFile;
+
+/**
+ * Measures how long a ChatServer takes to start from a write-ahead log of 10,000, 100,000 and 1,000,000
+ * records, with no snapshot, ie. the worst case for the configured snapshot interval.
+ * The log is written once per trial, through the server itself: every room is created and then has 9 users
+ * invited, so each room is 10 records. Each invocation starts a server on the log and kills it again.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecoveryBenchmark {
+
+    private static final int INVITES = 9;
+
+    @Param({"10000", "100000", "1000000"})
+    public int records;
+
+    private File dir;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        dir = File.createTempFile("recovery", "");
+        dir.delete();
+        System.setProperty("chat.roomDir", dir.getPath());
+        System.setProperty("chat.walSnapshotRecords", String.valueOf(Integer.MAX_VALUE));
+        TestUserFile.use();
+        writeLog(records);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    @Benchmark
+    public ChatServer recover() throws IOException {
+        ChatServer server = new ChatServer(0);
+        server.kill();
+        return server;
+    }
+
+    private static void writeLog(int records) throws Exception {
+        ChatServer server = new ChatServer(0);
+        TestListener listener = new TestListener();
+        for (int i = 0; i < records / (INVITES + 1); i++) {
+            Room room = server.createRoom("user" + i, listener);
+            for (int j = 1; j <= INVITES; j++) {
+                room.inviteUser("user" + i, "user" + (i + j));
+            }
+            server.removeRoom(room);    // keeps only the log, not the Rooms, in memory
+        }
+        server.kill();
+    }
+}
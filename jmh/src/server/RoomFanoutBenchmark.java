@@ -0,0 +1,73 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import server.test.TestListener;
+import server.test.TestUserFile;
+
+/**
+ * Measures the throughput of Room.write, ie. appending a line to the Tablet and broadcasting it to
+ * every member of the room, for rooms of 2, 50, 1000 and 10000 members.
+ * Every member has a TestListener, so the numbers measure the Room itself and not the sockets.
+ *
+ * Since write only posts to the room's mailbox, every BATCH writes end with a call that waits on the
+ * mailbox, so that the measured time covers the broadcasts themselves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RoomFanoutBenchmark {
+
+    private static final int BATCH = 100;
+
+    @Param({"2", "50", "1000", "10000"})
+    public int size;
+
+    private ChatServer server;
+    private Room room;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        TestUserFile.use();
+        server = new ChatServer(0);
+        room = createRoom(server, size);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.kill();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public boolean write() {
+        for (int i = 0; i < BATCH; i++) {
+            room.write("user0", "hello world");
+        }
+        return room.isInvited("user0");    // waits until the batch has been broadcast
+    }
+
+    /**
+     * Creates a room with the given number of members, named user0 .. user(size-1)
+     */
+    static Room createRoom(ChatServer server, int size) {
+        Room room = new Room(server, "user0", new TestListener(), 0);
+        for (int i = 1; i < size; i++) {
+            room.inviteUser("user0", "user" + i);
+            room.join("user" + i, new TestListener());
+        }
+        return room;
+    }
+}
@@ -0,0 +1,76 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import server.test.TestUserFile;
+
+/**
+ * Measures the throughput of Room.getUsersInRoom, which gives the member list sent in a roomUsers reply,
+ * for rooms of 2, 50, 1000 and 10000 members:
+ * cached - the list has not changed, so the mailbox returns the cached String, on 1 and 4 threads
+ * rebuilt - a member's status changes before every call, so the list is built again on the room's mailbox.
+ *     The change is only posted to the mailbox, so each one is waited for first, which is counted in the time
+ * Every member has a TestListener, as in RoomFanoutBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RoomReadBenchmark {
+
+    @Param({"2", "50", "1000", "10000"})
+    public int size;
+
+    private ChatServer server;
+    private Room room;
+    private boolean typing;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        TestUserFile.use();
+        server = new ChatServer(0);
+        room = RoomFanoutBenchmark.createRoom(server, size);
+        typing = false;
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.kill();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String cached() {
+        return room.getUsersInRoom();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String cachedContended() {
+        return room.getUsersInRoom();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String rebuilt() {
+        typing = !typing;
+        if (typing) {
+            room.setEnteredText("user0");
+        } else {
+            room.setIdle("user0");
+        }
+        room.isInvited("user0");    // waits until the change has dropped the cached list
+        return room.getUsersInRoom();
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the throughput of Tablet.addLine for lines of 10 to 1000 characters, on and off the heap, said by
+ * one of 100 users. A Tablet is replaced by an empty one once it holds about 100MB of text, or a million
+ * lines, so that a long run measures appends and not a growing heap; the replacement is counted in the time.
+ * The heap used per line is measured by server.bench.TabletMemoryBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TabletAppendBenchmark {
+
+    private static final int USERS = 100;
+
+    @Param({"10", "30", "100", "1000"})
+    public int chars;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    private ServerConfig config;
+    private String line;
+    private int lines;  // lines to add before starting a new Tablet
+    private Tablet tablet;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void start() {
+        config = new ServerConfig();
+        config.setTabletOffHeap(offHeap);
+        config.setTabletOffHeapCapacity(Long.MAX_VALUE);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < chars) {
+            sb.append("this is a line of the chat ...".charAt(sb.length() % 30));
+        }
+        line = sb.toString();
+        lines = (int) Math.min(1000000, 100000000L / chars);
+        tablet = new Tablet(config);
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        tablet.release();
+    }
+
+    @Benchmark
+    public void addLine() {
+        if (tablet.size() >= lines) {
+            tablet.release();
+            tablet = new Tablet(config);
+        }
+        tablet.addLine(next % USERS, line);
+        next++;
+    }
+}
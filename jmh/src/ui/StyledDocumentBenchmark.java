@@ -0,0 +1,107 @@
+package ui;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.StyledDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import client.MessageParser;
+import client.MessageRenderBenchmark;
+import client.MessageTokenizer;
+import client.Token;
+
+/**
+ * Measures the throughput, in messages per second, of appending a message to the chat history, headless: a
+ * DefaultStyledDocument with RoomView's styles, with no window or text pane, in a JVM forked with
+ * -Djava.awt.headless=true. Messages are the sizes and kinds of MessageRenderBenchmark, already tokenized and
+ * parsed:
+ * perToken - RoomView.appendMessage, one insertString per token, ie. per character
+ * perRun - one insertString per run of tokens of the same style, for comparison
+ * The document is replaced once it holds about a million characters, so it does not grow without end.
+ *
+ * It is in package ui to call RoomView's package-level appendMessage and addStylesTo, the same code that
+ * RoomView.refresh runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(jvmArgsAppend = "-Djava.awt.headless=true")
+public class StyledDocumentBenchmark {
+
+    private static final int MAX_LENGTH = 1000000;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int chars;
+
+    @Param({"plain", "mixed"})
+    public String kind;
+
+    private String[] text;
+    private String[] styles;
+    private StyledDocument doc;
+
+    @Setup(Level.Trial)
+    public void start() {
+        Token[] tokens = new MessageTokenizer(MessageRenderBenchmark.message(kind, chars)).getTokens();
+        text = MessageParser.getTextArray(tokens);
+        styles = MessageParser.getStyleArray(tokens);
+        doc = newDocument();
+    }
+
+    @Benchmark
+    public StyledDocument perToken() throws BadLocationException {
+        if (doc.getLength() > MAX_LENGTH) {
+            doc = newDocument();
+        }
+        RoomView.appendMessage(doc, "user", text, styles);
+        return doc;
+    }
+
+    @Benchmark
+    public StyledDocument perRun() throws BadLocationException {
+        if (doc.getLength() > MAX_LENGTH) {
+            doc = newDocument();
+        }
+        appendRuns(doc, "user", text, styles);
+        return doc;
+    }
+
+    private static StyledDocument newDocument() {
+        StyledDocument doc = new DefaultStyledDocument();
+        RoomView.addStylesTo(doc);
+        return doc;
+    }
+
+    /**
+     * Appends a message as RoomView.appendMessage does, but with one insertString per run of tokens of the same
+     * style. Emoticon styles are inserted one token at a time, since each token is one icon
+     */
+    private static void appendRuns(StyledDocument doc, String username, String[] text, String[] styles)
+            throws BadLocationException {
+        doc.insertString(doc.getLength(), username + ": ", doc.getStyle("bold"));
+        StringBuilder run = new StringBuilder();
+        for (int i = 0; i < text.length; i++) {
+            run.append(text[i]);
+            boolean icon = styles[i].length() == 2;
+            if (i == text.length - 1 || icon || !styles[i + 1].equals(styles[i])) {
+                if (i == text.length - 1) {
+                    run.append('\n');
+                }
+                doc.insertString(doc.getLength(), run.toString(), doc.getStyle(styles[i]));
+                run.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package user;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import server.ChatServer;
+import server.ChatServer.UserAlreadyExistsException;
+import server.RateLimit;
+import server.test.TestUserFile;
+
+/**
+ * Measures the throughput of User.handleCommand: reading a line, parsing it, checking the rate limits and
+ * carrying it out, for a few kinds of command:
+ * say - a line said in a room with only the sender in it
+ * typing - a typing change, collected by the room
+ * roomUsers - a read of the room's member list
+ * ping - answered straight away, with no room
+ * unknown - a command that is not in the protocol
+ *
+ * Each invocation is one session, unencrypted, over an in-memory stream: it logs in, creates a room, sends
+ * BATCH commands and ends. The server has no room store, so the sessions' rooms are numbered 0, 1, 2, ... in
+ * order. The rate limits are turned off and the output goes to the Blackhole, so the numbers measure the
+ * command handling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HandleCommandBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"say", "typing", "roomUsers", "ping", "unknown"})
+    public String command;
+
+    private String format;  // the line sent, with %d for the session's room
+    private ChatServer server;
+    private int nextRoom;   // the number the next session's room gets
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        TestUserFile.use();
+        server = new ChatServer(0);
+        server.getConfig().setPingIntervalMillis(0);
+        server.getConfig().setSessionLimit(RateLimit.UNLIMITED);
+        server.getConfig().setSayLimit(RateLimit.UNLIMITED);
+        server.getConfig().setTypingLimit(RateLimit.UNLIMITED);
+        server.getConfig().setCreateLimit(RateLimit.UNLIMITED);
+        try {
+            server.register("benchuser", "123");
+        } catch (UserAlreadyExistsException e) {
+            // registered by an earlier trial in this JVM
+        }
+        nextRoom = 0;
+        if (command.equals("say")) {
+            format = "say %d hello world";
+        } else if (command.equals("ping")) {
+            format = "ping 42";
+        } else {
+            format = command + " %d";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        server.kill();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void session(final Blackhole bh) throws IOException {
+        StringBuilder sb = new StringBuilder("login benchuser 123\ncreate\n");
+        String line = String.format(format, nextRoom++) + "\n";
+        for (int i = 0; i < BATCH; i++) {
+            sb.append(line);
+        }
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bh.consume(b);
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bh.consume(b);
+            }
+        };
+        new User(server, new ByteArrayInputStream(sb.toString().getBytes("UTF-8")), out, false, false).run();
+    }
+}
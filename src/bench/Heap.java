@@ -0,0 +1,32 @@
+package bench;
+
+/**
+ * Heap measurement for the memory benchmarks, which are plain classes with a main method so that they run
+ * from Eclipse or the command line with nothing but the JDK on the classpath. Throughput and timing
+ * benchmarks are JMH benchmarks, in jmh/src.
+ */
+public class Heap {
+
+    /**
+     * Estimates the heap in use, after asking the garbage collector to run until the estimate settles
+     * @return - the number of bytes of heap in use
+     */
+    public static long used() {
+        Runtime rt = Runtime.getRuntime();
+        long used = rt.totalMemory() - rt.freeMemory();
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long now = rt.totalMemory() - rt.freeMemory();
+            if (Math.abs(now - used) < 1024) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+}
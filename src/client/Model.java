@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.NoSuchPaddingException;
 import javax.swing.Box.Filler;
@@ -28,6 +29,9 @@ import secure.SecurePass;
 import ui.MainWindow;
 import ui.NotificationDialog;
 import ui.ResponseWindow;
+import metrics.RollingHistogram;
+import util.ConcurrentIntMap;
+import util.HashedWheelTimer;
 import encryption.EstablishClientHandshake;
 import encryption.StreamPair;
 
@@ -35,6 +39,11 @@ import encryption.StreamPair;
  * if the methods all take a long time to run they will be running at the same time, so worry about thread saftey
  */
 public class Model {
+	//one timer drives the heartbeats of every Model in this process, rather than a thread per connection
+	private static final HashedWheelTimer heartbeatTimer = new HashedWheelTimer("client-heartbeat", 50, 256);
+	public static final int LATENCY_WINDOW = 256;//number of latest traced messages each room's latency is taken over
+	private static final long RATE_LIMITED_DIALOG_MILLIS = 5000;//least time between two rate limit dialogs
+	
 	private final String hostname;
 	private final int port;
 	
@@ -47,13 +56,24 @@ public class Model {
 	
 	private Thread mainListener;//thread that listens to the socket for incoming messages
 	private final Set<String> buddyList;
-	private final Map<Integer,Room> roomList;
+	private final ConcurrentIntMap<Room> roomList;
 	
 	private final Queue<String> toInvite;//used for createAndInvite, when a room is created you check to see if anyone is on this list to invite them
 	private final Map<Integer,ResponseWindow> invitedList;//list of rooms that you are currently invited to
 	
 	
 	private PrintWriter outputTranscript,inputTranscript,fullTranscript;//used in debugging to record conversations
+	
+	private final long pingInterval;//milliseconds between pings to the server, 0 to never ping
+	private final long pongTimeout;//milliseconds to wait for any line after a ping before giving up on the server
+	private volatile long lastRead;//System.currentTimeMillis() when the last line came from the server
+	private volatile long pingSentAt;//System.currentTimeMillis() when the last ping was sent, 0 if none
+	private volatile long pingSentNanos;
+	private volatile long pingToken;//the token of the last ping sent
+	private volatile long roundTripMillis;
+	private volatile boolean serverDead;//set when the server stopped answering pings and the socket was closed
+	private long rateLimitedAt;//System.currentTimeMillis() when the rate limit dialog was last closed, only used by the listener thread
+	private final ConcurrentIntMap<RollingHistogram> messageLatency;//by room, the latencies of the latest traced messages
 	/**
 	 * Constructs a new Model
 	 * @param hostname	-	the host you are trying to connect to, requires that 
@@ -64,9 +84,14 @@ public class Model {
 		this.port = port;
 		
 		buddyList = Collections.synchronizedSet(new TreeSet<String>());
-		roomList = Collections.synchronizedMap(new HashMap<Integer,Room>());
+		roomList = new ConcurrentIntMap<Room>();
 		toInvite = new LinkedList<String>();
 		invitedList = Collections.synchronizedMap(new HashMap<Integer,ResponseWindow>());
+		
+		pingInterval = Long.getLong("chat.clientPingIntervalMs", 15000);
+		pongTimeout = Long.getLong("chat.clientPongTimeoutMs", 10000);
+		roundTripMillis = -1;
+		messageLatency = new ConcurrentIntMap<RollingHistogram>();
 	}
 	
 	public void outputTranscript(OutputStream out){
@@ -110,12 +135,108 @@ public class Model {
 		mainwindow.setVisible(true);
 		mainwindow.switchFromConnectView();
 		this.mainListener = new Thread(new ServerListener(in,out));
+		lastRead = System.currentTimeMillis();
 		mainListener.start();
+		scheduleHeartbeat(pingInterval);
+	}
+	
+	/**
+	 * schedules the next heartbeat on the shared timer. Every pingInterval the server is sent a ping, whose
+	 * pong gives the round trip time. If no line at all comes from the server within pongTimeout of a ping,
+	 * the server is taken to be dead and the socket is closed, so the listener stops
+	 * @param delay milliseconds until the heartbeat
+	 */
+	private void scheduleHeartbeat(long delay){
+		if(pingInterval<=0 || serverDead || socket==null || socket.isClosed())return;
+		heartbeatTimer.schedule(new Runnable(){
+			public void run(){
+				if(socket.isClosed())return;
+				long now = System.currentTimeMillis();
+				if(pingSentAt>lastRead){//the last ping has not been answered
+					long waited = now-pingSentAt;
+					if(waited>=pongTimeout){
+						serverDead=true;
+						try{
+							socket.close();
+						}catch(IOException e){
+							e.printStackTrace();
+						}
+						return;
+					}
+					scheduleHeartbeat(pongTimeout-waited);
+					return;
+				}
+				if(now-pingSentAt<pingInterval){
+					scheduleHeartbeat(pingInterval-(now-pingSentAt));
+					return;
+				}
+				pingToken++;
+				pingSentNanos=System.nanoTime();
+				pingSentAt=now;
+				sendToServer("ping "+pingToken);
+				scheduleHeartbeat(Math.min(pingInterval,pongTimeout));
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * 
+	 * @return the round trip time to the server of the last ping it answered in milliseconds, or -1 if it has not answered one yet
+	 */
+	public long getRoundTripMillis(){
+		return roundTripMillis;
+	}
+	
+	/**
+	 * records the latency of a traced message, from the server reading it to it arriving here, in the room's
+	 * rolling histogram. The two times come from different clocks, so any skew between them is in the latency
+	 * @param roomno the room the message was said in
+	 * @param receivedMillis the server's System.currentTimeMillis() when it read the message
+	 * @param arrivedMillis System.currentTimeMillis() when the message arrived
+	 */
+	void recordMessageLatency(int roomno, long receivedMillis, long arrivedMillis){
+		RollingHistogram latency = messageLatency.get(roomno);
+		if(latency==null){//only the listener thread records, so no other can put the room's histogram meanwhile
+			latency = new RollingHistogram(LATENCY_WINDOW);
+			messageLatency.put(roomno, latency);
+		}
+		latency.record(arrivedMillis-receivedMillis);
+	}
+	
+	/**
+	 * 
+	 * @param roomno the room
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the latency in milliseconds at that percentile of the latest traced messages in the room, or -1 if none has arrived
+	 */
+	public long getMessageLatency(int roomno, double percentile){
+		RollingHistogram latency = messageLatency.get(roomno);
+		if(latency==null || latency.getCount()==0)return -1;
+		return latency.getValueAtPercentile(percentile);
+	}
+	
+	/**
+	 * 
+	 * @param roomno the room
+	 * @return the number of traced messages the room's latency is taken over, at most LATENCY_WINDOW
+	 */
+	public int getMessageLatencySamples(int roomno){
+		RollingHistogram latency = messageLatency.get(roomno);
+		return latency==null ? 0 : latency.getCount();
+	}
+	
+	/**
+	 * 
+	 * @return true if the connection was closed because the server stopped answering pings
+	 */
+	public boolean isServerDead(){
+		return serverDead;
 	}
 	
 	//requires input be non null, 
 	private void handleInput(String input)throws IOException{
 		//System.out.println("got command "+input);
+		lastRead = System.currentTimeMillis();
 		if(fullTranscript!=null){
 			synchronized(fullTranscript){
 				fullTranscript.print(">>> "+input+"\n");
@@ -148,6 +269,10 @@ public class Model {
 			case message:
 				notifyNewMsg(Integer.parseInt(cmd[2]), cmd[1], join(cmd,3,cmd.length));
 				return;
+			case tracedMessage:
+				recordMessageLatency(Integer.parseInt(cmd[2]), Long.parseLong(cmd[3]), lastRead);
+				notifyNewMsg(Integer.parseInt(cmd[2]), cmd[1], join(cmd,5,cmd.length));
+				return;
 			case roomcreated:
 				roomCreated(Integer.parseInt(cmd[1]));
 				return;
@@ -172,6 +297,16 @@ public class Model {
 			case roomUsers:
 				setUsersInRoom(Integer.parseInt(cmd[1]),Arrays.copyOfRange(cmd,2,cmd.length));
 				return;
+			case roomUsersDelta:
+				notifyUsersDelta(Integer.parseInt(cmd[1]),Integer.parseInt(cmd[2]),Integer.parseInt(cmd[3]),
+						Arrays.copyOfRange(cmd,4,cmd.length));
+				return;
+			case typingStates:
+				notifyTypingStates(Integer.parseInt(cmd[1]),Arrays.copyOfRange(cmd,2,cmd.length));
+				return;
+			case typingSummary:
+				notifyTypingSummary(Integer.parseInt(cmd[1]),Integer.parseInt(cmd[2]),Integer.parseInt(cmd[3]));
+				return;
 			case registerSuccess:
 				registerSuccess();
 				return;
@@ -181,6 +316,14 @@ public class Model {
 			case online:
 				onlineResponse(Arrays.copyOfRange(cmd,1,cmd.length));
 				return;
+			case ping:
+				sendToServer("pong "+cmd[1]);
+				return;
+			case pong:
+				if(cmd[1].equals(Long.toString(pingToken))){
+					roundTripMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-pingSentNanos);
+				}
+				return;
 			default:
 				//System.out.println("SHOULDN'T GET HERE, your switch statement doesn't include all Command types, namley "+cmd[0]);
 				throw new RuntimeException("SHOULDN'T GET HERE, your switch statement doesn't include all Command types, namley "+cmd[0]);
@@ -323,9 +466,8 @@ public class Model {
 		buddyList.clear();
 		
 		//we can't just call leaveRoom here because 
-		for(Integer i: roomList.keySet()){
-			Room r = roomList.get(i);
-			if(r!=null)r.leave();
+		for(Room r: roomList.values()){
+			r.leave();
 		}
 		
 		roomList.clear();
@@ -358,7 +500,7 @@ public class Model {
 	public void acceptInvite(int roomno){
         roomList.put(roomno, new Room(this,roomno));
 		sendToServer("accept "+roomno);
-		sendToServer("roomUsers "+roomno);
+		refreshUsersInRoom(roomno);
 		invitedList.remove(roomno);
 	}
 	
@@ -412,6 +554,24 @@ public class Model {
 		roomList.get(roomno).instantiateUserList(userStatus);
 	}
 	
+	/**
+	 * asks the server for the changes to the members of this room since the last roomUsersDelta,
+	 * or for every member if there was none
+	 * @param roomno the number of the room
+	 */
+	public void refreshUsersInRoom(int roomno){
+		Room r = roomList.get(roomno);
+		if(r!=null)sendToServer("roomUsersSince "+roomno+" "+r.getUsersVersion());
+	}
+	
+	private synchronized void notifyUsersDelta(int roomno, int fromVersion, int toVersion, String[] userStatus){
+		Room r = roomList.get(roomno);
+		if(r==null)return;
+		if(!r.applyUsersDelta(fromVersion,toVersion,userStatus)){
+			sendToServer("roomUsersSince "+roomno+" 0");//the delta doesn't follow what we have, start over
+		}
+	}
+	
 	//^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^
 	//^^^^^^^^^^^^^^^^^^Methods that the GUI calls^^^^^^^^^^^^^^^^^^^^^
 	//^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^^
@@ -456,8 +616,8 @@ public class Model {
 	}
 	
 	private void roomCreated(int roomno){
-		sendToServer("roomUsers "+roomno);
 		roomList.put(roomno,new Room(this,roomno));
+		refreshUsersInRoom(roomno);
 		String s = toInvite.poll();
 		if(s==null){//there is nothing waiting for a room 
 			
@@ -498,6 +658,24 @@ public class Model {
 			case 9:
 				NotificationDialog.InvalidLogin();
 				break;
+			case 10:
+				NotificationDialog.notPermittedError();
+				break;
+			case 11:
+				NotificationDialog.snapshotFailedError();
+				break;
+			case 12://the server dropped a command sent too fast, it can come once per dropped line so at most one dialog every few seconds
+				if(System.currentTimeMillis()-rateLimitedAt>=RATE_LIMITED_DIALOG_MILLIS){
+					NotificationDialog.rateLimitedError();
+					rateLimitedAt=System.currentTimeMillis();
+				}
+				break;
+			case 13://normally refused during the handshake, see EstablishClientHandshake, but handled in case it comes later
+				NotificationDialog.serverOverloadedError();
+				break;
+			case 14://the room could not be read back on the server, the command may be tried again
+				NotificationDialog.roomUnavailableError();
+				break;
 			default:
 				throw new RuntimeException("SHOULDN'T GET HERE!!!, received an unrecognized command");
 		}
@@ -553,6 +731,18 @@ public class Model {
 		if(r!=null)r.notifyUserEnteredText(contact);
 	}
 	
+	//the server collects typing changes and sends them together, as {username1,typingStatus,username2,typingStatus...}
+	private void notifyTypingStates(int roomno, String[] userStatus){
+		Room r = roomList.get(roomno);
+		if(r!=null)r.instantiateUserList(userStatus);
+	}
+	
+	//large rooms only get the number of members typing and the number that have entered text
+	private void notifyTypingSummary(int roomno, int typing, int enteredText){
+		Room r = roomList.get(roomno);
+		if(r!=null)r.notifyTypingSummary(typing,enteredText);
+	}
+	
 	/**
 	 * notifies the model typing status of this room has changed, where 0 corresponds to idle, 1 corresponds to typing
 	 * and 2 corresponds to entered Text
@@ -587,7 +777,8 @@ public class Model {
 	
 	private enum Command{
 		welcome,offline,invite,message,roomcreated,error,
-		enter,leave,roomUsers,online,userOnline,typing,idle,enteredText,registerSuccess;
+		enter,leave,roomUsers,online,userOnline,typing,idle,enteredText,registerSuccess,
+		typingStates,typingSummary,roomUsersDelta,ping,pong,tracedMessage;
 		
 		public static boolean contains(String s){
 			for(Command c: values()){
@@ -615,6 +806,10 @@ public class Model {
 				}
 				System.out.println("server died");
 			}catch(IOException e){
+				if(serverDead){
+					NotificationDialog.connectionLostError();
+					return;
+				}
 				e.printStackTrace();
 				throw new RuntimeException(e);
 			}	
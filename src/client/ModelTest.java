@@ -3,15 +3,22 @@ package client;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import server.ChatServer;
+import server.test.TestUserFile;
 import ui.ConnectView;
 import ui.MainWindow;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
 public class ModelTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
 	
 	//logged in
 	@Test
@@ -127,7 +134,7 @@ public class ModelTest {
 		String expected = "login evan a665a45920422f9d417e4867efdc4fb8a04a1f3fff1fa07e998e86f7f7a27ae3\n"+
 				"online\n"+
 				"create\n"+
-				"roomUsers 0\n";
+				"roomUsersSince 0 0\n";
 		
 		assertEquals(bos.toString(),expected);
 		server.kill();
@@ -162,7 +169,7 @@ public class ModelTest {
 		String expected = "login evan a665a45920422f9d417e4867efdc4fb8a04a1f3fff1fa07e998e86f7f7a27ae3\n"+
 						"online\n"+
 						"create\n"+
-						"roomUsers 0\n"+
+						"roomUsersSince 0 0\n"+
 						"invite jeff 0\n";	
 		System.out.println("\n\nBOS START");
 		System.out.println(bos);
@@ -386,7 +393,7 @@ public class ModelTest {
 		model.acceptInvite(0);
 		
 		String expected = "accept 0\n"+
-							"roomUsers 0\n";	//client doesn't send a register message
+							"roomUsersSince 0 0\n";	//client doesn't send a register message
 		
 		assertEquals(bos.toString(),expected);
 		server.kill();
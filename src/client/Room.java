@@ -15,6 +15,8 @@ public class Room {
 	private final int roomNumber;
 	private final RoomWindow roomwindow;
 	private int typingStatus;
+	private int usersVersion;//version of the member list, as given by the server's last roomUsersDelta
+	private volatile String typingSummary;//only set in rooms too large for the server to send each user's typing status
 	
 	private Map<String,Integer> userStatus; //Should this be Set? idk.
 	private Set<String> invited;
@@ -45,6 +47,35 @@ public class Room {
 		
 	}
 	
+	/**
+	 * applies a roomUsersDelta from the server to the member list
+	 * @param fromVersion the version the delta starts from, 0 if it replaces the whole member list
+	 * @param toVersion the version of the member list after the delta
+	 * @param delta an array of type {username1,status1,username2,status2...} where a status of -1 means the user left. Must be non null
+	 * @return false if the delta does not start from the version this room has (and was not applied), true otherwise
+	 */
+	public synchronized boolean applyUsersDelta(int fromVersion, int toVersion, String[] delta){
+		if(fromVersion!=0 && fromVersion!=usersVersion)return false;
+		if(fromVersion==0)userStatus.clear();
+		for(int i=0; i<delta.length; i+=2){
+			int status = Integer.parseInt(delta[i+1]);
+			if(status<0){
+				userStatus.remove(delta[i]);
+			}else{
+				userStatus.put(delta[i],status);
+			}
+		}
+		usersVersion=toVersion;
+		synchronized(roomwindow){
+			roomwindow.refresh();
+		}
+		return true;
+	}
+	
+	public synchronized int getUsersVersion(){
+		return usersVersion;
+	}
+	
 	/**
 	 * notifies this room that this contact has just entered this room
 	 * @param contact the username of the contact, must be non null
@@ -117,6 +148,30 @@ public class Room {
 	}
 	
 	
+	/**
+	 * notifies this room of how many users are typing, sent instead of each user's status in large rooms
+	 * @param typing the number of users that are typing
+	 * @param enteredText the number of users that have entered text
+	 */
+	public void notifyTypingSummary(int typing, int enteredText){
+		if(typing==0 && enteredText==0){
+			typingSummary=null;
+		}else{
+			typingSummary=typing+" typing, "+enteredText+" entered text";
+		}
+		synchronized(roomwindow){
+			roomwindow.refresh();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return a description of how many users are typing, or null if the server sends each user's status
+	 */
+	public String getTypingSummary(){
+		return typingSummary;
+	}
+	
 	/**
 	 * notifies this room that a new message has just been made in this room
 	 * @param contact the username of the contact who just sent a message
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.PushbackInputStream;
 import java.math.BigInteger;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -22,7 +23,7 @@ import javax.crypto.spec.DESKeySpec;
 import javax.crypto.spec.IvParameterSpec;
 
 public class EstablishClientHandshake {
-	private final InputStream inStream;
+	private final PushbackInputStream inStream;	//so the first byte of the server's answer can be looked at
 	private final OutputStream outStream;
 	
 	private CipherInputStream cis;
@@ -30,7 +31,7 @@ public class EstablishClientHandshake {
 	
 	private RSA rsa;
 	public EstablishClientHandshake(InputStream inStream, OutputStream outStream){
-		this.inStream=inStream;
+		this.inStream=new PushbackInputStream(inStream,1);
 		this.outStream=outStream;
 	}
 	
@@ -38,6 +39,8 @@ public class EstablishClientHandshake {
 	 * establishes a secure connection to the server using DES encryption. Passes the DES symmetric key
 	 * securley via RSA. Requires that an EstablishServerHandshake object is listening on the other side of
 	 * inStream and outStream
+	 * @throws ServerRefusedException if the server sent an error line instead of the key, eg. error 13
+	 * because it is overloaded. The server has closed the connection
 	 * @throws IOException
 	 * @throws NoSuchAlgorithmException
 	 * @throws NoSuchProviderException
@@ -52,6 +55,7 @@ public class EstablishClientHandshake {
 		InvalidAlgorithmParameterException{
 	    
 		establishRSA();
+		checkRefused();
 		
 		//listen for the secret key on the input stream
 	    ObjectInputStream ois = new ObjectInputStream(inStream);
@@ -79,6 +83,32 @@ public class EstablishClientHandshake {
 		cis.read(new byte[256]);
 	}
 	
+	/**
+	 * looks at the first byte of the server's answer: the key is a serialized object, whose stream header
+	 * starts with 0xAC, while a refusal is a plain text line starting with "error"
+	 * @throws ServerRefusedException if the answer is an error line
+	 * @throws IOException if the server closed the connection without answering
+	 */
+	private void checkRefused()throws IOException{
+		int first = inStream.read();
+		if(first<0)throw new IOException("server closed the connection during the handshake");
+		if(first!='e'){
+			inStream.unread(first);
+			return;
+		}
+		StringBuilder line = new StringBuilder("e");
+		int c;
+		while((c=inStream.read())>=0 && c!='\n'){
+			line.append((char)c);
+		}
+		String[] words = line.toString().split(" ");
+		int code = -1;
+		if(words.length>1 && words[0].equals("error") && words[1].matches("\\d+")){
+			code = Integer.parseInt(words[1]);
+		}
+		throw new ServerRefusedException(code, line.toString());
+	}
+	
 	private void establishRSA()throws IOException{
 		rsa = new RSA();
 		PrintWriter pw = new PrintWriter(outStream,true);
@@ -25,6 +25,8 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.DESKeySpec;
 import javax.crypto.spec.IvParameterSpec;
 
+import metrics.FlightEvents;
+
 public class EstablishServerHandshake{
 	private final InputStream inStream;
 	private final OutputStream outStream;
@@ -55,6 +57,20 @@ public class EstablishServerHandshake{
 	public void init()throws IOException, NoSuchAlgorithmException,NoSuchProviderException,
 		NoSuchPaddingException,InvalidKeyException,ClassNotFoundException,InvalidKeySpecException,
 		InvalidAlgorithmParameterException{
+		Object event = FlightEvents.beginHandshake();
+		boolean succeeded = false;
+		try{
+			establish();
+			succeeded = true;
+		}finally{
+			FlightEvents.endHandshake(event, succeeded);
+		}
+	}
+	
+	//exchanges the RSA keys, then sends the DES key and IV encrypted with the client's RSA key
+	private void establish()throws IOException, NoSuchAlgorithmException,NoSuchProviderException,
+		NoSuchPaddingException,InvalidKeyException,ClassNotFoundException,InvalidKeySpecException,
+		InvalidAlgorithmParameterException{
 		
 		establishRSA();
 	
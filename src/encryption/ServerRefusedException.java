@@ -0,0 +1,29 @@
+package encryption;
+
+import java.io.IOException;
+
+/**
+ * Thrown by EstablishClientHandshake when the server answers the handshake with a plain text error line
+ * instead of the key, as it does when it is overloaded, and closes the connection.
+ */
+@SuppressWarnings("serial")
+public class ServerRefusedException extends IOException {
+
+	private final int code;
+
+	/**
+	 * @param code the number of the error the server sent, -1 if it could not be read
+	 * @param message the line the server sent
+	 */
+	public ServerRefusedException(int code, String message){
+		super(message);
+		this.code=code;
+	}
+
+	/**
+	 * @return the number of the error the server sent (13 if it is overloaded), -1 if it could not be read
+	 */
+	public int getCode(){
+		return code;
+	}
+}
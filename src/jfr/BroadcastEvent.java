@@ -0,0 +1,27 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for a Room telling its members of a chat line, a join, a leave or typing changes
+ */
+@Name("chat.RoomBroadcast")
+@Label("Room Broadcast")
+@Category("Chat")
+@Description("A room handing one notification to every member")
+public class BroadcastEvent extends jdk.jfr.Event {
+
+    @Label("Room")
+    int room;
+
+    @Label("Recipients")
+    int recipients;
+
+    @Label("Broadcast Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long broadcastTime;
+}
@@ -0,0 +1,27 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event for one client --> server command handled by User.handleCommand
+ */
+@Name("chat.Command")
+@Label("Command")
+@Category("Chat")
+@Description("A client command and how long the server took to handle it")
+public class CommandEvent extends jdk.jfr.Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("User")
+    String user;
+
+    @Label("Handling Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long handlingTime;
+}
@@ -0,0 +1,20 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the encryption handshake of a new session, from EstablishServerHandshake.init starting to
+ * it returning or failing
+ */
+@Name("chat.Handshake")
+@Label("Handshake")
+@Category("Chat")
+@Description("Key exchange at the start of a session")
+public class HandshakeEvent extends jdk.jfr.Event {
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
@@ -0,0 +1,136 @@
+package jfr;
+
+import metrics.FlightEventSink;
+
+/**
+ * Sends the events of the server to the Java Flight Recorder, for any running recording that enables them.
+ * metrics.FlightEvents loads this class by name when the events are turned on, so this package is the only
+ * part of the server that needs jdk.jfr.
+ *
+ * The cost is that of JFR itself: an event that no recording wants is dropped by shouldCommit before its
+ * fields are filled in.
+ *
+ * Threadsafe argument:
+ * There is no state. Each event object is only used by the thread that made it.
+ */
+public class JfrEventSink implements FlightEventSink {
+
+    /**
+     * Creates a new JfrEventSink
+     */
+    public JfrEventSink() {
+    }
+
+    /**
+     * Starts timing a handshake
+     * @return - the event to pass to endHandshake
+     */
+    @Override
+    public Object beginHandshake() {
+        HandshakeEvent event = new HandshakeEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends a handshake started with beginHandshake
+     * @param token - the event beginHandshake returned, no effect if null
+     * @param succeeded - true if the handshake completed
+     */
+    @Override
+    public void endHandshake(Object token, boolean succeeded) {
+        if (token == null) {
+            return;
+        }
+        HandshakeEvent event = (HandshakeEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.succeeded = succeeded;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a command handled by a session
+     * @param command - the name of the command
+     * @param user - the username of the session, null if not logged in
+     * @param nanos - how long the command took
+     */
+    @Override
+    public void command(String command, String user, long nanos) {
+        CommandEvent event = new CommandEvent();
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.user = user;
+            event.handlingTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a broadcast to the members of a room
+     * @param room - the room number
+     * @param recipients - the number of members told
+     * @param nanos - how long the broadcast took
+     */
+    @Override
+    public void broadcast(int room, int recipients, long nanos) {
+        BroadcastEvent event = new BroadcastEvent();
+        if (event.shouldCommit()) {
+            event.room = room;
+            event.recipients = recipients;
+            event.broadcastTime = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a write of queued lines to a session's connection
+     * @return - the event to pass to endWrite
+     */
+    @Override
+    public Object beginWrite() {
+        SlowConsumerEvent event = new SlowConsumerEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends a write started with beginWrite. It is only recorded if it took longer than the event's threshold
+     * @param token - the event beginWrite returned, no effect if null
+     * @param lines - the number of lines written
+     * @param queued - the number of lines still waiting to be written
+     */
+    @Override
+    public void endWrite(Object token, int lines, int queued) {
+        if (token == null) {
+            return;
+        }
+        SlowConsumerEvent event = (SlowConsumerEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.lines = lines;
+            event.queued = queued;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a line appended to a Tablet
+     * @param lineBytes - the UTF-8 size of the line
+     * @param lines - the number of lines in the Tablet after the append
+     * @param textBytes - the size of all the text in the Tablet after the append
+     * @param offHeap - true if the Tablet keeps its text off the heap
+     */
+    @Override
+    public void tabletAppend(int lineBytes, int lines, long textBytes, boolean offHeap) {
+        TabletAppendEvent event = new TabletAppendEvent();
+        if (event.shouldCommit()) {
+            event.lineBytes = lineBytes;
+            event.lines = lines;
+            event.textBytes = textBytes;
+            event.offHeap = offHeap;
+            event.commit();
+        }
+    }
+}
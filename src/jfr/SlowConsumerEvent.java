@@ -0,0 +1,26 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * JFR event for a thread stalled writing to a session's connection, because the client reads slower than
+ * the server writes. Only writes that take longer than the threshold (20 ms unless the recording sets
+ * another) are recorded
+ */
+@Name("chat.SlowConsumer")
+@Label("Slow Consumer")
+@Category("Chat")
+@Description("Writing queued lines to a client took longer than the threshold")
+@Threshold("20 ms")
+public class SlowConsumerEvent extends jdk.jfr.Event {
+
+    @Label("Lines Written")
+    int lines;
+
+    @Label("Lines Still Queued")
+    int queued;
+}
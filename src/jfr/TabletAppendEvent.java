@@ -0,0 +1,31 @@
+package jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a line appended to a room's Tablet
+ */
+@Name("chat.TabletAppend")
+@Label("Tablet Append")
+@Category("Chat")
+@Description("A chat line stored in a room's Tablet")
+public class TabletAppendEvent extends jdk.jfr.Event {
+
+    @Label("Line Size")
+    @DataAmount
+    int lineBytes;
+
+    @Label("Lines")
+    int lines;
+
+    @Label("Text Size")
+    @DataAmount
+    long textBytes;
+
+    @Label("Off Heap")
+    boolean offHeap;
+}
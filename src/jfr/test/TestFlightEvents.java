@@ -0,0 +1,112 @@
+package jfr.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import metrics.FlightEvents;
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests for the flight recorder events
+ *
+ * Testing strategy
+ * 1. With the events off, test that nothing is allocated to time a handshake or a write.
+ * 2. With the events on and a recording running, log in, create a room and say a line, and time a
+ *    handshake. Test that the command, broadcast, Tablet append and handshake events are recorded with
+ *    their fields.
+ */
+public class TestFlightEvents {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    private int count(List<RecordedEvent> events, String name) {
+        int n = 0;
+        for (RecordedEvent e : events) {
+            if (e.getEventType().getName().equals(name)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testOff() {
+        FlightEvents.setEnabled(false);
+        assertNull(FlightEvents.beginHandshake());
+        assertNull(FlightEvents.beginWrite());
+        FlightEvents.command("say", "nobody", 1);     // no effect
+    }
+
+    @Test
+    public void testRecorded() throws IOException, InterruptedException {
+        FlightEvents.setEnabled(true);
+        Recording recording = new Recording();
+        recording.enable("chat.Command");
+        recording.enable("chat.RoomBroadcast");
+        recording.enable("chat.TabletAppend");
+        recording.enable("chat.Handshake");
+        recording.start();
+        ChatServer server = new ChatServer(4445);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register recorded1 123\n");
+        send(pipe, t, "login recorded1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "say 0 hello\n");
+        FlightEvents.endHandshake(FlightEvents.beginHandshake(), true);
+        server.kill();
+        recording.stop();
+        FlightEvents.setEnabled(false);
+        File file = File.createTempFile("chat", ".jfr");
+        recording.dump(file.toPath());
+        recording.close();
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+        file.delete();
+        assertEquals(4, count(events, "chat.Command"));
+        assertEquals(1, count(events, "chat.RoomBroadcast"));
+        assertEquals(1, count(events, "chat.TabletAppend"));
+        assertEquals(1, count(events, "chat.Handshake"));
+        for (RecordedEvent e : events) {
+            String name = e.getEventType().getName();
+            if (name.equals("chat.RoomBroadcast")) {
+                assertEquals(1, e.getInt("recipients"));
+                assertTrue(e.getLong("broadcastTime") >= 0);
+            }
+            else if (name.equals("chat.TabletAppend")) {
+                assertEquals(5, e.getInt("lineBytes"));
+            }
+            else if (name.equals("chat.Handshake")) {
+                assertEquals(true, e.getBoolean("succeeded"));
+            }
+        }
+    }
+}
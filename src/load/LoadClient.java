@@ -0,0 +1,297 @@
+package load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import encryption.EstablishClientHandshake;
+import encryption.StreamPair;
+
+/**
+ * One simulated client of a LoadGenerator. It connects with the real handshake, registers and logs in, and then
+ * performs the operations its generator asks for, speaking the same protocol as client.Model but with no GUI.
+ *
+ * Each operation is timed from sending the command to the line from the server that answers it:
+ * login - the welcome
+ * create - the roomcreated
+ * invite - the invite reaching the invited client
+ * accept - the client's own enter
+ * say - the client's own message coming back
+ * deliver - the message reaching every other member of the room, one sample per member
+ * The time a line was said is written in the line itself, so every member can time its delivery; all clients
+ * run in the generator's process, so their System.nanoTime() clocks agree.
+ *
+ * Threadsafe argument:
+ * Commands are sent by the generator's sender threads and by this client's reader thread (answers to pings
+ * and invites) through one autoflushing PrintWriter, which is synchronized. The rooms list is synchronized,
+ * the pending operations are in concurrent collections, the flags are volatile and Random is threadsafe. The
+ * generator never runs two operations of one client at once.
+ */
+public class LoadClient implements Runnable {
+
+    private final LoadGenerator generator;
+    private final String name;
+    private final String password;
+    private final Random random;
+    private final List<Integer> rooms;                  // the rooms the client is in
+    private final Queue<Long> createStarts;             // System.nanoTime() of each create not answered yet
+    private final ConcurrentMap<Integer, Long> acceptStarts;    // by room, System.nanoTime() of the accept
+    private final Histogram connectLatency;
+    private final Histogram loginLatency;
+    private final Histogram createLatency;
+    private final Histogram inviteLatency;
+    private final Histogram acceptLatency;
+    private final Histogram sayLatency;
+    private final Histogram deliverLatency;
+    private final Counter[] ops;                        // by Op ordinal, the operations sent
+    private Socket socket;
+    private PrintWriter out;
+    private BufferedReader in;
+    private volatile long loginStart;
+    private volatile boolean loggedIn;
+    private volatile boolean closed;
+
+    /**
+     * @param generator - requires generator not null, the generator that drives this client
+     * @param name - requires name be a valid username
+     * @param password - requires password not null and without spaces
+     * @param seed - the seed of the client's choices
+     */
+    public LoadClient(LoadGenerator generator, String name, String password, long seed) {
+        this.generator = generator;
+        this.name = name;
+        this.password = password;
+        this.random = new Random(seed);
+        this.rooms = new ArrayList<Integer>();
+        this.createStarts = new ConcurrentLinkedQueue<Long>();
+        this.acceptStarts = new ConcurrentHashMap<Integer, Long>();
+        MetricsRegistry metrics = generator.getMetrics();
+        this.connectLatency = metrics.histogram("load.connect");
+        this.loginLatency = metrics.histogram("load.login");
+        this.createLatency = metrics.histogram("load.create");
+        this.inviteLatency = metrics.histogram("load.invite");
+        this.acceptLatency = metrics.histogram("load.accept");
+        this.sayLatency = metrics.histogram("load.say");
+        this.deliverLatency = metrics.histogram("load.deliver");
+        this.ops = new Counter[LoadMix.Op.values().length];
+        for (LoadMix.Op op : LoadMix.Op.values()) {
+            ops[op.ordinal()] = metrics.counter("load.sent." + op.name());
+        }
+        this.loggedIn = false;
+        this.closed = false;
+    }
+
+    /**
+     * Connects to the server with the handshake, then registers and logs in. The client is ready for
+     * operations once its generator is told it has logged in
+     * @param host - requires host not null
+     * @param port - requires port be the port of a ChatServer on host
+     * @throws Exception if the connection or the handshake fails, eg. because the server refused it
+     */
+    public void connect(String host, int port) throws Exception {
+        long start = System.nanoTime();
+        socket = new Socket(host, port);
+        EstablishClientHandshake handshake = new EstablishClientHandshake(socket.getInputStream(),
+                socket.getOutputStream());
+        handshake.init();
+        StreamPair pair = handshake.getStreamPair();
+        in = new BufferedReader(new InputStreamReader(pair.inputStream()));
+        out = new PrintWriter(pair.outputStream(), true);
+        connectLatency.record(System.nanoTime() - start);
+        Thread reader = new Thread(this, "load-" + name);
+        reader.setDaemon(true);
+        reader.start();
+        send("register " + name + " " + password);   // an error 8 if it is left from an earlier run is harmless
+        login();
+    }
+
+    /**
+     * Performs one operation. An operation that needs a room when the client is in none creates one
+     * instead, and an invite with no other client to invite says something instead
+     * @param op - requires op not null
+     */
+    public void perform(LoadMix.Op op) {
+        if (!loggedIn || closed) {
+            return;
+        }
+        Integer room = randomRoom();
+        if (room == null && op != LoadMix.Op.login) {
+            op = LoadMix.Op.create;
+        }
+        LoadClient contact = null;
+        if (op == LoadMix.Op.invite) {
+            contact = generator.randomClient(this, random);
+            if (contact == null) {
+                op = LoadMix.Op.say;
+            }
+        }
+        ops[op.ordinal()].increment();
+        switch (op) {
+            case login:
+                loggedIn = false;
+                synchronized (rooms) {
+                    rooms.clear();
+                }
+                send("logout");
+                login();
+                return;
+            case create:
+                createStarts.add(System.nanoTime());
+                send("create");
+                return;
+            case invite:
+                generator.invited(contact.name, room, System.nanoTime());
+                send("invite " + contact.name + " " + room);
+                return;
+            case say:
+                send("say " + room + " " + System.nanoTime() + " " + generator.getPadding());
+                return;
+            case typing:
+                send("typing " + room);
+                return;
+            default:
+                throw new RuntimeException("SHOULDN'T GET HERE, perform doesn't handle " + op);
+        }
+    }
+
+    /**
+     * Reads and handles the server's lines until the connection closes
+     */
+    @Override
+    public void run() {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                handleLine(line);
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                generator.getMetrics().counter("load.disconnected").increment();
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        loggedIn = false;
+    }
+
+    private void handleLine(String line) {
+        String[] cmd = line.split(" ");
+        long now = System.nanoTime();
+        if (cmd[0].equals("welcome")) {
+            loginLatency.record(now - loginStart);
+            loggedIn = true;
+            generator.loggedIn(this);
+        }
+        else if (cmd[0].equals("roomcreated")) {
+            Long start = createStarts.poll();
+            if (start != null) {
+                createLatency.record(now - start);
+            }
+            addRoom(Integer.parseInt(cmd[1]));
+        }
+        else if (cmd[0].equals("invite")) {
+            int room = Integer.parseInt(cmd[1]);
+            Long start = generator.inviteArrived(name, room);
+            if (start != null) {
+                inviteLatency.record(now - start);
+            }
+            if (random.nextInt(100) < generator.getAcceptPercent()) {
+                acceptStarts.put(room, System.nanoTime());
+                send("accept " + room);
+            }
+            else {
+                send("decline " + room);
+            }
+        }
+        else if (cmd[0].equals("enter") && cmd[1].equals(name)) {
+            int room = Integer.parseInt(cmd[2]);
+            Long start = acceptStarts.remove(room);
+            if (start != null) {
+                acceptLatency.record(now - start);
+            }
+            addRoom(room);
+        }
+        else if (cmd[0].equals("message") || cmd[0].equals("tracedMessage")) {
+            int said = cmd[0].equals("message") ? 3 : 5;  // a traced message has the two server times first
+            if (cmd.length > said && cmd[said].matches("[0-9]+")) {
+                long start = Long.parseLong(cmd[said]);
+                if (cmd[1].equals(name)) {
+                    sayLatency.record(now - start);
+                }
+                else {
+                    deliverLatency.record(now - start);
+                }
+            }
+        }
+        else if (cmd[0].equals("ping")) {
+            send("pong " + cmd[1]);
+        }
+        else if (cmd[0].equals("error")) {
+            generator.getMetrics().counter("load.error." + cmd[1]).increment();
+        }
+    }
+
+    private void login() {
+        loginStart = System.nanoTime();
+        send("login " + name + " " + password);
+    }
+
+    private void addRoom(int room) {
+        synchronized (rooms) {
+            if (!rooms.contains(room)) {
+                rooms.add(room);
+            }
+        }
+    }
+
+    private Integer randomRoom() {
+        synchronized (rooms) {
+            return rooms.isEmpty() ? null : rooms.get(random.nextInt(rooms.size()));
+        }
+    }
+
+    private void send(String line) {
+        out.println(line);
+    }
+
+    /**
+     * @return - the client's username
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return - true if the client is logged in and ready for operations
+     */
+    public boolean isLoggedIn() {
+        return loggedIn;
+    }
+
+    /**
+     * Closes the connection
+     */
+    public void close() {
+        closed = true;
+        loggedIn = false;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import encryption.ServerRefusedException;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import server.ChatServer;
+import util.HashedWheelTimer;
+
+/**
+ * A headless load generator: simulates many clients against a ChatServer, each a LoadClient that does the real
+ * handshake and speaks the protocol, and reports the throughput and latency percentiles of every operation.
+ *
+ * The clients connect spread over the ramp time, then each performs operations picked from the mix at random
+ * times, a Poisson process at the configured rate per client, until the duration is up. Operations are sent
+ * open loop: a client does not wait for one to be answered before the next, so a slow server shows up as
+ * latency rather than as fewer operations.
+ *
+ * Settings are read from system properties, and have setters:
+ * load.host - the server's host (localhost)
+ * load.port - the server's port, 0 to start a ChatServer in this process (0)
+ * load.clients - the number of simulated clients (100)
+ * load.rate - operations each client sends per second (1)
+ * load.rampMs - the time over which the clients connect (5000)
+ * load.durationMs - how long the clients send operations once the ramp is over (30000)
+ * load.mix - the mix of operations, see LoadMix (say=60,typing=25,invite=10,create=5)
+ * load.acceptPercent - the percentage of invites accepted, the rest are declined (90)
+ * load.lineLength - the number of characters of padding in every line said (40)
+ * load.senderThreads - the number of threads that connect the clients and send operations (8)
+ * load.reportMs - how often progress is printed, 0 for never (5000)
+ *
+ * Threadsafe argument:
+ * The settings are only changed before run. The clients and the pending invites are in synchronized and
+ * concurrent collections, and the metrics are threadsafe. Timer tasks only hand work to the sender pool.
+ */
+public class LoadGenerator {
+
+    private static final String PASSWORD = "load";
+
+    private final MetricsRegistry metrics;
+    private final List<LoadClient> clients;         // every client made, to close them at the end
+    private final List<LoadClient> ready;           // the clients that have logged in at least once
+    private final ConcurrentMap<String, Long> pendingInvites;  // "username room" to System.nanoTime() of the invite
+    private final Random random;
+    private String host;
+    private int port;
+    private int clientCount;
+    private double rate;
+    private long rampMillis;
+    private long durationMillis;
+    private LoadMix mix;
+    private int acceptPercent;
+    private String padding;
+    private int senderThreads;
+    private long reportMillis;
+    private HashedWheelTimer timer;
+    private ExecutorService senders;
+    private volatile boolean stopped;
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * Creates a generator with the settings from the system properties
+     */
+    public LoadGenerator() {
+        metrics = new MetricsRegistry();
+        clients = Collections.synchronizedList(new ArrayList<LoadClient>());
+        ready = Collections.synchronizedList(new ArrayList<LoadClient>());
+        pendingInvites = new ConcurrentHashMap<String, Long>();
+        random = new Random();
+        host = System.getProperty("load.host", "localhost");
+        port = Integer.getInteger("load.port", 0);
+        clientCount = Integer.getInteger("load.clients", 100);
+        rate = Double.parseDouble(System.getProperty("load.rate", "1"));
+        rampMillis = Long.getLong("load.rampMs", 5000);
+        durationMillis = Long.getLong("load.durationMs", 30000);
+        mix = System.getProperty("load.mix") == null ? LoadMix.DEFAULT : LoadMix.parse(System.getProperty("load.mix"));
+        acceptPercent = Integer.getInteger("load.acceptPercent", 90);
+        setLineLength(Integer.getInteger("load.lineLength", 40));
+        senderThreads = Integer.getInteger("load.senderThreads", 8);
+        reportMillis = Long.getLong("load.reportMs", 5000);
+        stopped = false;
+    }
+
+    /**
+     * Runs the load: starts a ChatServer if no port is set, connects the clients, sends operations for the
+     * duration, then disconnects everything and prints the report
+     * @param report - requires report not null, where the progress and the report are printed
+     * @throws IOException if the ChatServer cannot be started
+     * @throws InterruptedException if interrupted while the load runs
+     */
+    public void run(PrintStream report) throws IOException, InterruptedException {
+        ChatServer server = null;
+        String target = host;
+        int targetPort = port;
+        if (port == 0) {
+            server = new ChatServer(0);
+            final ChatServer embedded = server;
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    embedded.start();
+                }
+            }, "load-server");
+            t.setDaemon(true);
+            t.start();
+            target = "localhost";
+            targetPort = server.getPort();
+        }
+        report.println("load: " + clientCount + " clients at " + rate + " ops/s each, mix " + mix + ", against "
+                + target + ":" + targetPort + (server == null ? "" : " (in process)"));
+        timer = new HashedWheelTimer("load-timer", 10, 512);
+        senders = Executors.newFixedThreadPool(senderThreads, new ThreadFactory() {
+            private int count = 0;
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "load-sender-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        startNanos = System.nanoTime();
+        for (int i = 0; i < clientCount; i++) {
+            final LoadClient client = new LoadClient(this, "load" + i, PASSWORD, random.nextLong());
+            clients.add(client);
+            final String connectHost = target;
+            final int connectPort = targetPort;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    senders.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            connect(client, connectHost, connectPort);
+                        }
+                    });
+                }
+            }, clientCount == 1 ? 0 : rampMillis * i / (clientCount - 1), TimeUnit.MILLISECONDS);
+        }
+        long total = rampMillis + durationMillis;
+        long elapsed = 0;
+        while (elapsed < total) {
+            long wait = reportMillis > 0 ? Math.min(reportMillis, total - elapsed) : total - elapsed;
+            Thread.sleep(wait);
+            elapsed += wait;
+            if (reportMillis > 0 && elapsed < total) {
+                printProgress(report, elapsed);
+            }
+        }
+        stop();
+        endNanos = System.nanoTime();
+        if (server != null) {
+            server.kill();
+        }
+        printReport(report);
+    }
+
+    private void connect(LoadClient client, String connectHost, int connectPort) {
+        if (stopped) {
+            return;
+        }
+        try {
+            client.connect(connectHost, connectPort);
+        } catch (ServerRefusedException e) {
+            metrics.counter("load.connectRefused").increment();
+            client.close();
+        } catch (Exception e) {
+            metrics.counter("load.connectFailed").increment();
+            client.close();
+        }
+    }
+
+    /**
+     * Called by a client each time it logs in. Starts the client's operations the first time
+     * @param client - requires client not null
+     */
+    void loggedIn(LoadClient client) {
+        synchronized (ready) {
+            if (ready.contains(client)) {
+                return;
+            }
+            ready.add(client);
+        }
+        scheduleNext(client);
+    }
+
+    private void scheduleNext(final LoadClient client) {
+        if (stopped || rate <= 0) {
+            return;
+        }
+        long delay = (long) (-Math.log(1 - random.nextDouble()) * 1000 / rate);   // exponential, mean 1000/rate
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                senders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (stopped) {
+                            return;
+                        }
+                        client.perform(mix.pick(random));
+                        scheduleNext(client);
+                    }
+                });
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param except - requires except not null
+     * @param r - requires r not null
+     * @return - a random logged in client other than except, or null if there is none
+     */
+    LoadClient randomClient(LoadClient except, Random r) {
+        synchronized (ready) {
+            if (ready.size() < 2) {
+                return null;
+            }
+            for (int tries = 0; tries < 4; tries++) {
+                LoadClient c = ready.get(r.nextInt(ready.size()));
+                if (c != except && c.isLoggedIn()) {
+                    return c;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Notes an invite being sent, so its arrival can be timed
+     * @param username - requires username not null, the client invited
+     * @param room - the room
+     * @param nanos - System.nanoTime() when the invite was sent
+     */
+    void invited(String username, int room, long nanos) {
+        pendingInvites.put(username + " " + room, nanos);
+    }
+
+    /**
+     * @param username - requires username not null, the client the invite reached
+     * @param room - the room
+     * @return - System.nanoTime() when the invite was sent, or null if it is not known
+     */
+    Long inviteArrived(String username, int room) {
+        return pendingInvites.remove(username + " " + room);
+    }
+
+    /**
+     * Stops sending operations and closes every client
+     */
+    public void stop() {
+        stopped = true;
+        if (timer != null) {
+            timer.stop();
+        }
+        if (senders != null) {
+            senders.shutdownNow();
+        }
+        synchronized (clients) {
+            for (LoadClient c : clients) {
+                c.close();
+            }
+        }
+    }
+
+    private void printProgress(PrintStream report, long elapsed) {
+        long sent = 0;
+        for (LoadMix.Op op : LoadMix.Op.values()) {
+            sent += metrics.counter("load.sent." + op.name()).get();
+        }
+        report.println(String.format("%6.1fs  clients %d  sent %d  delivered %d", elapsed / 1000.0, ready.size(),
+                sent, metrics.histogram("load.deliver").getCount()));
+    }
+
+    /**
+     * Prints the throughput and latency percentiles of every operation, and the counts of sent operations and
+     * errors. Latencies are in milliseconds, throughputs are over the whole run
+     * @param report - requires report not null
+     */
+    public void printReport(PrintStream report) {
+        double seconds = (endNanos - startNanos) / 1e9;
+        report.println(String.format("%-16s %10s %10s %9s %9s %9s %9s", "operation", "count", "ops/s", "p50 ms",
+                "p90 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, Histogram> e : metrics.getHistograms().entrySet()) {
+            Histogram h = e.getValue();
+            report.println(String.format("%-16s %10d %10.1f %9.2f %9.2f %9.2f %9.2f", e.getKey(), h.getCount(),
+                    h.getCount() / seconds, h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(90) / 1e6,
+                    h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6));
+        }
+        for (Map.Entry<String, Counter> e : metrics.getCounters().entrySet()) {
+            report.println(String.format("%-24s %10d", e.getKey(), e.getValue().get()));
+        }
+    }
+
+    /**
+     * @return - the metrics of the run: a histogram of nanoseconds per kind of operation, and counters of the
+     * operations sent, errors received, and connections refused by an overloaded server or otherwise failed
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    String getPadding() {
+        return padding;
+    }
+
+    int getAcceptPercent() {
+        return acceptPercent;
+    }
+
+    /**
+     * @param host - requires host not null
+     * @param port - requires port >= 0, 0 to start a ChatServer in this process
+     */
+    public void setTarget(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param count - requires count > 0
+     */
+    public void setClients(int count) {
+        clientCount = count;
+    }
+
+    /**
+     * @param perSecond - operations each client sends per second, 0 to only connect and log in
+     */
+    public void setRate(double perSecond) {
+        rate = perSecond;
+    }
+
+    /**
+     * @param ramp - requires ramp >= 0, milliseconds over which the clients connect
+     * @param duration - requires duration >= 0, milliseconds the load runs once the ramp is over
+     */
+    public void setTiming(long ramp, long duration) {
+        rampMillis = ramp;
+        durationMillis = duration;
+    }
+
+    /**
+     * @param m - requires m not null
+     */
+    public void setMix(LoadMix m) {
+        mix = m;
+    }
+
+    /**
+     * @param percent - requires 0 <= percent <= 100
+     */
+    public void setAcceptPercent(int percent) {
+        acceptPercent = percent;
+    }
+
+    /**
+     * @param length - requires length >= 0
+     */
+    public void setLineLength(int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        padding = sb.toString();
+    }
+
+    /**
+     * @param millis - how often progress is printed, 0 for never
+     */
+    public void setReportMillis(long millis) {
+        reportMillis = millis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator().run(System.out);
+    }
+}
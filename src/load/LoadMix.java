@@ -0,0 +1,120 @@
+package load;
+
+import java.util.Random;
+
+/**
+ * Immutable datatype for the mix of operations the simulated clients of a LoadGenerator perform: the weight
+ * of each Op, out of the sum of all the weights.
+ *
+ * Written as "op=weight,op=weight", eg. -Dload.mix=say=60,typing=25,invite=10,create=5. An op left out has
+ * weight 0. Accepting is not part of the mix: it is how a client answers an invite (see
+ * LoadGenerator's load.acceptPercent).
+ *
+ * Threadsafe argument:
+ * All fields are final, and the weights array is never changed after construction nor shared.
+ */
+public class LoadMix {
+
+    /**
+     * The operations a simulated client chooses from
+     * login - log out and log back in, leaving every room
+     * create - create a room
+     * invite - invite another client to one of the client's rooms
+     * say - say a line in one of the client's rooms
+     * typing - tell one of the client's rooms it is typing
+     */
+    public enum Op {
+        login, create, invite, say, typing
+    }
+
+    /**
+     * The default mix: mostly chat, with a few new rooms and invites so the rooms fill up
+     */
+    public static final LoadMix DEFAULT = parse("say=60,typing=25,invite=10,create=5");
+
+    private final int[] weights;    // by Op ordinal
+    private final int total;
+
+    /**
+     * @param weights - requires weights not null, one non-negative weight for each Op, by ordinal, with a
+     * positive sum
+     * @throws IllegalArgumentException if the weights are not valid
+     */
+    public LoadMix(int[] weights) {
+        if (weights.length != Op.values().length) {
+            throw new IllegalArgumentException("ERROR: Load mix needs a weight for every operation.");
+        }
+        int sum = 0;
+        for (int w : weights) {
+            if (w < 0) {
+                throw new IllegalArgumentException("ERROR: Load mix weights cannot be negative.");
+            }
+            sum += w;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("ERROR: Load mix needs at least one positive weight.");
+        }
+        this.weights = weights.clone();
+        this.total = sum;
+    }
+
+    /**
+     * Parses a mix written as "op=weight,op=weight"
+     * @param s - requires s not null
+     * @return - the mix
+     * @throws IllegalArgumentException if s is not a valid mix
+     */
+    public static LoadMix parse(String s) {
+        int[] weights = new int[Op.values().length];
+        try {
+            for (String part : s.trim().split(",")) {
+                String[] kv = part.trim().split("=");
+                if (kv.length != 2) {
+                    throw new IllegalArgumentException("ERROR: Bad load mix " + s);
+                }
+                weights[Op.valueOf(kv[0].trim()).ordinal()] = Integer.parseInt(kv[1].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERROR: Bad load mix " + s);
+        }
+        return new LoadMix(weights);
+    }
+
+    /**
+     * @param op - requires op not null
+     * @return - the weight of op
+     */
+    public int getWeight(Op op) {
+        return weights[op.ordinal()];
+    }
+
+    /**
+     * Picks an operation with probability proportional to its weight
+     * @param random - requires random not null
+     * @return - the operation
+     */
+    public Op pick(Random random) {
+        int r = random.nextInt(total);
+        for (Op op : Op.values()) {
+            r -= weights[op.ordinal()];
+            if (r < 0) {
+                return op;
+            }
+        }
+        throw new IllegalStateException("SHOULDN'T GET HERE, the weights add up to total");
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Op op : Op.values()) {
+            if (weights[op.ordinal()] > 0) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(op.name()).append('=').append(weights[op.ordinal()]);
+            }
+        }
+        return sb.toString();
+    }
+}
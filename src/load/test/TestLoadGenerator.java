@@ -0,0 +1,79 @@
+package load.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import load.LoadGenerator;
+import load.LoadMix;
+import metrics.MetricsRegistry;
+
+/**
+ * Tests the load generator and its mix of operations
+ *
+ * Testing strategy:
+ * 1. Parse a mix and test its weights, that picks follow them, and that bad mixes are refused.
+ * 2. Run a short load with a few clients against a server in this process, with a mix of every operation.
+ *    Test that every client connected and logged in, that lines were said and delivered to other members, and
+ *    that the report lists the operations.
+ */
+public class TestLoadGenerator {
+
+    @Test
+    public void mix() {
+        LoadMix mix = LoadMix.parse("say=3, typing=1");
+        assertEquals(3, mix.getWeight(LoadMix.Op.say));
+        assertEquals(1, mix.getWeight(LoadMix.Op.typing));
+        assertEquals(0, mix.getWeight(LoadMix.Op.create));
+        assertEquals("say=3,typing=1", mix.toString());
+        Random random = new Random(1);
+        int says = 0;
+        for (int i = 0; i < 4000; i++) {
+            LoadMix.Op op = mix.pick(random);
+            assertTrue(op == LoadMix.Op.say || op == LoadMix.Op.typing);
+            if (op == LoadMix.Op.say) {
+                says++;
+            }
+        }
+        assertTrue(says > 2800 && says < 3200);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyMix() {
+        LoadMix.parse("say=0");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badMix() {
+        LoadMix.parse("say=lots");
+    }
+
+    @Test
+    public void shortRun() throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        generator.setTarget("localhost", 0);
+        generator.setClients(4);
+        generator.setRate(10);
+        generator.setTiming(200, 2000);
+        generator.setMix(LoadMix.parse("say=50,invite=30,create=5,typing=10,login=5"));
+        generator.setAcceptPercent(100);
+        generator.setReportMillis(0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.run(new PrintStream(out, true));
+        MetricsRegistry metrics = generator.getMetrics();
+        assertEquals(4, metrics.histogram("load.connect").getCount());
+        assertTrue(metrics.histogram("load.login").getCount() >= 4);
+        assertTrue(metrics.histogram("load.create").getCount() > 0);
+        assertTrue(metrics.histogram("load.say").getCount() > 0);
+        assertTrue(metrics.histogram("load.deliver").getCount() > 0);
+        assertEquals(0, metrics.counter("load.connectFailed").get());
+        String report = out.toString();
+        assertTrue(report.contains("load.say"));
+        assertTrue(report.contains("load.deliver"));
+    }
+}
@@ -0,0 +1,42 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, such as commands handled or bytes written.
+ *
+ * Threadsafe argument:
+ * The count is an AtomicLong, so increments from any number of threads are never lost, without a lock.
+ */
+public class Counter {
+
+    private final AtomicLong count;
+
+    /**
+     * Creates a counter at 0
+     */
+    public Counter() {
+        count = new AtomicLong();
+    }
+
+    /**
+     * Adds one to the count
+     */
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * @param n - requires n >= 0, the amount to add to the count
+     */
+    public void add(long n) {
+        count.addAndGet(n);
+    }
+
+    /**
+     * @return - the count
+     */
+    public long get() {
+        return count.get();
+    }
+}
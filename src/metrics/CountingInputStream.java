@@ -0,0 +1,53 @@
+package metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that adds the number of bytes read through it to a Counter, eg. to count the bytes
+ * received on a socket. Closing it closes the wrapped stream.
+ *
+ * Threadsafe argument:
+ * Adds no state of its own besides the threadsafe Counter; it is as threadsafe as the wrapped stream.
+ */
+public class CountingInputStream extends FilterInputStream {
+
+    private final Counter bytes;
+
+    /**
+     * @param in - requires in not null, the stream to read from
+     * @param bytes - requires bytes not null, the counter of bytes read
+     */
+    public CountingInputStream(InputStream in, Counter bytes) {
+        super(in);
+        this.bytes = bytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            bytes.increment();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            bytes.add(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) {
+            bytes.add(skipped);
+        }
+        return skipped;
+    }
+}
@@ -0,0 +1,38 @@
+package metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that adds the number of bytes written through it to a Counter, eg. to count the bytes
+ * sent on a socket. Closing it closes the wrapped stream.
+ *
+ * Threadsafe argument:
+ * Adds no state of its own besides the threadsafe Counter; it is as threadsafe as the wrapped stream.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private final Counter bytes;
+
+    /**
+     * @param out - requires out not null, the stream to write to
+     * @param bytes - requires bytes not null, the counter of bytes written
+     */
+    public CountingOutputStream(OutputStream out, Counter bytes) {
+        super(out);
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        bytes.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);     // not FilterOutputStream's byte at a time copy
+        bytes.add(len);
+    }
+}
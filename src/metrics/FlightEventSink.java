@@ -0,0 +1,64 @@
+package metrics;
+
+/**
+ * Where FlightEvents sends the events of the server. The Java Flight Recorder implementation is
+ * jfr.JfrEventSink, which FlightEvents loads by name, so that nothing outside the jfr package needs jdk.jfr.
+ * Implementations must be threadsafe, and must have a public no-argument constructor to be loaded.
+ *
+ * The begin methods return a token that is only passed back to the matching end method, by the same thread.
+ * It may be null, and the end methods must then do nothing.
+ */
+public interface FlightEventSink {
+
+    /**
+     * Starts timing a handshake
+     * @return - the token to pass to endHandshake, may be null
+     */
+    public Object beginHandshake();
+
+    /**
+     * Ends a handshake started with beginHandshake
+     * @param token - the token beginHandshake returned, no effect if null
+     * @param succeeded - true if the handshake completed
+     */
+    public void endHandshake(Object token, boolean succeeded);
+
+    /**
+     * Records a command handled by a session
+     * @param command - the name of the command
+     * @param user - the username of the session, null if not logged in
+     * @param nanos - how long the command took
+     */
+    public void command(String command, String user, long nanos);
+
+    /**
+     * Records a broadcast to the members of a room
+     * @param room - the room number
+     * @param recipients - the number of members told
+     * @param nanos - how long the broadcast took
+     */
+    public void broadcast(int room, int recipients, long nanos);
+
+    /**
+     * Starts timing a write of queued lines to a session's connection
+     * @return - the token to pass to endWrite, may be null
+     */
+    public Object beginWrite();
+
+    /**
+     * Ends a write started with beginWrite
+     * @param token - the token beginWrite returned, no effect if null
+     * @param lines - the number of lines written
+     * @param queued - the number of lines still waiting to be written
+     */
+    public void endWrite(Object token, int lines, int queued);
+
+    /**
+     * Records a line appended to a Tablet
+     * @param lineBytes - the UTF-8 size of the line
+     * @param lines - the number of lines in the Tablet after the append
+     * @param textBytes - the size of all the text in the Tablet after the append
+     * @param offHeap - true if the Tablet keeps its text off the heap
+     */
+    public void tabletAppend(int lineBytes, int lines, long textBytes, boolean offHeap);
+}
@@ -0,0 +1,162 @@
+package metrics;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The flight recorder events of the server, off unless the JVM is started with -Dchat.jfr=true
+ * (or setEnabled is called), and then recorded by any running Java Flight Recorder recording that enables
+ * them, eg. -XX:StartFlightRecording=filename=chat.jfr.
+ *
+ * The events themselves are in the jfr package, which needs jdk.jfr (Java 11 or later); the rest of the server
+ * only calls this class. Turning the events on loads jfr.JfrEventSink by name. If it is not on the classpath,
+ * or the JVM has no jdk.jfr, the events stay off and the server runs as before.
+ *
+ * While off, every method is a call to a sink that does nothing, so the calls can stay on the hot paths.
+ * While on, the cost is that of JFR itself: an event that no recording wants is dropped before it is filled in.
+ *
+ * Threadsafe argument:
+ * The only state is the volatile sink, which is replaced whole. The sinks are threadsafe.
+ */
+public class FlightEvents {
+
+    private static final String JFR_SINK = "jfr.JfrEventSink";
+
+    private static final FlightEventSink OFF = new FlightEventSink() {
+        @Override
+        public Object beginHandshake() {
+            return null;
+        }
+        @Override
+        public void endHandshake(Object token, boolean succeeded) {
+        }
+        @Override
+        public void command(String command, String user, long nanos) {
+        }
+        @Override
+        public void broadcast(int room, int recipients, long nanos) {
+        }
+        @Override
+        public Object beginWrite() {
+            return null;
+        }
+        @Override
+        public void endWrite(Object token, int lines, int queued) {
+        }
+        @Override
+        public void tabletAppend(int lineBytes, int lines, long textBytes, boolean offHeap) {
+        }
+    };
+
+    private static volatile FlightEventSink sink = Boolean.getBoolean("chat.jfr") ? load() : OFF;
+
+    private FlightEvents() {
+    }
+
+    /**
+     * @return - the JFR sink, or OFF if it cannot be loaded in this JVM
+     */
+    private static FlightEventSink load() {
+        try {
+            return (FlightEventSink) Class.forName(JFR_SINK).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {    // built without src/jfr
+            return OFF;
+        } catch (NoSuchMethodException e) {
+            return OFF;
+        } catch (InstantiationException e) {
+            return OFF;
+        } catch (IllegalAccessException e) {
+            return OFF;
+        } catch (InvocationTargetException e) {
+            return OFF;
+        } catch (RuntimeException e) {  // eg. a ClassCastException, or a SecurityException
+            return OFF;
+        } catch (LinkageError e) {  // jdk.jfr is missing
+            return OFF;
+        }
+    }
+
+    /**
+     * @return - true if events are emitted
+     */
+    public static boolean isEnabled() {
+        return sink != OFF;
+    }
+
+    /**
+     * Turns the events on or off
+     * @param on - true to emit events. No effect if the JVM cannot record them; see isEnabled
+     */
+    public static void setEnabled(boolean on) {
+        sink = on ? load() : OFF;
+    }
+
+    /**
+     * Starts timing a handshake
+     * @return - the token to pass to endHandshake, or null if events are off
+     */
+    public static Object beginHandshake() {
+        return sink.beginHandshake();
+    }
+
+    /**
+     * Ends a handshake started with beginHandshake
+     * @param token - the token beginHandshake returned, no effect if null
+     * @param succeeded - true if the handshake completed
+     */
+    public static void endHandshake(Object token, boolean succeeded) {
+        if (token != null) {
+            sink.endHandshake(token, succeeded);
+        }
+    }
+
+    /**
+     * Records a command handled by a session
+     * @param command - the name of the command
+     * @param user - the username of the session, null if not logged in
+     * @param nanos - how long the command took
+     */
+    public static void command(String command, String user, long nanos) {
+        sink.command(command, user, nanos);
+    }
+
+    /**
+     * Records a broadcast to the members of a room
+     * @param room - the room number
+     * @param recipients - the number of members told
+     * @param nanos - how long the broadcast took
+     */
+    public static void broadcast(int room, int recipients, long nanos) {
+        sink.broadcast(room, recipients, nanos);
+    }
+
+    /**
+     * Starts timing a write of queued lines to a session's connection
+     * @return - the token to pass to endWrite, or null if events are off
+     */
+    public static Object beginWrite() {
+        return sink.beginWrite();
+    }
+
+    /**
+     * Ends a write started with beginWrite. It is only recorded if it took longer than the event's threshold
+     * @param token - the token beginWrite returned, no effect if null
+     * @param lines - the number of lines written
+     * @param queued - the number of lines still waiting to be written
+     */
+    public static void endWrite(Object token, int lines, int queued) {
+        if (token != null) {
+            sink.endWrite(token, lines, queued);
+        }
+    }
+
+    /**
+     * Records a line appended to a Tablet
+     * @param lineBytes - the UTF-8 size of the line
+     * @param lines - the number of lines in the Tablet after the append
+     * @param textBytes - the size of all the text in the Tablet after the append
+     * @param offHeap - true if the Tablet keeps its text off the heap
+     */
+    public static void tabletAppend(int lineBytes, int lines, long textBytes, boolean offHeap) {
+        sink.tabletAppend(lineBytes, lines, textBytes, offHeap);
+    }
+}
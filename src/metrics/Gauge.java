@@ -0,0 +1,14 @@
+package metrics;
+
+/**
+ * A value that is read when it is reported rather than recorded, such as the number of open sessions.
+ * Implementations are usually anonymous classes that read a field or the size of a collection, and must
+ * be threadsafe and cheap, as they are read by whatever thread reports the metrics.
+ */
+public interface Gauge {
+
+    /**
+     * @return - the current value
+     */
+    public long getValue();
+}
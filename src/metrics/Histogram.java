@@ -0,0 +1,137 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, such as latencies in nanoseconds, laid out like an HDR histogram:
+ * values below 2 * SUB_BUCKETS each get their own bucket, and every power of two above that is split into
+ * SUB_BUCKETS equal buckets. So every value is counted in a bucket no wider than 1/SUB_BUCKETS of the value
+ * (about 3%), across the whole range of long, in a fixed array of under two thousand counts.
+ *
+ * Recording a value finds its bucket with a few shifts and increments one count, with no lock and no
+ * allocation. Reading the histogram walks the counts while values may still be recorded, so a report may
+ * be a few values behind, but every count in it is a value that was recorded.
+ *
+ * Threadsafe argument:
+ * The counts are an AtomicLongArray and the totals are AtomicLongs; the maximum is only ever raised with
+ * compareAndSet. No field is ever written without an atomic operation.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    /**
+     * Creates an empty histogram
+     */
+    public Histogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        count = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Records a value
+     * @param value - the value, a negative value is recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long m = max.get();
+        while (value > m && !max.compareAndSet(m, value)) {
+            m = max.get();
+        }
+    }
+
+    /**
+     * @return - the number of values recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return - the sum of the values recorded
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+    /**
+     * @return - the largest value recorded, 0 if none
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return - the mean of the values recorded, 0 if none
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile - requires 0 <= percentile <= 100
+     * @return - the highest value that falls in the same bucket as the value at that percentile, so it is
+     * never below the true value and at most about 3% above it; 0 if no value was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @param value - requires value >= 0
+     * @return - the index of the bucket that counts value
+     */
+    static int bucketOf(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb <= SUB_BITS) {
+            return (int) value;
+        }
+        int shift = msb - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * @param bucket - requires 0 <= bucket < BUCKETS
+     * @return - the highest value counted in the bucket
+     */
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        long highest = ((sub + 1) << shift) - 1;
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+}
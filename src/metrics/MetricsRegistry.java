@@ -0,0 +1,104 @@
+package metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The named metrics of a server: Counters, Histograms and Gauges. Names are dotted paths, such as
+ * "command.say.latency".
+ *
+ * Looking a metric up by name is meant to be done once, when the code that records it is set up (eg. when
+ * a session or room is created), keeping the metric in a field; recording then only touches the metric, with
+ * no map lookup, no lock and no allocation. Asking for a name that is already registered gives the same
+ * metric, so any number of sessions can share it.
+ *
+ * Threadsafe argument:
+ * The metrics are kept in ConcurrentHashMaps and registered with putIfAbsent, so two threads registering
+ * the same name get the same metric. The metrics themselves are threadsafe. The reporting methods return
+ * sorted copies, so a report is never disturbed by a metric being registered at the same time.
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, Counter> counters;
+    private final ConcurrentMap<String, Histogram> histograms;
+    private final ConcurrentMap<String, Gauge> gauges;
+
+    /**
+     * Creates an empty registry
+     */
+    public MetricsRegistry() {
+        counters = new ConcurrentHashMap<String, Counter>();
+        histograms = new ConcurrentHashMap<String, Histogram>();
+        gauges = new ConcurrentHashMap<String, Gauge>();
+    }
+
+    /**
+     * @param name - requires name not null
+     * @return - the counter with that name, created at 0 if there was none
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter fresh = new Counter();
+            counter = counters.putIfAbsent(name, fresh);
+            if (counter == null) {
+                counter = fresh;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param name - requires name not null
+     * @return - the histogram with that name, created empty if there was none
+     */
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram fresh = new Histogram();
+            histogram = histograms.putIfAbsent(name, fresh);
+            if (histogram == null) {
+                histogram = fresh;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name
+     * @param name - requires name not null
+     * @param gauge - requires gauge not null
+     */
+    public void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * @return - a copy of the counters, sorted by name
+     */
+    public SortedMap<String, Counter> getCounters() {
+        return sorted(counters);
+    }
+
+    /**
+     * @return - a copy of the histograms, sorted by name
+     */
+    public SortedMap<String, Histogram> getHistograms() {
+        return sorted(histograms);
+    }
+
+    /**
+     * @return - a copy of the gauges, sorted by name
+     */
+    public SortedMap<String, Gauge> getGauges() {
+        return sorted(gauges);
+    }
+
+    private static <T> SortedMap<String, T> sorted(Map<String, T> metrics) {
+        return Collections.unmodifiableSortedMap(new TreeMap<String, T>(metrics));
+    }
+}
@@ -0,0 +1,61 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * Writes the metrics of a MetricsRegistry in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Metric names become the prefix, an underscore and the name with every character Prometheus does not
+ * allow replaced by an underscore, so "command.say.latency" with the prefix "chat" is written as
+ * "chat_command_say_latency". Counters and gauges are written as they are. Histograms are written as
+ * summaries, with the 0.5, 0.9, 0.99 and 0.999 quantiles, the sum and the count, plus a _max gauge.
+ * Values are in the units they were recorded in (latencies in nanoseconds).
+ */
+public class PrometheusFormat {
+
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private PrometheusFormat() {
+    }
+
+    /**
+     * @param metrics - requires metrics not null
+     * @param prefix - requires prefix not null, put in front of every metric name
+     * @return - the metrics in the Prometheus text format
+     */
+    public static String format(MetricsRegistry metrics, String prefix) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Counter> counter : metrics.getCounters().entrySet()) {
+            String name = name(prefix, counter.getKey());
+            type(sb, name, "counter");
+            sb.append(name).append(' ').append(counter.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> gauge : metrics.getGauges().entrySet()) {
+            String name = name(prefix, gauge.getKey());
+            type(sb, name, "gauge");
+            sb.append(name).append(' ').append(gauge.getValue().getValue()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : metrics.getHistograms().entrySet()) {
+            String name = name(prefix, entry.getKey());
+            Histogram histogram = entry.getValue();
+            type(sb, name, "summary");
+            for (double q : QUANTILES) {
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(histogram.getValueAtPercentile(q * 100)).append('\n');
+            }
+            sb.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+            sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+            type(sb, name + "_max", "gauge");
+            sb.append(name).append("_max ").append(histogram.getMax()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void type(StringBuilder sb, String name, String type) {
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String name(String prefix, String name) {
+        return (prefix + "_" + name).replaceAll("[^a-zA-Z0-9_:]", "_");
+    }
+}
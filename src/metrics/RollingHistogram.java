@@ -0,0 +1,96 @@
+package metrics;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of the last few values recorded, such as the latencies of the latest messages in a chat room.
+ * Unlike Histogram it forgets: it holds the values in a ring of fixed size, and once the ring is full every
+ * new value replaces the oldest. Percentiles are exact over the values held, found by sorting a copy of them.
+ *
+ * Values are kept as they are recorded, negative ones included, since a latency measured across two
+ * machines' clocks can come out negative when the clocks are skewed.
+ *
+ * Threadsafe argument:
+ * Every method that touches the ring is synchronized on the histogram, and recording is only a store and two
+ * increments. A percentile is found by copying the ring under the lock and sorting the copy outside it.
+ */
+public class RollingHistogram {
+
+    private final long[] values;
+    private int next;       // index the next value is stored at
+    private int size;       // number of values held, at most values.length
+
+    /**
+     * Creates an empty histogram
+     * @param window - requires window > 0, the number of latest values kept
+     * @throws IllegalArgumentException if window <= 0
+     */
+    public RollingHistogram(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("ERROR: Rolling histogram window must be positive.");
+        }
+        values = new long[window];
+        next = 0;
+        size = 0;
+    }
+
+    /**
+     * Records a value, forgetting the oldest one if the window is full
+     * @param value - the value
+     */
+    public synchronized void record(long value) {
+        values[next] = value;
+        next = (next + 1) % values.length;
+        if (size < values.length) {
+            size++;
+        }
+    }
+
+    /**
+     * @return - the number of values held, at most the window
+     */
+    public synchronized int getCount() {
+        return size;
+    }
+
+    /**
+     * @param percentile - requires 0 <= percentile <= 100
+     * @return - the smallest value held that is at least percentile percent of the values held, or 0 if
+     * there are none
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] sorted = snapshot();
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+    }
+
+    /**
+     * @return - the mean of the values held, or 0 if there are none
+     */
+    public double getMean() {
+        long[] sorted = snapshot();
+        if (sorted.length == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (long v : sorted) {
+            sum += v;
+        }
+        return sum / sorted.length;
+    }
+
+    /**
+     * @return - a sorted copy of the values held
+     */
+    private long[] snapshot() {
+        long[] copy;
+        synchronized (this) {
+            copy = Arrays.copyOf(values, size);
+        }
+        Arrays.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,78 @@
+package metrics.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import metrics.Histogram;
+
+/**
+ * Tests for the HDR-style histogram
+ *
+ * Testing strategy
+ * 1. Test an empty histogram, and small values which each get their own bucket exactly
+ * 2. Test percentiles over a wide range of values, which must be no lower than the true value and
+ *    no more than about 3% above it, and negative and huge values
+ * 3. Test that values recorded from several threads at once are all counted
+ */
+public class TestHistogram {
+
+    @Test
+    public void testSmallValues() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(50));
+        for (int i = 1; i <= 10; i++) {
+            h.record(i);
+        }
+        assertEquals(10, h.getCount());
+        assertEquals(10, h.getMax());
+        assertEquals(5.5, h.getMean(), 1e-9);
+        assertEquals(5, h.getValueAtPercentile(50));
+        assertEquals(9, h.getValueAtPercentile(90));
+        assertEquals(10, h.getValueAtPercentile(100));
+        assertEquals(1, h.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Histogram h = new Histogram();
+        for (long i = 1; i <= 1000000; i++) {
+            h.record(i * 1000);
+        }
+        for (double p : new double[] { 50, 90, 99, 99.9 }) {
+            long exact = (long) (p * 10000) * 1000;
+            long v = h.getValueAtPercentile(p);
+            assertTrue(p + "th was " + v, v >= exact && v <= exact * 1.04);
+        }
+        assertEquals(1000000000L, h.getValueAtPercentile(100));
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.getMax());
+        assertEquals(Long.MAX_VALUE, h.getValueAtPercentile(100));
+        assertEquals(1000002, h.getCount());
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        final Histogram h = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        h.record(i % 500);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(400000, h.getCount());
+        assertEquals(499, h.getMax());
+    }
+}
@@ -0,0 +1,105 @@
+package metrics.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import metrics.Counter;
+import metrics.CountingInputStream;
+import metrics.CountingOutputStream;
+import metrics.Gauge;
+import metrics.MetricsRegistry;
+import metrics.PrometheusFormat;
+
+/**
+ * Tests for the metrics registry and the byte counting streams
+ *
+ * Testing strategy
+ * 1. Test that asking for a name twice gives the same metric, and that the report is sorted by name
+ * 2. Test that gauges are read when reported
+ * 3. Test that the counting streams count every byte read or written, however it is read or written
+ * 4. Test the Prometheus text format of each kind of metric
+ */
+public class TestMetricsRegistry {
+
+    @Test
+    public void testSameMetric() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        Counter c = metrics.counter("b.count");
+        c.increment();
+        c.add(2);
+        assertSame(c, metrics.counter("b.count"));
+        assertSame(metrics.histogram("h"), metrics.histogram("h"));
+        metrics.counter("a.count");
+        assertEquals(Arrays.asList("a.count", "b.count"), Arrays.asList(metrics.getCounters().keySet().toArray()));
+        assertEquals(3, metrics.getCounters().get("b.count").get());
+    }
+
+    @Test
+    public void testGauge() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        final long[] value = { 1 };
+        metrics.gauge("g", new Gauge() {
+            @Override
+            public long getValue() {
+                return value[0];
+            }
+        });
+        assertEquals(1, metrics.getGauges().get("g").getValue());
+        value[0] = 7;
+        assertEquals(7, metrics.getGauges().get("g").getValue());
+    }
+
+    @Test
+    public void testCountingStreams() throws IOException {
+        Counter in = new Counter();
+        Counter out = new Counter();
+        CountingInputStream cin = new CountingInputStream(new ByteArrayInputStream(new byte[100]), in);
+        cin.read();
+        cin.read(new byte[10]);
+        cin.skip(5);
+        cin.read(new byte[1000], 0, 1000);
+        assertEquals(-1, cin.read());
+        assertEquals(100, in.get());
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        CountingOutputStream cout = new CountingOutputStream(sink, out);
+        cout.write(1);
+        cout.write(new byte[20]);
+        cout.write(new byte[20], 5, 10);
+        assertEquals(31, out.get());
+        assertEquals(31, sink.size());
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("net.bytesIn").add(12);
+        metrics.gauge("rooms.active", new Gauge() {
+            @Override
+            public long getValue() {
+                return 3;
+            }
+        });
+        metrics.histogram("command.say.latency").record(40);
+        String text = PrometheusFormat.format(metrics, "chat");
+        assertEquals("# TYPE chat_net_bytesIn counter\n"
+                + "chat_net_bytesIn 12\n"
+                + "# TYPE chat_rooms_active gauge\n"
+                + "chat_rooms_active 3\n"
+                + "# TYPE chat_command_say_latency summary\n"
+                + "chat_command_say_latency{quantile=\"0.5\"} 40\n"
+                + "chat_command_say_latency{quantile=\"0.9\"} 40\n"
+                + "chat_command_say_latency{quantile=\"0.99\"} 40\n"
+                + "chat_command_say_latency{quantile=\"0.999\"} 40\n"
+                + "chat_command_say_latency_sum 40\n"
+                + "chat_command_say_latency_count 1\n"
+                + "# TYPE chat_command_say_latency_max gauge\n"
+                + "chat_command_say_latency_max 40\n", text);
+    }
+}
@@ -0,0 +1,60 @@
+package metrics.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import metrics.RollingHistogram;
+
+/**
+ * Tests for the rolling window histogram
+ *
+ * Testing strategy
+ * 1. Test an empty histogram, and exact percentiles of a window that is not yet full
+ * 2. Test that once the window is full the oldest values are forgotten
+ * 3. Test that negative values, as from skewed clocks, are kept as they are
+ */
+public class TestRollingHistogram {
+
+    @Test
+    public void testPercentiles() {
+        RollingHistogram h = new RollingHistogram(100);
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getValueAtPercentile(50));
+        for (int i = 10; i >= 1; i--) {
+            h.record(i);
+        }
+        assertEquals(10, h.getCount());
+        assertEquals(5.5, h.getMean(), 1e-9);
+        assertEquals(1, h.getValueAtPercentile(0));
+        assertEquals(5, h.getValueAtPercentile(50));
+        assertEquals(9, h.getValueAtPercentile(90));
+        assertEquals(10, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testWindow() {
+        RollingHistogram h = new RollingHistogram(4);
+        for (int i = 1; i <= 10; i++) {
+            h.record(i * 100);
+        }
+        assertEquals(4, h.getCount());
+        assertEquals(700, h.getValueAtPercentile(0));
+        assertEquals(1000, h.getValueAtPercentile(100));
+        assertEquals(850, h.getMean(), 1e-9);
+    }
+
+    @Test
+    public void testNegative() {
+        RollingHistogram h = new RollingHistogram(4);
+        h.record(-5);
+        h.record(3);
+        assertEquals(-5, h.getValueAtPercentile(0));
+        assertEquals(3, h.getValueAtPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadWindow() {
+        new RollingHistogram(0);
+    }
+}
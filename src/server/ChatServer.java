@@ -1,45 +1,104 @@
 package server;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import metrics.Counter;
+import metrics.Gauge;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
 import user.User;
+import util.ConcurrentIntMap;
+import util.HashedWheelTimer;
 
 /**
  * Server object for the IM program.
  * 
  * Threadsafe argument:
  * The server is threadsafe because the only fields that are modified by multiple threads are the 
- * online, roomList, and userThreads. Each of these is instantiated as a synchronizedMap as is thus
- * a threadsafe datatype. Furthermore, functions that make function calls on these maps are
+ * online, roomList, and userThreads. online and userThreads are instantiated as synchronizedMaps and
+ * roomList as a ConcurrentIntMap, and are thus threadsafe datatypes. Furthermore, functions that make function calls on these maps are
  * synchronized on the Server's lock.
+ * Rooms do not share the Server's lock: each Room runs its commands on its own serial mailbox, and
+ * all mailboxes of a server are drained by one executor of its own, sized to the number of cores.
+ * A durable room that is not in the roomList is read back while holding the Server's lock, after looking
+ * in the roomList again, so the same room is never read back twice.
+ * Presence changes deferred while the server is overloaded are only accessed while holding the Server's lock,
+ * so a deferred change and a later one for the same user are always sent in order. They are sent on the
+ * stats thread, so a room worker never waits for the Server's lock.
  */
 
 public class ChatServer{
     
     private final Map<String,User> online;  // username to User object
-    private final Map<Integer,Room> roomList;   // room number to Room object
+    private final ConcurrentIntMap<Room> roomList;   // room number to Room object
     private final Map<User,Thread> userThreads;     // User object to the Thread that processes that user
     private final ServerSocket serverSocket;
     private static final int DEFAULT_PORT = 4444;   
+    private static final int SNAPSHOT_MAGIC = 0x43484154;  // "CHAT"
+    private static final int SNAPSHOT_FORMAT = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
     private int roomNumber;
     private final Map<String, String> logins;
     private final PrintWriter loginWriter;
+    private final ServerConfig config;
+    private final UsernameTable usernames;   // username to dense int id, for the Rooms
+    private volatile boolean killed;    // set by kill, stops the hibernation sweep
+    private final RoomStore roomStore;  // durable rooms and room counter, null if rooms are not durable
+    private final Object snapshotLock;  // held while a snapshot is written, so only one is written at a time
+    private final OverloadMonitor overload;
+    private final MetricsRegistry metrics;
+    private final Map<String, Boolean> pendingPresence;  // username to online, presence changes not yet sent
+    private boolean presenceFlushScheduled;
+    private static final int PRESENCE_DEFER_MILLIS = 1000;  // how long presence changes are held while overloaded
+    
+    // runs the mailboxes of every Room of this server; threads are daemons so they never keep the process alive
+    private final ExecutorService roomExecutor;
+    
+    // delayed work (eg. flushing collected typing changes, invite expiry, idle session checks), a single daemon
+    // thread that only posts to mailboxes or closes streams; 10ms ticks, so a 5s wheel turn
+    private final HashedWheelTimer timer;
+    
+    // gathers admin stats reports and metrics snapshots, which wait on room mailboxes, and sends held back
+    // presence changes, which wait on the Server's lock, away from both the sessions and the room workers
+    private final ExecutorService statsExecutor;
+    private static final int STATS_TOP_ROOMS = 10;
+    private static final double[] STATS_PERCENTILES = { 50, 99 };
 
     /**
      * Create a new ChatServer instance
      * @param port - requires that the port be a valid positive integer that represents a valid port on the computer
-     * Creates threadsafe Maps for online, userThreads, and roomList fields
+     * Creates threadsafe Maps for online, userThreads, and roomList fields, and reads the registered users
+     * from the user file, see ServerConfig.getUserFile
      * @throws IOException
      * @throws IllegalArgumentException if port is negative
      */
@@ -50,11 +109,48 @@ public class ChatServer{
         serverSocket = new ServerSocket(port);
         online = Collections.synchronizedMap(new HashMap<String, User>());
         userThreads = Collections.synchronizedMap(new HashMap<User,Thread>());
-        roomList = Collections.synchronizedMap(new HashMap<Integer, Room>());
+        roomList = new ConcurrentIntMap<Room>();
         roomNumber = 0;
+        config = new ServerConfig();
+        usernames = new UsernameTable();
+        killed = false;
+        snapshotLock = new Object();
+        metrics = new MetricsRegistry();
+        pendingPresence = new LinkedHashMap<String, Boolean>();
+        presenceFlushScheduled = false;
+        roomExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(0);
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "room-worker-" + count.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        timer = new HashedWheelTimer("room-timer", 10, 512);
+        statsExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "stats-reporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        overload = new OverloadMonitor(timer, roomExecutor, config, new Runnable() {
+            @Override
+            public void run() {
+                statsExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushPresence();
+                    }
+                });
+            }
+        });
         logins = Collections.synchronizedMap(new HashMap<String, String>());
-        loginWriter = new PrintWriter(new FileWriter(new File("src/server/userfile"), true));
-        BufferedReader fin = new BufferedReader(new FileReader("src/server/userfile"));
+        loginWriter = new PrintWriter(new FileWriter(new File(config.getUserFile()), true));
+        BufferedReader fin = new BufferedReader(new FileReader(config.getUserFile()));
         
         String next;
         while ((next=fin.readLine()) != null) {
@@ -62,6 +158,87 @@ public class ChatServer{
             System.out.println("next "+next);
             logins.put(line[0], line[1]);
         }
+        if (config.getRoomDir() != null) {
+            roomStore = new RoomStore(new File(config.getRoomDir()), config, metrics);
+            roomNumber = roomStore.getNextRoomNumber();
+            for (Map.Entry<String, String> registration : roomStore.getRegistrations().entrySet()) {
+                if (!logins.containsKey(registration.getKey())) {
+                    logins.put(registration.getKey(), registration.getValue());
+                }
+            }
+        }
+        else {
+            roomStore = null;
+        }
+        File snapshot = new File(config.getSnapshotFile());
+        if (config.isRestoreSnapshot() && snapshot.exists()) {
+            restoreSnapshot(snapshot);
+        }
+        scheduleHibernationSweep();
+        overload.start();
+        registerGauges();
+    }
+    
+    /**
+     * Registers the metrics that are read from the state of the server when they are reported
+     */
+    private void registerGauges() {
+        metrics.gauge("sessions.active", new Gauge() {
+            @Override
+            public long getValue() {
+                return metrics.counter("sessions.opened").get() - metrics.counter("sessions.closed").get();
+            }
+        });
+        metrics.gauge("users.online", new Gauge() {
+            @Override
+            public long getValue() {
+                return online.size();
+            }
+        });
+        metrics.gauge("rooms.active", new Gauge() {
+            @Override
+            public long getValue() {
+                return roomList.size();
+            }
+        });
+        metrics.gauge("tablet.offHeapBytes", new Gauge() {
+            @Override
+            public long getValue() {
+                return Tablet.getTotalOffHeapBytes();
+            }
+        });
+        metrics.gauge("timer.pending", new Gauge() {
+            @Override
+            public long getValue() {
+                return timer.getPending();
+            }
+        });
+        metrics.gauge("overload.state", new Gauge() {
+            @Override
+            public long getValue() {
+                return overload.getState().ordinal();
+            }
+        });
+        metrics.gauge("overload.lagMs", new Gauge() {
+            @Override
+            public long getValue() {
+                return overload.getLagMillis();
+            }
+        });
+        metrics.gauge("overload.refusedConnections", new Gauge() {
+            @Override
+            public long getValue() {
+                return overload.getRefusedConnections();
+            }
+        });
+        for (final OverloadMonitor.State state : OverloadMonitor.State.values()) {
+            metrics.gauge("overload.entered." + state.name(), new Gauge() {
+                @Override
+                public long getValue() {
+                    return overload.getTimesEntered(state);
+                }
+            });
+        }
     }
     
     /**
@@ -75,13 +252,18 @@ public class ChatServer{
     /**
      * Starts the ChatServer
      * The server blocks until a new client connection is made.
-     * It then spawns a new thread to deal with the connection as represented by a User object
+     * It then spawns a new thread to deal with the connection as represented by a User object, unless
+     * the server is overloaded, in which case the connection is refused
      * Modifies - adds the new user's thread to the userThreads map
      */
     public void start() {
         while(true){
             try{
                 Socket socket = serverSocket.accept(); //blocks until someone connects to it;
+                if (overload.isRefusing()) {
+                    refuse(socket);
+                    continue;
+                }
                 User u = new User(this, socket.getInputStream(), socket.getOutputStream());
                 Thread t = new Thread(u);
                 userThreads.put(u,t);
@@ -94,12 +276,48 @@ public class ChatServer{
         }
     }
     
+    /**
+     * Tells a new connection that the server is overloaded, in plain text before any handshake, and closes it
+     * @param socket - requires socket not null and connected
+     */
+    private void refuse(Socket socket) {
+        overload.connectionRefused();
+        try {
+            socket.getOutputStream().write("error 13 server overloaded\n".getBytes(UTF8));
+            socket.getOutputStream().flush();
+        } catch (IOException e) {
+            // the client is gone already, nothing to tell it
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    
+    /**
+     * Stops the server: stops the overload monitor, closes the room store and the server socket, deletes
+     * the hibernation files of its rooms, so none is left behind on disk, and stops its timer and threads.
+     * Room commands already waiting still run; a Room command posted later runs on the thread that posts it
+     */
     public void kill() {
+        killed = true;
+        overload.stop();
+        for (Room room : roomList.values()) {
+            room.discardHibernation();
+        }
+        if (roomStore != null) {
+            roomStore.close();
+        }
         try {
             serverSocket.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        timer.stop();
+        statsExecutor.shutdown();
+        roomExecutor.shutdown();
     }
     
     /**
@@ -110,6 +328,9 @@ public class ChatServer{
      */
     public synchronized void notifyUserLoggedOut(User u) {
         if (online.remove(u.getUsername()) != null) {
+            if (deferPresence(u.getUsername(), false)) {
+                return;
+            }
             for (User other : online.values()) {
                 other.notifyContactOffline(u.getUsername());
             }
@@ -129,7 +350,11 @@ public class ChatServer{
         }
         String username = u.getUsername();
         if (username != null) {
+            usernames.intern(username);
             online.put(u.getUsername(), u);
+            if (deferPresence(username, true)) {
+                return;
+            }
             for (User other : online.values()) {
                 if (!other.getUsername().equals(u.getUsername())) {
                     other.notifyContactOnline(u.getUsername());
@@ -138,6 +363,61 @@ public class ChatServer{
         }
     }
     
+    /**
+     * Holds back a presence change while the server is overloaded, or while earlier changes are still held
+     * back, so they are not overtaken. Held back changes are coalesced, so only the latest state of each
+     * user is sent, and are sent PRESENCE_DEFER_MILLIS later or as soon as the server is back to normal.
+     * Must be called while holding the Server's lock
+     * @param username - requires username not null
+     * @param isOnline - true if the user came online, false if the user went offline
+     * @return - true if the change was held back, false if it must be sent now
+     */
+    private boolean deferPresence(String username, boolean isOnline) {
+        if (!overload.isShedding() && pendingPresence.isEmpty()) {
+            return false;
+        }
+        pendingPresence.remove(username);
+        pendingPresence.put(username, isOnline);
+        if (!presenceFlushScheduled) {
+            presenceFlushScheduled = true;
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    statsExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            flushPresence();
+                        }
+                    });
+                }
+            }, PRESENCE_DEFER_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+    
+    /**
+     * Sends every held back presence change to every online user. Runs on the stats thread, never on a room
+     * worker, since it waits for the Server's lock
+     */
+    private synchronized void flushPresence() {
+        presenceFlushScheduled = false;
+        for (Map.Entry<String, Boolean> change : pendingPresence.entrySet()) {
+            String username = change.getKey();
+            for (User other : online.values()) {
+                if (username.equals(other.getUsername())) {
+                    continue;
+                }
+                if (change.getValue()) {
+                    other.notifyContactOnline(username);
+                }
+                else {
+                    other.notifyContactOffline(username);
+                }
+            }
+        }
+        pendingPresence.clear();
+    }
+    
     //when a user logs in, he gets all the notifications since his last logout using this method
     // TODO: keep this? it does nothing right now.
     public synchronized String[] getNotifications(String username){
@@ -160,16 +440,340 @@ public class ChatServer{
         Room room = new Room(this, creator, l, roomNumber);
         roomNumber++;
         roomList.put(room.getId(), room);
+        if (roomStore != null) {
+            roomStore.logCreate(room.getId(), creator);
+        }
         return room;
     }
 
     /**
-     * Removes a Room object from the roomList
+     * Reads a durable room back from the room store and puts it in the roomList. Every user that was a
+     * member or a guest of the room when it was stored is invited to it.
+     * @param roomno - the number of the room to read, requires roomno >= 0
+     * @return - the room, or null if rooms are not durable or no room roomno is stored
+     */
+    private synchronized Room loadRoom(int roomno) {
+        Room room = roomList.get(roomno);
+        if (room != null || roomStore == null) {
+            return room;
+        }
+        String[][] saved = roomStore.load(roomno);
+        if (saved == null) {
+            return null;
+        }
+        int[] guests = new int[saved[0].length + saved[1].length];
+        for (int i = 0; i < saved[0].length; i++) {
+            guests[i] = usernames.intern(saved[0][i]);
+        }
+        for (int i = 0; i < saved[1].length; i++) {
+            guests[saved[0].length + i] = usernames.intern(saved[1][i]);
+        }
+        room = new Room(this, roomno, guests, new Tablet(config));
+        roomList.put(roomno, room);
+        return room;
+    }
+
+    /**
+     * Writes the state of the server that does not depend on who is online to a snapshot file: the room
+     * counter, and every room with its members, guests and Tablet. Members are restored as guests, since
+     * nobody is connected when a server starts.
+     * The snapshot is written while the server carries on. Each room is only held up while its members and
+     * guests are copied, and its Tablet is written up to the last line said before that copy.
+     * The file is written as file.tmp first and then renamed, so a failed snapshot leaves the last one intact.
+     *
+     * Format: magic, format, room counter, then for each room its number, member ids, guest ids and Tablet
+     * (see Tablet.writeTo), then -1; then the usernames of every id, each as its UTF-8 length and bytes,
+     * and finally the position of the usernames in the file.
+     * @param file - requires file not null
+     * @return - the number of rooms written
+     * @throws IOException if the snapshot cannot be written
+     */
+    public int writeSnapshot(File file) throws IOException {
+        synchronized (snapshotLock) {
+            File tmp = new File(file.getPath() + ".tmp");
+            FileOutputStream fos = new FileOutputStream(tmp);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            int rooms = 0;
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_FORMAT);
+                synchronized (this) {
+                    out.writeInt(roomNumber);
+                }
+                for (Room room : roomList.values()) {
+                    if (room.writeSnapshot(out)) {
+                        rooms++;
+                    }
+                }
+                out.writeInt(-1);
+                out.flush();
+                long namesAt = fos.getChannel().position();
+                int count = usernames.size();   // after the rooms, so it covers every id they hold
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    byte[] name = usernames.nameOf(i).getBytes(UTF8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                }
+                out.writeLong(namesAt);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();  // some platforms will not rename over an existing file
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("ERROR: cannot replace " + file);
+                }
+            }
+            return rooms;
+        }
+    }
+
+    /**
+     * Restores the rooms of a snapshot written by writeSnapshot. The file is memory-mapped and the text of
+     * every Tablet is read in place from the mapping, so only the indexes are built at startup.
+     * Must only be called from the constructor, before any user has logged in
+     * @param file - requires file not null, a snapshot written by writeSnapshot that is not changed afterwards
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    private void restoreSnapshot(File file) throws IOException {
+        ByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("ERROR: snapshot " + file + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());  // stays valid after close
+        } finally {
+            raf.close();
+        }
+        try {
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_FORMAT) {
+                throw new IOException("ERROR: " + file + " is not a snapshot");
+            }
+            int next = buffer.getInt();
+            ByteBuffer names = buffer.duplicate();
+            names.position((int) buffer.getLong(buffer.limit() - 8));
+            int count = names.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[names.getInt()];
+                names.get(name);
+                if (usernames.intern(new String(name, UTF8)) != i) {
+                    throw new IOException("ERROR: usernames were in use before the snapshot was restored");
+                }
+            }
+            while (true) {
+                int roomno = buffer.getInt();
+                if (roomno < 0) {
+                    break;
+                }
+                int[] members = new int[buffer.getInt()];
+                for (int i = 0; i < members.length; i++) {
+                    members[i] = buffer.getInt();
+                }
+                int[] guests = new int[members.length + buffer.getInt()];
+                System.arraycopy(members, 0, guests, 0, members.length);
+                for (int i = members.length; i < guests.length; i++) {
+                    guests[i] = buffer.getInt();
+                }
+                Tablet tablet = Tablet.map(buffer, config);
+                roomList.put(roomno, new Room(this, roomno, guests, tablet));
+                next = Math.max(next, roomno + 1);
+            }
+            roomNumber = Math.max(roomNumber, next);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("ERROR: snapshot " + file + " is truncated");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("ERROR: snapshot " + file + " is corrupt");
+        }
+    }
+
+    /**
+     * @return - the store of durable rooms, or null if rooms are not durable
+     */
+    RoomStore getRoomStore() {
+        return roomStore;
+    }
+
+    /**
+     * Schedules the next sweep for idle rooms to hibernate on the room timer. Each sweep offers every room
+     * the chance to hibernate and schedules the next one, until the server is killed. Sweeps run twice per
+     * configured hibernation delay, or once a second while hibernation is turned off.
+     */
+    private void scheduleHibernationSweep() {
+        long after = config.getHibernateAfterMillis();
+        long delay = after > 0 ? Math.max(after / 2, 10) : 1000;
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (killed) {
+                    return;
+                }
+                if (config.getHibernateAfterMillis() > 0) {
+                    long now = System.currentTimeMillis();
+                    for (Room room : roomList.values()) {
+                        room.hibernateIfIdle(now);
+                    }
+                }
+                scheduleHibernationSweep();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return - the executor that runs the mailboxes of all Rooms
+     */
+    Executor getRoomExecutor() {
+        return roomExecutor;
+    }
+    
+    /**
+     * @return - the timer shared by every Room and User of this server to schedule delayed work. Its tasks must be short,
+     * eg. posting a command to a Room's mailbox
+     */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+    
+    /**
+     * Reports the health of the server to a listener, on a thread of its own, one stat at a time:
+     * every gauge and counter, the count, p50, p99 and max of every histogram that has values (latencies
+     * are in nanoseconds), the total and largest queue depth of the sessions' writers and the rooms'
+     * mailboxes, and the members, lines and bytes of text of the largest rooms by member count.
+     * Hibernated rooms are reported with -1 lines and bytes rather than being woken.
+     * @param listener - requires listener not null
+     */
+    public void reportStats(final StatsListener listener) {
+        try {
+            statsExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writeStats(listener);
+                    } finally {
+                        listener.notifyStatsEnd();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            listener.notifyStatsEnd();  // the server has been killed
+        }
+    }
+    
+    private void writeStats(StatsListener listener) {
+        for (Map.Entry<String, Gauge> gauge : metrics.getGauges().entrySet()) {
+            listener.notifyStat("gauge", gauge.getKey(), Long.toString(gauge.getValue().getValue()));
+        }
+        for (Map.Entry<String, Counter> counter : metrics.getCounters().entrySet()) {
+            listener.notifyStat("counter", counter.getKey(), Long.toString(counter.getValue().get()));
+        }
+        for (Map.Entry<String, Histogram> entry : metrics.getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            StringBuilder values = new StringBuilder().append(histogram.getCount());
+            for (double p : STATS_PERCENTILES) {
+                values.append(' ').append(histogram.getValueAtPercentile(p));
+            }
+            values.append(' ').append(histogram.getMax());
+            listener.notifyStat("histogram", entry.getKey(), values.toString());
+        }
+        
+        List<User> users;
+        synchronized (this) {
+            users = new ArrayList<User>(online.values());
+        }
+        long total = 0;
+        long max = 0;
+        for (User u : users) {
+            int depth = u.getQueueDepth();
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        listener.notifyStat("queue", "sessions", total + " " + max);
+        
+        List<Room> rooms = new ArrayList<Room>(roomList.values());
+        total = 0;
+        max = 0;
+        for (Room room : rooms) {
+            int depth = room.getMailboxDepth();
+            total += depth;
+            max = Math.max(max, depth);
+        }
+        listener.notifyStat("queue", "mailboxes", total + " " + max);
+        
+        List<int[]> sizes = new ArrayList<int[]>();     // member count and index in rooms, counted once so
+        for (int i = 0; i < rooms.size(); i++) {        // joins during the sort cannot upset it
+            sizes.add(new int[] { rooms.get(i).getMemberCount(), i });
+        }
+        Collections.sort(sizes, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return b[0] - a[0];
+            }
+        });
+        for (int[] size : sizes.subList(0, Math.min(STATS_TOP_ROOMS, sizes.size()))) {
+            Room room = rooms.get(size[1]);
+            long[] tablet = room.getTabletStats();
+            listener.notifyStat("room", Integer.toString(room.getId()), size[0] + " "
+                    + (tablet == null ? "-1 -1" : tablet[0] + " " + tablet[1]));
+        }
+    }
+    
+    /**
+     * @return - the thread that gathers stats reports and metrics snapshots, away from sessions and room workers
+     */
+    Executor getStatsExecutor() {
+        return statsExecutor;
+    }
+    
+    /**
+     * @return - the metrics of this server
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * @return - the admission control of this server, which knows whether it is overloaded
+     */
+    public OverloadMonitor getOverloadMonitor() {
+        return overload;
+    }
+    
+    /**
+     * @return - the table giving every username that has logged in or been invited an int id
+     */
+    public UsernameTable getUsernames() {
+        return usernames;
+    }
+    
+    /**
+     * @return - the port the server listens on, the one it was given or, if that was 0, the one it was assigned
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * @return - the settings of this server
+     */
+    public ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Removes a Room object from the roomList. A durable room stays in the room store, and is read back
+     * the next time it is asked for
      * @param room - requires the room be an existing room, non-null
      * Modifies- removes the Room from the roomList if the Room exists
      */
     public synchronized void removeRoom(Room room){
-    	roomList.remove(room.getId());
+        if (roomList.get(room.getId()) == room) {
+            roomList.remove(room.getId());
+        }
     }
     
     /**
@@ -195,16 +799,21 @@ public class ChatServer{
     }
     
     /**
-     * Method to get a Room object given a room number
+     * Method to get a Room object given a room number. A durable room that is not in memory is read back
+     * from the room store
      * @param roomno - requires roomno be a positive integer corresponding to an active room
      * @return - the Room object that has room number given by roomno. If no such Room exists, or if 
      * roomno is invalid (ie. less than zero), returns null
      */
-    public synchronized Room getRoom(int roomno) {
+    public Room getRoom(int roomno) {
         if (roomno < 0) {
             return null;
         }
-        return roomList.get(roomno);
+        Room room = roomList.get(roomno);
+        if (room == null && roomStore != null) {
+            room = loadRoom(roomno);
+        }
+        return room;
     }
     
     /**
@@ -257,6 +866,9 @@ public class ChatServer{
         logins.put(user, pass);
         loginWriter.write(user + " " + pass + "\n");
         loginWriter.flush();
+        if (roomStore != null) {
+            roomStore.logRegister(user, pass);
+        }
         
     }
     
@@ -0,0 +1,147 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+
+/**
+ * The timings of one traced chat line on its way through the server, for the trace mode (see
+ * ServerConfig.isTraceMessages). A trace is made by the session that read the line and handed, with the
+ * line, to the Room's mailbox, which stamps the later stages:
+ * parse - from the session starting to handle the line to posting it to the room
+ * wait - from posting it to the room's mailbox running it (the room's stand-in for a lock wait)
+ * append - storing the line in the room's Tablet
+ * fanout - handing the line to every member, less the time spent writing it
+ * write - queueing and writing the line to the members' connections
+ * One trace in every configured sample rate is sampled, and when the broadcast ends its stages are recorded,
+ * in nanoseconds, in the server's trace.parse, trace.wait, trace.append, trace.fanout, trace.write and
+ * trace.total histograms, so they are reported with the other metrics instead of on the room's thread.
+ *
+ * Threadsafe argument:
+ * A trace is only used by one thread at a time: the session's thread until it is posted to the mailbox,
+ * then the mailbox's thread, and the mailbox queue hands it over safely. The listeners that add write time
+ * are called on the mailbox's thread. The sample count is an AtomicLong, and the Histograms are threadsafe.
+ */
+public class MessageTrace {
+
+    private static final AtomicLong traced = new AtomicLong();
+
+    private final long receivedMillis;  // System.currentTimeMillis() when the line was read
+    private final long startNanos;      // System.nanoTime() when the session started handling the line
+    private final boolean sampled;
+    private long postNanos;
+    private long runNanos;
+    private long appendedNanos;
+    private long broadcastNanos;
+    private long broadcastMillis;
+    private long doneNanos;
+    private long writeNanos;
+
+    /**
+     * @param receivedMillis - System.currentTimeMillis() when the line was read
+     * @param startNanos - System.nanoTime() when the session started handling the line
+     * @param sampleRate - requires sampleRate >= 1, one trace in sampleRate is sampled
+     */
+    public MessageTrace(long receivedMillis, long startNanos, int sampleRate) {
+        this.receivedMillis = receivedMillis;
+        this.startNanos = startNanos;
+        this.sampled = traced.getAndIncrement() % sampleRate == 0;
+    }
+
+    /**
+     * Stamps the line being posted to the room
+     */
+    void posted() {
+        postNanos = System.nanoTime();
+    }
+
+    /**
+     * Stamps the room's mailbox starting to run the line
+     */
+    void running() {
+        runNanos = System.nanoTime();
+    }
+
+    /**
+     * Stamps the line having been stored in the Tablet, and the broadcast starting
+     */
+    void broadcasting() {
+        appendedNanos = System.nanoTime();
+        broadcastNanos = appendedNanos;
+        broadcastMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Stamps the broadcast having ended
+     */
+    void done() {
+        doneNanos = System.nanoTime();
+    }
+
+    /**
+     * Adds time a listener spent writing the line to its member's connection
+     * @param nanos - the time spent
+     */
+    public void addWriteNanos(long nanos) {
+        writeNanos += nanos;
+    }
+
+    /**
+     * @return - System.currentTimeMillis() when the server read the line
+     */
+    public long getReceivedMillis() {
+        return receivedMillis;
+    }
+
+    /**
+     * @return - System.currentTimeMillis() when the room started broadcasting the line
+     */
+    public long getBroadcastMillis() {
+        return broadcastMillis;
+    }
+
+    /**
+     * @return - true if the stages of this trace are recorded
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Records the stage timings of the trace
+     * @param stages - requires stages not null, the histograms to record them in
+     */
+    void record(Stages stages) {
+        stages.parse.record(postNanos - startNanos);
+        stages.wait.record(runNanos - postNanos);
+        stages.append.record(appendedNanos - runNanos);
+        stages.fanout.record(doneNanos - broadcastNanos - writeNanos);
+        stages.write.record(writeNanos);
+        stages.total.record(doneNanos - startNanos);
+    }
+
+    /**
+     * The histograms sampled traces are recorded in, looked up once per room
+     */
+    static class Stages {
+        private final Histogram parse;
+        private final Histogram wait;
+        private final Histogram append;
+        private final Histogram fanout;
+        private final Histogram write;
+        private final Histogram total;
+
+        /**
+         * @param metrics - requires metrics not null, the registry of the server
+         */
+        Stages(MetricsRegistry metrics) {
+            parse = metrics.histogram("trace.parse");
+            wait = metrics.histogram("trace.wait");
+            append = metrics.histogram("trace.append");
+            fanout = metrics.histogram("trace.fanout");
+            write = metrics.histogram("trace.write");
+            total = metrics.histogram("trace.total");
+        }
+    }
+}
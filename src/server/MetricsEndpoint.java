@@ -0,0 +1,170 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import metrics.Counter;
+import metrics.PrometheusFormat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small HTTP endpoint, on the JDK's built-in HTTP server, that lets tools outside the chat protocol watch
+ * a ChatServer:
+ * /metrics - the server's metrics in the Prometheus text format
+ * /health/live - 200 while the metrics snapshots are being taken on time, else 503
+ * /health/ready - 200 while the server is live and accepting connections, 503 while it refuses them
+ *
+ * Scrapes never read the metrics themselves. Every configured snapshot interval the server's stats thread
+ * formats the whole registry once, and a scrape only sends the latest formatted snapshot, so however often
+ * it is scraped the endpoint never takes a ChatServer, Room or map lock, nor waits on a mailbox.
+ *
+ * A snapshot that fails is counted in metrics.snapshotFailures, and the next one is still scheduled; the server
+ * is no longer live once STALE_SNAPSHOTS in a row have failed.
+ *
+ * Threadsafe argument:
+ * The snapshot and the time it was taken are volatile and are replaced, never modified: a scrape reads one
+ * complete snapshot. The snapshots are only taken by the stats thread.
+ */
+public class MetricsEndpoint {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int STALE_SNAPSHOTS = 3;   // snapshots that may be missed before the server is not live
+
+    private final ChatServer server;
+    private final HttpServer http;
+    private final ExecutorService httpExecutor;
+    private volatile byte[] snapshot;
+    private volatile long snapshotAt;   // System.currentTimeMillis() when the snapshot was taken
+    private volatile boolean stopped;
+    private final Counter snapshotFailures;
+
+    /**
+     * Creates an endpoint bound to an address, that serves nothing until started
+     * @param server - requires server not null
+     * @param host - requires host not null, the address to listen on
+     * @param port - requires port >= 0, the port to listen on, 0 for any free port
+     * @throws IOException if the address cannot be bound
+     */
+    public MetricsEndpoint(ChatServer server, String host, int port) throws IOException {
+        this.server = server;
+        this.http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        this.httpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "metrics-http");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.snapshot = new byte[0];
+        this.snapshotAt = 0;
+        this.stopped = false;
+        this.snapshotFailures = server.getMetrics().counter("metrics.snapshotFailures");
+    }
+
+    /**
+     * Takes the first snapshot, starts taking one every configured interval, and starts serving
+     */
+    public void start() {
+        takeSnapshot();
+        scheduleSnapshot();
+        http.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "text/plain; version=0.0.4", snapshot);
+            }
+        });
+        http.createContext("/health/live", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean live = isLive();
+                respond(exchange, live ? 200 : 503, "text/plain", (live ? "live\n" : "stale\n").getBytes(UTF8));
+            }
+        });
+        http.createContext("/health/ready", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                boolean ready = isLive() && !server.getOverloadMonitor().isRefusing();
+                respond(exchange, ready ? 200 : 503, "text/plain",
+                        (ready ? "ready\n" : "not ready\n").getBytes(UTF8));
+            }
+        });
+        http.setExecutor(httpExecutor);
+        http.start();
+    }
+
+    /**
+     * Stops serving and taking snapshots
+     */
+    public void stop() {
+        stopped = true;
+        http.stop(0);
+        httpExecutor.shutdown();
+    }
+
+    /**
+     * @return - the port the endpoint listens on
+     */
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    private boolean isLive() {
+        long interval = server.getConfig().getMetricsSnapshotMillis();
+        return System.currentTimeMillis() - snapshotAt <= STALE_SNAPSHOTS * interval;
+    }
+
+    private void scheduleSnapshot() {
+        server.getTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped) {
+                    return;
+                }
+                try {
+                    server.getStatsExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                takeSnapshot();
+                            } catch (RuntimeException e) {
+                                snapshotFailures.increment();
+                                e.printStackTrace();
+                            } finally {
+                                scheduleSnapshot();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the server has been killed
+                }
+            }
+        }, server.getConfig().getMetricsSnapshotMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void takeSnapshot() {
+        snapshot = PrometheusFormat.format(server.getMetrics(), "chat").getBytes(UTF8);
+        snapshotAt = System.currentTimeMillis();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
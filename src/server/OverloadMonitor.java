@@ -0,0 +1,220 @@
+package server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.HashedWheelTimer;
+
+/**
+ * Admission control for a ChatServer.
+ *
+ * Every PROBE_MILLIS a probe is handed to the room executor, and the time it waits before it runs is the
+ * server's lag: how far behind the Room mailboxes are. A probe that has not run by the next one counts as
+ * lag up to now. From the lag the monitor keeps one of three states:
+ * NORMAL - everything is done as usual.
+ * SHEDDING - the lag is past the configured shed threshold. Work that only updates state the client can
+ * live without for a moment is deferred: typing changes are collected over at least SHED_TYPING_WINDOW
+ * milliseconds, and contact presence changes are coalesced and sent once a second.
+ * REFUSING - the lag is past the configured refuse threshold. New connections are also refused with an
+ * overloaded error, before the costly handshake.
+ * A worse state is entered on the first probe past its threshold. A better one is only entered after
+ * RECOVER_PROBES probes in a row below half the threshold of the current state, so the server does not
+ * flap around a threshold. Every state change is counted, for the metrics.
+ *
+ * Threadsafe argument:
+ * The state machine fields are only written by recordLag, which is synchronized on the monitor. The state
+ * and the lag are also volatile so they can be read without the lock, and the counters are AtomicLongs.
+ */
+public class OverloadMonitor {
+
+    /**
+     * The admission state of the server, from least to most loaded
+     */
+    public enum State {
+        NORMAL, SHEDDING, REFUSING
+    }
+
+    public static final int SHED_TYPING_WINDOW = 1000;     // ms, the least typing window while shedding
+    private static final long PROBE_MILLIS = 100;
+    private static final int RECOVER_PROBES = 10;
+
+    private final HashedWheelTimer timer;
+    private final Executor executor;
+    private final ServerConfig config;
+    private final Runnable onNormal;            // run when the state goes back to NORMAL
+    private volatile State state;
+    private volatile long lagMillis;            // the last lag recorded
+    private volatile long probeSentNanos;       // System.nanoTime() when the outstanding probe was sent
+    private volatile boolean probeDone;
+    private volatile boolean stopped;
+    private int goodProbes;                     // probes in a row below the recovery level of the state
+    private final AtomicLong[] entered;         // times each state was entered, by ordinal
+    private final AtomicLong refusedConnections;
+
+    /**
+     * Creates a monitor in the NORMAL state. It does nothing until started
+     * @param timer - requires timer not null, the timer that sends the probes
+     * @param executor - requires executor not null, the executor whose lag is measured
+     * @param config - requires config not null, the settings that hold the thresholds
+     * @param onNormal - requires onNormal not null, run on the timer's thread when the state goes back to NORMAL
+     */
+    public OverloadMonitor(HashedWheelTimer timer, Executor executor, ServerConfig config, Runnable onNormal) {
+        this.timer = timer;
+        this.executor = executor;
+        this.config = config;
+        this.onNormal = onNormal;
+        this.state = State.NORMAL;
+        this.lagMillis = 0;
+        this.probeDone = true;
+        this.stopped = false;
+        this.goodProbes = 0;
+        this.entered = new AtomicLong[State.values().length];
+        for (int i = 0; i < entered.length; i++) {
+            entered[i] = new AtomicLong();
+        }
+        this.refusedConnections = new AtomicLong();
+    }
+
+    /**
+     * Starts probing the executor's lag, until stop is called
+     */
+    public void start() {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (stopped) {
+                    return;
+                }
+                probe();
+                start();
+            }
+        }, PROBE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing. The state stays where it is
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private void probe() {
+        long now = System.nanoTime();
+        if (!probeDone) {     // the last probe is still waiting, the lag is at least its age
+            recordLag(TimeUnit.NANOSECONDS.toMillis(now - probeSentNanos));
+            return;
+        }
+        probeDone = false;
+        probeSentNanos = now;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long lag = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probeSentNanos);
+                probeDone = true;
+                recordLag(lag);
+            }
+        });
+    }
+
+    /**
+     * Feeds one lag sample into the state machine. Called by the probes; also callable directly, eg. to
+     * test the state machine
+     * @param lag - the lag measured, in milliseconds
+     */
+    public void recordLag(long lag) {
+        State old;
+        State now;
+        synchronized (this) {
+            lagMillis = lag;
+            old = state;
+            now = stateFor(lag, 1);
+            if (now.ordinal() > old.ordinal()) {
+                goodProbes = 0;
+            }
+            else if (stateFor(lag, 2).ordinal() < old.ordinal()) {
+                if (++goodProbes < RECOVER_PROBES) {
+                    return;
+                }
+                goodProbes = 0;
+                now = stateFor(lag, 2);
+            }
+            else {
+                goodProbes = 0;
+                return;
+            }
+            state = now;
+            entered[now.ordinal()].incrementAndGet();
+        }
+        if (now == State.NORMAL && old != State.NORMAL) {
+            onNormal.run();
+        }
+    }
+
+    /**
+     * @param lag - the lag in milliseconds
+     * @param divisor - 1 to compare with the thresholds, 2 to compare with the recovery levels
+     * @return - the state the lag calls for. A threshold of 0 is never reached
+     */
+    private State stateFor(long lag, int divisor) {
+        long refuse = config.getOverloadRefuseLagMillis();
+        long shed = config.getOverloadShedLagMillis();
+        if (refuse > 0 && lag >= refuse / divisor) {
+            return State.REFUSING;
+        }
+        if (shed > 0 && lag >= shed / divisor) {
+            return State.SHEDDING;
+        }
+        return State.NORMAL;
+    }
+
+    /**
+     * @return - the current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return - true if non-essential work should be deferred, ie. the state is not NORMAL
+     */
+    public boolean isShedding() {
+        return state != State.NORMAL;
+    }
+
+    /**
+     * @return - true if new connections should be refused
+     */
+    public boolean isRefusing() {
+        return state == State.REFUSING;
+    }
+
+    /**
+     * @return - the last lag measured, in milliseconds
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * @param s - requires s not null
+     * @return - the number of times the monitor has gone into state s
+     */
+    public long getTimesEntered(State s) {
+        return entered[s.ordinal()].get();
+    }
+
+    /**
+     * Counts a refused connection
+     */
+    public void connectionRefused() {
+        refusedConnections.incrementAndGet();
+    }
+
+    /**
+     * @return - the number of connections refused while overloaded
+     */
+    public long getRefusedConnections() {
+        return refusedConnections.get();
+    }
+}
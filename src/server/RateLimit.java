@@ -0,0 +1,73 @@
+package server;
+
+/**
+ * Immutable datatype for the rate limit of a class of commands: how many commands may be sent each second
+ * on average, and how many may be sent at once after a quiet spell.
+ *
+ * Written as "rate/burst" in system properties, eg. -Dchat.sayLimit=20/40. A rate of 0 means unlimited.
+ *
+ * Threadsafe argument:
+ * All fields are final and immutable.
+ */
+public class RateLimit {
+
+    /**
+     * A limit that never refuses a command
+     */
+    public static final RateLimit UNLIMITED = new RateLimit(0, 1);
+
+    private final double perSecond;
+    private final int burst;
+
+    /**
+     * @param perSecond - requires perSecond >= 0, 0 for unlimited
+     * @param burst - requires burst > 0
+     * @throws IllegalArgumentException if perSecond < 0 or burst <= 0
+     */
+    public RateLimit(double perSecond, int burst) {
+        if (perSecond < 0 || burst <= 0) {
+            throw new IllegalArgumentException("ERROR: Rate limit needs a non-negative rate and a positive burst.");
+        }
+        this.perSecond = perSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * Parses a limit written as "rate/burst", or just "rate" for a burst of one second's worth
+     * @param s - requires s not null
+     * @return - the limit
+     * @throws IllegalArgumentException if s is not a valid limit
+     */
+    public static RateLimit parse(String s) {
+        try {
+            String[] parts = s.trim().split("/");
+            double perSecond = Double.parseDouble(parts[0]);
+            int burst = parts.length > 1 ? Integer.parseInt(parts[1]) : Math.max(1, (int) Math.ceil(perSecond));
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("ERROR: Bad rate limit " + s);
+            }
+            return new RateLimit(perSecond, burst);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERROR: Bad rate limit " + s);
+        }
+    }
+
+    /**
+     * @return - the number of commands allowed each second on average, 0 for unlimited
+     */
+    public double getPerSecond() {
+        return perSecond;
+    }
+
+    /**
+     * @return - the number of commands allowed at once
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return perSecond + "/" + burst;
+    }
+}
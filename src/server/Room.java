@@ -1,34 +1,91 @@
 package server;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import metrics.Counter;
+import metrics.FlightEvents;
+import metrics.Histogram;
+import util.ConcurrentIntMap;
+import util.HashedWheelTimer;
+import util.IntSet;
 
 /**
  * Class representing a Room object.
- * A Room contains a Map of username to RoomListener for that user that can be used to send server-->client
- * messages to that User
+ * A Room contains a Map of user id to RoomListener for that user that can be used to send server-->client
+ * messages to that User. Users are kept by the int id the server's UsernameTable gives their username, and
+ * only turned back into names when a line is encoded for the clients
  * A roomid that is final -- it cannot be changed once set
  * A Tablet: keeps track of everything written to the room
  * A reference to the ChatServer that the room sits in.
- * 
+ *
  * Threadsafe argument:
- * All operations are protected by the Room object's lock. Thus, only one User thread may modify the 
- * fields of a Room at any given time. No two operations may occur at the same time, since every method
- * is synchronized on the Room's lock.
+ * Every operation on a Room is run as a command on the Room's own RoomMailbox, which runs commands one
+ * at a time, in the order they were posted, on the server's shared room executor. Thus, only one thread
+ * ever observes or modifies the fields of a Room at any given time, and no Room lock is held while the
+ * RoomListeners are called. Operations that do not return a value (write, leave, decline, and the typing
+ * notifications) are posted without waiting; operations that return a value wait for their command to run.
+ * Since commands from the same User thread are posted in order, they are also run in order.
+ * Broadcasts walk the members array, an immutable copy-on-write snapshot of the listeners that is replaced
+ * (never modified) whenever a user joins or leaves, so a broadcast needs no map lookup per recipient.
+ * Typing changes are collected on the mailbox and flushed by a command that the server's timer posts
+ * to the same mailbox, so the flush is serialized with every other operation on the Room. Invites expire
+ * the same way: each has a Timeout on the server's timer that posts the expiry to the mailbox. Only invites
+ * sent while the server runs expire; the guests a room is restored with never do.
+ *
+ * A Room with no traffic for ServerConfig.getHibernateAfterMillis() is hibernated: its Tablet and guestList
+ * are written to a file and dropped, and its change log is cleared, leaving only the members and their
+ * statuses in memory. The next command that needs them (join, invite, decline, write, or a read of the
+ * Tablet) reads them back first. Hibernating and waking run on the mailbox like every other command.
+ * The file is deleted once it has been read back, when the room closes, and when the server is killed. If it
+ * cannot be read back, the file is kept and the command fails with a RoomUnavailableException.
+ *
+ * If the server's rooms are durable, every join, leave, invite and decline is also logged to the server's
+ * RoomStore. A durable room that empties is dropped from memory but stays in the
+ * store for its guests, and comes back (with all its stored users invited) when it is next asked for.
  */
 
 public class Room {
-    
-	private final Map<String, RoomListener> listeners; // map of username to RoomListener for that user
-	private final Set<String> guestList; // usernames that have been invited
+
+	private final ConcurrentIntMap<RoomListener> listeners; // map of user id to RoomListener for that user
+	private volatile RoomListener[] members; // snapshot of listeners.values(), rebuilt on every join and leave
+	private IntSet guestList; // ids of the users that have been invited, null while hibernated
+	private final ConcurrentIntMap<HashedWheelTimer.Timeout> inviteExpiries; // guest id to the expiry of the invite
 	private final int roomid; // room identifier -- IMMUTABLE
-	private final Tablet tablet;
+	private Tablet tablet; // null while hibernated
 	private final ChatServer server;
-	private final Map<String, TypingStatus> statuses; // map of username to typing status
-	
+	private final UsernameTable usernames;
+	private final ConcurrentIntMap<TypingStatus> statuses; // map of user id to typing status
+	private int typingCount; // number of users whose status is TYPING
+	private int enteredTextCount; // number of users whose status is ENTERED_TEXT
+	private final Map<Integer, TypingStatus> pendingTyping; // typing changes not yet broadcast, by user id, in the order they were made
+	private boolean typingFlushScheduled; // true while a flush of pendingTyping is waiting on the timer
+	private final RoomMailbox mailbox;
+	private boolean closed; // true once the last listener has left and the room was removed from the server
+	private String usersCache; // the getUsersInRoom String, null after any join, leave or status change
+	private int version; // incremented on every join, leave and status change
+	private final Deque<MemberChange> changes; // the latest changes, oldest first, for getUsersSince
+	private volatile long lastActive; // System.currentTimeMillis() of the last command that counts as traffic
+	private File hibernateFile; // where the Tablet and guestList were written, null unless hibernated
+	private final Histogram broadcastFanout; // members told of each chat line, join, leave or typing flush
+	private final Histogram broadcastLatency; // nanoseconds to hand each broadcast to every member
+	private final Counter wakeFailures; // hibernation files that could not be read back
+	private final MessageTrace.Stages traceStages; // stage timings of sampled traced lines
+
+	private static final int MAX_CHANGES = 256; // changes kept for getUsersSince, older callers get the whole list
+
 	/**
 	 * Creates a new Room object
 	 * @param server - requires server not null
@@ -43,74 +100,249 @@ public class Room {
 	    }
 	    this.roomid = id;
 		this.server = server;
-		guestList = Collections.synchronizedSet(new HashSet<String>());
-		listeners = Collections.synchronizedMap(new HashMap<String, RoomListener>());
-		listeners.put(name, listener);
-		tablet = new Tablet();
-		statuses = Collections.synchronizedMap(new HashMap<String, TypingStatus>());
+		usernames = server.getUsernames();
+		int creator = usernames.intern(name);
+		guestList = new IntSet();
+		inviteExpiries = new ConcurrentIntMap<HashedWheelTimer.Timeout>();
+		listeners = new ConcurrentIntMap<RoomListener>();
+		listeners.put(creator, listener);
+		members = new RoomListener[] { listener };
+		tablet = new Tablet(server.getConfig());
+		statuses = new ConcurrentIntMap<TypingStatus>();
+		statuses.put(creator, TypingStatus.IDLE);
+		typingCount = 0;
+		enteredTextCount = 0;
+		pendingTyping = new LinkedHashMap<Integer, TypingStatus>();
+		typingFlushScheduled = false;
+		version = 1;
+		changes = new ArrayDeque<MemberChange>();
+		mailbox = new RoomMailbox(server.getRoomExecutor());
+		closed = false;
+		lastActive = System.currentTimeMillis();
+		hibernateFile = null;
+		broadcastFanout = server.getMetrics().histogram("room.broadcast.fanout");
+		broadcastLatency = server.getMetrics().histogram("room.broadcast.latency");
+		wakeFailures = server.getMetrics().counter("room.wakeFailures");
+		traceStages = new MessageTrace.Stages(server.getMetrics());
+	}
+
+	/**
+	 * Creates a Room read back from the server's room store or from a snapshot, with no members.
+	 * The guests are every user the room had, so their invites do not expire
+	 * @param server - requires server not null
+	 * @param id - the number the room was stored as, requires id >= 0
+	 * @param guests - requires guests not null, the ids of the users invited to the room
+	 * @param tablet - requires tablet not null, the lines written to the room
+	 */
+	Room(ChatServer server, int id, int[] guests, Tablet tablet) {
+	    this.roomid = id;
+	    this.server = server;
+	    usernames = server.getUsernames();
+	    guestList = new IntSet();
+	    inviteExpiries = new ConcurrentIntMap<HashedWheelTimer.Timeout>();
+	    for (int guest : guests) {
+	        guestList.add(guest);   // no expiry: these are the room's stored users, not pending invites
+	    }
+	    listeners = new ConcurrentIntMap<RoomListener>();
+	    members = new RoomListener[0];
+	    this.tablet = tablet;
+	    statuses = new ConcurrentIntMap<TypingStatus>();
+	    typingCount = 0;
+	    enteredTextCount = 0;
+	    pendingTyping = new LinkedHashMap<Integer, TypingStatus>();
+	    typingFlushScheduled = false;
+	    version = 1;
+	    changes = new ArrayDeque<MemberChange>();
+	    mailbox = new RoomMailbox(server.getRoomExecutor());
+	    closed = false;
+	    lastActive = System.currentTimeMillis();
+	    hibernateFile = null;
+	    broadcastFanout = server.getMetrics().histogram("room.broadcast.fanout");
+	    broadcastLatency = server.getMetrics().histogram("room.broadcast.latency");
+	    wakeFailures = server.getMetrics().counter("room.wakeFailures");
+	    traceStages = new MessageTrace.Stages(server.getMetrics());
 	}
-	
+
 	/**
 	 * @return - the id value of the server
 	 */
-	public synchronized int getId(){
+	public int getId(){
 		return roomid;
 	}
-	
+
 	/**
 	 * Method call for a user to join a room
 	 * In order for a user to join successfully, the user must be on the guestList of the room (ie. the list of all users invited)
 	 * If so, the user's RoomListener is added to the room, and a notification is sent to all other users
 	 * @param username - requires username not null, be the username of a valid user on the server
 	 * @param l - requires l not null, be the RoomListener that belongs to the User object whose name is username
-	 * 
+	 *
 	 * Modifies:
 	 * If username is in guestList: puts username, RoomListener object into listeners map, removes username from guestList
-	 * 
+	 *
 	 * @return - true if the user was indeed on the guestList, false otherwise
+	 * @throws RoomUnavailableException if the room is hibernated and cannot be read back
 	 */
-	public synchronized boolean join (String username, RoomListener l) {
-		if(guestList.contains(username) && username != null && l != null){
-			listeners.put(username, l);
-			statuses.put(username, TypingStatus.IDLE);
-			guestList.remove(username);
-			for(String s: listeners.keySet()){
-				listeners.get(s).notifyUserEnteredRoom(username, roomid);
-			}
-			return true;
-		}
-		return false;
+	public boolean join (final String username, final RoomListener l) {
+	    final int user = usernames.idOf(username);
+	    return mailbox.call(new Callable<Boolean>() {
+	        @Override
+	        public Boolean call() {
+	            wake();
+	            if(!closed && guestList.contains(user) && l != null){
+	                lastActive = System.currentTimeMillis();
+	                listeners.put(user, l);
+	                statuses.put(user, TypingStatus.IDLE);
+	                guestList.remove(user);
+	                cancelInviteExpiry(user);
+	                rebuildMembers();
+	                recordChange(user, TypingStatus.IDLE.ordinal());
+	                RoomListener[] recipients = members;
+	                long start = System.nanoTime();
+	                for(RoomListener member : recipients){
+	                    member.notifyUserEnteredRoom(user, roomid);
+	                }
+	                recordBroadcast(recipients.length, start);
+	                if (server.getRoomStore() != null) {
+	                    server.getRoomStore().logJoin(roomid, username);
+	                }
+	                return true;
+	            }
+	            return false;
+	        }
+	    });
 	}
-	
+
 	/**
 	 * Method called when declining an invitation.
 	 * @param username Requires username non null, a valid username on the server
 	 * Modifies - guestList - removes user from the list if exists
 	 */
-	public synchronized void decline(String username) {
-	    if (guestList.contains(username) && username != null) {
-	        guestList.remove(username);
+	public void decline(String username) {
+	    final int user = usernames.idOf(username);
+	    mailbox.post(new Runnable() {
+	        @Override
+	        public void run() {
+	            uninvite(user);
+	        }
+	    });
+	}
+
+	/**
+	 * Removes a user from the guestList, as when the user declines. If that leaves a durable room with
+	 * neither members nor guests, nobody can ever join it again, so it is closed.
+	 * Must only be called from a command running on the mailbox
+	 * @param user - any user id
+	 */
+	private void uninvite(int user) {
+	    wake();
+	    cancelInviteExpiry(user);
+	    if (guestList.remove(user)) {
+	        if (server.getRoomStore() != null) {
+	            server.getRoomStore().logDecline(roomid, usernames.nameOf(user));
+	        }
+	        if (listeners.isEmpty() && guestList.size() == 0 && !closed) {
+	            close();
+	        }
+	    }
+	}
+
+	/**
+	 * Schedules the expiry of the invite of a guest on the server's timer, replacing any earlier expiry.
+	 * When it expires the invite is removed as if it had been declined. No effect if invites do not expire.
+	 * Must only be called from a command running on the mailbox, or from a constructor
+	 * @param guest - the id of the guest
+	 */
+	private void expireInvite(final int guest) {
+	    cancelInviteExpiry(guest);
+	    long ttl = server.getConfig().getInviteTtlMillis();
+	    if (ttl <= 0) {
+	        return;
+	    }
+	    final HashedWheelTimer.Timeout[] expiry = new HashedWheelTimer.Timeout[1];
+	    expiry[0] = server.getTimer().schedule(new Runnable() {
+	        @Override
+	        public void run() {
+	            mailbox.post(new Runnable() {
+	                @Override
+	                public void run() {
+	                    if (!closed && inviteExpiries.get(guest) == expiry[0]) {
+	                        uninvite(guest);
+	                    }
+	                }
+	            });
+	        }
+	    }, ttl, TimeUnit.MILLISECONDS);
+	    inviteExpiries.put(guest, expiry[0]);
+	}
+
+	/**
+	 * Cancels the expiry of a guest's invite, if there is one.
+	 * Must only be called from a command running on the mailbox, or from a constructor
+	 * @param guest - any user id
+	 */
+	private void cancelInviteExpiry(int guest) {
+	    HashedWheelTimer.Timeout expiry = inviteExpiries.remove(guest);
+	    if (expiry != null) {
+	        expiry.cancel();
 	    }
 	}
-	
+
+	/**
+	 * Closes the room: gives back its Tablet (or hibernation file), cancels its invite expiries and
+	 * removes it from the server. Must only be called from a command running on the mailbox
+	 */
+	private void close() {
+	    closed = true;
+	    if (hibernateFile != null) {
+	        hibernateFile.delete();
+	        hibernateFile = null;
+	    }
+	    else {
+	        tablet.release();
+	    }
+	    for (HashedWheelTimer.Timeout expiry : inviteExpiries.values()) {
+	        expiry.cancel();
+	    }
+	    inviteExpiries.clear();
+	    server.removeRoom(this);
+	}
+
 	/**
 	 * Method called when a user leaves a room. Notifies all other users in the room of the change
 	 * If the room thus becomes empty, the room calls the server function to remove itself from the server
 	 * @param username - requires username be a user in the Room
 	 * Modifies: removes the username from the listeners map
 	 */
-	public synchronized void leave(String username){
-		if(listeners.containsKey(username) && username != null) {
-		    listeners.remove(username);       
-	        for(String s: listeners.keySet()){
-	            listeners.get(s).notifyUserLeftRoom(username, roomid);
-	        }
-	        if(listeners.isEmpty()) {
-	            server.removeRoom(this);
+	public void leave(final String username){
+	    final int user = usernames.idOf(username);
+	    mailbox.post(new Runnable() {
+	        @Override
+	        public void run() {
+	            if(listeners.containsKey(user)) {
+	                lastActive = System.currentTimeMillis();
+	                listeners.remove(user);
+	                countStatus(statuses.remove(user), -1);
+	                pendingTyping.remove(user);
+	                rebuildMembers();
+	                recordChange(user, -1);
+	                RoomListener[] recipients = members;
+	                long start = System.nanoTime();
+	                for(RoomListener member : recipients){
+	                    member.notifyUserLeftRoom(user, roomid);
+	                }
+	                recordBroadcast(recipients.length, start);
+	                if (server.getRoomStore() != null) {
+	                    server.getRoomStore().logLeave(roomid, username);
+	                }
+	                if(listeners.isEmpty()) {
+	                    close();
+	                }
+	            }
 	        }
-		}
+	    });
 	}
-	
+
 	/**
 	 * Method called when inviting a user to the room. Checks to make sure that the inviting user is
 	 * indeed in the room, and if so, adds the invited user to the guestList
@@ -118,15 +350,28 @@ public class Room {
 	 * @param to - requires to be a non-null String username of a user on the server
 	 * Modifies - adds the invited user to the guestList if the inviting user is in the room
 	 * @return - returns true if the inviting user is in the room and the guest was successfully added, false otherwise
+	 * @throws RoomUnavailableException if the room is hibernated and cannot be read back
 	 */
-	public synchronized boolean inviteUser(String from, String to){
-		if (listeners.containsKey(from) && (from != null) && (to != null)){
-			guestList.add(to);
-			return true;
-		}
-		return false;
+	public boolean inviteUser(String from, final String to){
+	    final int inviter = usernames.idOf(from);
+	    final int guest = usernames.intern(to);
+	    return mailbox.call(new Callable<Boolean>() {
+	        @Override
+	        public Boolean call() {
+	            if (listeners.containsKey(inviter) && guest >= 0){
+	                lastActive = System.currentTimeMillis();
+	                wake();
+	                if (guestList.add(guest) && server.getRoomStore() != null) {
+	                    server.getRoomStore().logInvite(roomid, to);
+	                }
+	                expireInvite(guest);
+	                return true;
+	            }
+	            return false;
+	        }
+	    });
 	}
-	
+
 	/**
 	 * Method called when a user writes to the room. Checks to make sure the specified user is actually in the room
 	 * If not, then no effect
@@ -134,83 +379,575 @@ public class Room {
 	 * @param said - requires said be a non-null String
 	 * Modifies - adds the (username, said) to the tablet of all things said in the room
 	 */
-	public synchronized void write(String username, String said){
-		if(listeners.containsKey(username) && (username != null) && (said != null)) {
-		    tablet.addLine(username, said);
-	        for(String s: listeners.keySet()){
-	            listeners.get(s).notifySay(username,said,roomid);
+	public void write(String username, String said){
+	    write(username, said, null);
+	}
+
+	/**
+	 * Method called when a user writes to the room in trace mode. As write, but the line is stamped on its way
+	 * through the room and the members are told with notifyTracedSay, and the stages of a sampled trace are
+	 * recorded in the server's trace histograms
+	 * @param username - requires username be a non-null String that is the username of a user in the Room
+	 * @param said - requires said be a non-null String
+	 * @param trace - the trace of the line, or null to write it untraced
+	 */
+	public void write(final String username, final String said, final MessageTrace trace){
+	    final int user = usernames.idOf(username);
+	    if (trace != null) {
+	        trace.posted();
+	    }
+	    mailbox.post(new Runnable() {
+	        @Override
+	        public void run() {
+	            if (trace != null) {
+	                trace.running();
+	            }
+	            if(listeners.containsKey(user) && (said != null)) {
+	                lastActive = System.currentTimeMillis();
+	                wake();
+	                tablet.addLine(user, said);
+	                RoomListener[] recipients = members;
+	                long start = System.nanoTime();
+	                if (trace == null) {
+	                    for(RoomListener member : recipients){
+	                        member.notifySay(user,said,roomid);
+	                    }
+	                }
+	                else {
+	                    trace.broadcasting();
+	                    for(RoomListener member : recipients){
+	                        member.notifyTracedSay(user, said, roomid, trace);
+	                    }
+	                    trace.done();
+	                    if (trace.isSampled()) {
+	                        trace.record(traceStages);
+	                    }
+	                }
+	                recordBroadcast(recipients.length, start);
+	            }
 	        }
-		}
+	    });
 	}
-	
+
 	/**
 	 * Method called when there is a client-->server message that says the user is typing in a given room
 	 * Notifies all listeners to send server-->client messages to inform all clients in the room of the typing
 	 * @param username - requires username be a valid username of a User in the room. Else no effect
 	 */
-	public synchronized void setTyping(String username) {
-	    if (listeners.containsKey(username) && username != null) {
-	        statuses.put(username, TypingStatus.TYPING);
-	        for(String s : listeners.keySet()) {
-	            listeners.get(s).notifyUserTyping(username, roomid);
-	        }
-	    }
+	public void setTyping(String username) {
+	    changeStatus(username, TypingStatus.TYPING);
 	}
-	
+
 	/**
      * Method called when there is a client-->server message that says the user has entered
      * text but is no longer typing in a given room
      * Notifies all listeners to send server-->client messages to inform all clients in the room
      * @param username - requires username be a valid username of a User in the room. Else no effect
      */
-	public synchronized void setEnteredText(String username) {
-	    if (listeners.containsKey(username) && username != null) {
-	        statuses.put(username, TypingStatus.ENTERED_TEXT);
-	        for (String s : listeners.keySet()) {
-	            listeners.get(s).notifyUserEnteredText(username, roomid);
-	        }
-	    }    
+	public void setEnteredText(String username) {
+	    changeStatus(username, TypingStatus.ENTERED_TEXT);
 	}
-	
+
 	/**
      * Method called when there is a client-->server message that says the user is not typing
      * and the text field is blank
      * Notifies all listeners to send server-->client messages to inform all clients in the room
      * @param username - requires username be a valid username of a User in the room. Else no effect
      */
-	public synchronized void setIdle(String username) {
-	    if (listeners.containsKey(username) && username != null) {
-	        statuses.put(username, TypingStatus.IDLE);
-	        for (String s : listeners.keySet()) {
-	            listeners.get(s).notifyUserIdle(username, roomid);
+	public void setIdle(String username) {
+	    changeStatus(username, TypingStatus.IDLE);
+	}
+
+	/**
+	 * Records a new typing status for a user. A status that is the same as the user's current status
+	 * is ignored. Otherwise the change is collected, and all changes collected over the configured typing
+	 * window are broadcast together by flushTyping
+	 * @param username - requires username be a valid username of a User in the room. Else no effect
+	 * @param status - requires status not null
+	 */
+	private void changeStatus(String username, final TypingStatus status) {
+	    final int user = usernames.idOf(username);
+	    mailbox.post(new Runnable() {
+	        @Override
+	        public void run() {
+	            if (!listeners.containsKey(user)) {
+	                return;
+	            }
+	            TypingStatus old = statuses.get(user);
+	            if (old == status) {    // nothing changed, nothing to tell the room
+	                return;
+	            }
+	            lastActive = System.currentTimeMillis();
+	            statuses.put(user, status);
+	            countStatus(old, -1);
+	            countStatus(status, 1);
+	            recordChange(user, status.ordinal());
+	            pendingTyping.put(user, status);
+	            if (typingFlushScheduled) {
+	                return;
+	            }
+	            int window = server.getConfig().getTypingWindowMillis();
+	            if (server.getOverloadMonitor().isShedding()) {     // collect changes for longer, for fewer broadcasts
+	                window = Math.max(window, OverloadMonitor.SHED_TYPING_WINDOW);
+	            }
+	            if (window == 0) {
+	                flushTyping();
+	            }
+	            else {
+	                typingFlushScheduled = true;
+	                server.getTimer().schedule(new Runnable() {
+	                    @Override
+	                    public void run() {
+	                        mailbox.post(new Runnable() {
+	                            @Override
+	                            public void run() {
+	                                flushTyping();
+	                            }
+	                        });
+	                    }
+	                }, window, TimeUnit.MILLISECONDS);
+	            }
+	        }
+	    });
+	}
+
+	/**
+	 * Broadcasts the typing changes collected since the last flush, as one line per member:
+	 * If the room has more members than the configured summary threshold, only the number of users typing
+	 * and the number of users that have entered text are sent.
+	 * Else if a single user changed status, the single-user typing/enteredText/idle notification is sent.
+	 * Else the new status of every user that changed is sent in one combined notification.
+	 * Must only be called from a command running on the mailbox
+	 */
+	private void flushTyping() {
+	    typingFlushScheduled = false;
+	    if (pendingTyping.isEmpty()) {
+	        return;
+	    }
+	    RoomListener[] recipients = members;
+	    long start = System.nanoTime();
+	    if (recipients.length > server.getConfig().getTypingSummaryThreshold()) {
+	        for (RoomListener member : recipients) {
+	            member.notifyTypingSummary(typingCount, enteredTextCount, roomid);
 	        }
 	    }
+	    else if (pendingTyping.size() == 1) {
+	        Map.Entry<Integer, TypingStatus> change = pendingTyping.entrySet().iterator().next();
+	        int user = change.getKey();
+	        for (RoomListener member : recipients) {
+	            switch (change.getValue()) {
+	                case TYPING:
+	                    member.notifyUserTyping(user, roomid);
+	                    break;
+	                case ENTERED_TEXT:
+	                    member.notifyUserEnteredText(user, roomid);
+	                    break;
+	                default:
+	                    member.notifyUserIdle(user, roomid);
+	                    break;
+	            }
+	        }
+	    }
+	    else {
+	        StringBuilder sb = new StringBuilder();
+	        for (Map.Entry<Integer, TypingStatus> change : pendingTyping.entrySet()) {
+	            if (sb.length() > 0) {
+	                sb.append(' ');
+	            }
+	            sb.append(usernames.nameOf(change.getKey())).append(' ').append(change.getValue().ordinal());
+	        }
+	        String states = sb.toString();
+	        for (RoomListener member : recipients) {
+	            member.notifyTypingStates(states, roomid);
+	        }
+	    }
+	    pendingTyping.clear();
+	    recordBroadcast(recipients.length, start);
 	}
-	
+
+	/**
+	 * Records the number of members a broadcast went to and how long it took
+	 * @param fanout - the number of members told
+	 * @param start - System.nanoTime() when the broadcast started
+	 */
+	private void recordBroadcast(int fanout, long start) {
+	    long nanos = System.nanoTime() - start;
+	    broadcastFanout.record(fanout);
+	    broadcastLatency.record(nanos);
+	    FlightEvents.broadcast(roomid, fanout, nanos);
+	}
+
 	/**
 	 * Method that gives all usernames and typing status of all members of the room in a space delimited String
-	 * @return - String object, space delimited, that contains all members of a room. 
+	 * The String is cached until the next join, leave or status change. Like every read, it waits for the
+	 * commands posted before it, so a cached String never misses a change the caller has already made.
+	 * @return - String object, space delimited, that contains all members of a room.
 	 * There is no guarantee on the ordering of usernames in the String.
 	 */
-	public synchronized String getUsersInRoom() {
-	    StringBuilder sb = new StringBuilder();
-	    for (String s : listeners.keySet()) {
-	        if (statuses.containsKey(s)) {
-	            sb.append(s + " " + new Integer(statuses.get(s).ordinal()).toString() + " ");
+	public String getUsersInRoom() {
+	    return mailbox.call(new Callable<String>() {
+	        @Override
+	        public String call() {
+	            if (usersCache == null) {
+	                StringBuilder sb = new StringBuilder();
+	                for (int user : listeners.keys()) {
+	                    TypingStatus status = statuses.get(user);
+	                    sb.append(usernames.nameOf(user)).append(' ')
+	                            .append(status == null ? 0 : status.ordinal()).append(' ');   // null really shouldn't happen
+	                }
+	                usersCache = sb.substring(0, sb.length() - 1);
+	            }
+	            return usersCache;
 	        }
-	        else {     // really shouldn't be here
-	            sb.append(s + " 0 ");
+	    });
+	}
+
+	/**
+	 * Method that gives the membership and typing status changes of the room since a given version,
+	 * as a space delimited String "FromVersion ToVersion (Username Status)*", where Status is the ordinal
+	 * of the TypingStatus or -1 if the user left. Only the latest change of each user is given.
+	 * If the changes since the given version are no longer kept (or version is 0), FromVersion is 0 and
+	 * every current member is given, replacing whatever the caller knew about the room.
+	 * @param version - the version of the caller's last snapshot, as given by the ToVersion of an earlier call.
+	 * Requires version >= 0
+	 * @return - the space delimited String described above
+	 */
+	public String getUsersSince(final int version) {
+	    return mailbox.call(new Callable<String>() {
+	        @Override
+	        public String call() {
+	            StringBuilder sb = new StringBuilder();
+	            if (version > 0 && version == Room.this.version) {     // nothing changed
+	                return sb.append(version).append(' ').append(version).toString();
+	            }
+	            if (version <= 0 || version > Room.this.version
+	                    || changes.isEmpty() || changes.getFirst().version > version + 1) {
+	                sb.append(0).append(' ').append(Room.this.version);
+	                for (int user : listeners.keys()) {
+	                    TypingStatus status = statuses.get(user);
+	                    sb.append(' ').append(usernames.nameOf(user)).append(' ').append(status == null ? 0 : status.ordinal());
+	                }
+	                return sb.toString();
+	            }
+	            Map<Integer, Integer> latest = new LinkedHashMap<Integer, Integer>();
+	            for (MemberChange change : changes) {
+	                if (change.version > version) {
+	                    latest.remove(change.user);
+	                    latest.put(change.user, change.status);
+	                }
+	            }
+	            sb.append(version).append(' ').append(Room.this.version);
+	            for (Map.Entry<Integer, Integer> change : latest.entrySet()) {
+	                sb.append(' ').append(usernames.nameOf(change.getKey())).append(' ').append(change.getValue());
+	            }
+	            return sb.toString();
 	        }
+	    });
+	}
+
+	/**
+	 * Records a join, leave or status change: bumps the version, drops the cached getUsersInRoom String
+	 * and remembers the change for getUsersSince. Must only be called from a command running on the mailbox
+	 * @param user - the id of the user whose membership or status changed
+	 * @param status - the ordinal of the user's new TypingStatus, or -1 if the user left
+	 */
+	private void recordChange(int user, int status) {
+	    version++;
+	    usersCache = null;
+	    changes.addLast(new MemberChange(version, user, status));
+	    if (changes.size() > MAX_CHANGES) {
+	        changes.removeFirst();
 	    }
-	    return sb.substring(0, sb.length() - 1);
 	}
-	
+
+	/**
+	 * Immutable datatype representing a change in the membership or typing status of a user in the room
+	 */
+	private static class MemberChange {
+	    private final int version; // the room version that this change created
+	    private final int user; // user id
+	    private final int status; // TypingStatus ordinal, or -1 if the user left
+
+	    public MemberChange(int version, int user, int status) {
+	        this.version = version;
+	        this.user = user;
+	        this.status = status;
+	    }
+	}
+
+	/**
+	 * Adjusts the counts of users typing and with entered text for a status a user gained or lost.
+	 * Must only be called from a command running on the mailbox
+	 * @param status - the status, may be null (no effect)
+	 * @param delta - 1 if a user gained the status, -1 if a user lost it
+	 */
+	private void countStatus(TypingStatus status, int delta) {
+	    if (status == TypingStatus.TYPING) {
+	        typingCount += delta;
+	    }
+	    else if (status == TypingStatus.ENTERED_TEXT) {
+	        enteredTextCount += delta;
+	    }
+	}
+
+	/**
+	 * @return - the number of users currently in the room, read from the members snapshot without
+	 * waiting on the mailbox
+	 */
+	public int getMemberCount() {
+	    return members.length;
+	}
+
+	/**
+	 * Replaces the members snapshot with a fresh copy of the listeners.
+	 * Must only be called from a command running on the mailbox
+	 */
+	private void rebuildMembers() {
+	    members = listeners.values().toArray(new RoomListener[listeners.size()]);
+	}
+
 	/**
 	 * Method that tells whether the user given by username is on the guest list
 	 * @param username - the username of the user to check. Requires username not null
 	 * @return true if username is on the guestList, false otherwise
+	 * @throws RoomUnavailableException if the room is hibernated and cannot be read back
+	 */
+	public boolean isInvited(String username) {
+	    final int user = usernames.idOf(username);
+	    return mailbox.call(new Callable<Boolean>() {
+	        @Override
+	        public Boolean call() {
+	            wake();
+	            return guestList.contains(user);
+	        }
+	    });
+	}
+
+	/**
+	 * @return - the number of lines written to the room. Wakes the room if it is hibernated
+	 * @throws RoomUnavailableException if the room is hibernated and cannot be read back
+	 */
+	public int getLineCount() {
+	    return mailbox.call(new Callable<Integer>() {
+	        @Override
+	        public Integer call() {
+	            wake();
+	            return tablet.size();
+	        }
+	    });
+	}
+
+	/**
+	 * Reads the size of the room's Tablet without waking the room
+	 * @return - the number of lines and the bytes of text written to the room, or null if the room is hibernated
+	 */
+	long[] getTabletStats() {
+	    return mailbox.call(new Callable<long[]>() {
+	        @Override
+	        public long[] call() {
+	            if (tablet == null) {
+	                return null;
+	            }
+	            return new long[] { tablet.size(), tablet.getTextBytes() };
+	        }
+	    });
+	}
+
+	/**
+	 * @return - the number of commands waiting on the room's mailbox
+	 */
+	int getMailboxDepth() {
+	    return mailbox.getDepth();
+	}
+
+	/**
+	 * @return - true if the room is hibernated, ie. its Tablet and guestList are on disk
+	 */
+	public boolean isHibernated() {
+	    return mailbox.call(new Callable<Boolean>() {
+	        @Override
+	        public Boolean call() {
+	            return hibernateFile != null;
+	        }
+	    });
+	}
+
+	/**
+	 * Writes the room to a server snapshot: its number, the ids of its members, the ids of its guests and
+	 * its Tablet (see Tablet.writeTo). Only copying the members and guests waits on the mailbox; the lines
+	 * are written afterwards, while the room carries on, up to the last line written before the copy.
+	 * @param out - requires out not null
+	 * @return - false, writing nothing, if the room has closed
+	 * @throws IOException if out throws, or if the room is hibernated and cannot be read back
+	 */
+	boolean writeSnapshot(DataOutputStream out) throws IOException {
+	    SnapshotState state;
+	    try {
+	        state = mailbox.call(new Callable<SnapshotState>() {
+	            @Override
+	            public SnapshotState call() {
+	                if (closed) {
+	                    return null;
+	                }
+	                wake();
+	                return new SnapshotState(listeners.keys(), guestList.toArray(), tablet, tablet.size());
+	            }
+	        });
+	    } catch (RoomUnavailableException e) {
+	        throw new IOException(e.getMessage());
+	    }
+	    if (state == null) {
+	        return false;
+	    }
+	    out.writeInt(roomid);
+	    writeIds(out, state.members);
+	    writeIds(out, state.guests);
+	    state.tablet.writeTo(out, state.lines);
+	    return true;
+	}
+
+	private static void writeIds(DataOutputStream out, int[] users) throws IOException {
+	    out.writeInt(users.length);
+	    for (int user : users) {
+	        out.writeInt(user);
+	    }
+	}
+
+	/**
+	 * Immutable datatype holding what writeSnapshot copies from the room on its mailbox
 	 */
-	public synchronized boolean isInvited(String username) {
-	    return guestList.contains(username) && username != null;
+	private static class SnapshotState {
+	    private final int[] members; // member ids
+	    private final int[] guests; // guest ids
+	    private final Tablet tablet;
+	    private final int lines; // number of lines of the tablet to write
+
+	    public SnapshotState(int[] members, int[] guests, Tablet tablet, int lines) {
+	        this.members = members;
+	        this.guests = guests;
+	        this.tablet = tablet;
+	        this.lines = lines;
+	    }
+	}
+
+	/**
+	 * Hibernates the room if it has had no traffic for the configured time, no typing changes are
+	 * waiting to be broadcast and it is not hibernated already. Called by the server's periodic sweep;
+	 * returns without waiting on the mailbox.
+	 * @param now - the current System.currentTimeMillis()
+	 */
+	void hibernateIfIdle(final long now) {
+	    final long after = server.getConfig().getHibernateAfterMillis();
+	    if (after <= 0 || now - lastActive < after) {
+	        return;
+	    }
+	    mailbox.post(new Runnable() {
+	        @Override
+	        public void run() {
+	            if (!closed && hibernateFile == null && pendingTyping.isEmpty()
+	                    && now - lastActive >= after) {
+	                hibernate();
+	            }
+	        }
+	    });
+	}
+
+	/**
+	 * Writes the Tablet and guestList to a new file in the configured directory, then drops them and the
+	 * change log. If the file cannot be written the room stays in memory.
+	 * Must only be called from a command running on the mailbox
+	 */
+	private void hibernate() {
+	    File file = null;
+	    try {
+	        file = File.createTempFile("room" + roomid + "-", ".hib", new File(server.getConfig().getHibernateDir()));
+	        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	        try {
+	            int[] guests = guestList.toArray();
+	            out.writeInt(guests.length);
+	            for (int guest : guests) {
+	                out.writeInt(guest);
+	            }
+	            tablet.writeTo(out);
+	        } finally {
+	            out.close();
+	        }
+	    } catch (IOException e) {
+	        e.printStackTrace();
+	        if (file != null) {
+	            file.delete();
+	        }
+	        return;
+	    }
+	    tablet.release();
+	    tablet = null;
+	    guestList = null;
+	    changes.clear();
+	    hibernateFile = file;
+	}
+
+	/**
+	 * Reads back the Tablet and guestList of a hibernated room and deletes the file. No effect if the room
+	 * is not hibernated. If the file cannot be read, the room stays hibernated and keeps the file, so nothing
+	 * is lost, and the command that needed the room fails.
+	 * Must only be called from a command running on the mailbox
+	 * @throws RoomUnavailableException if the file cannot be read
+	 */
+	private void wake() {
+	    if (hibernateFile == null) {
+	        return;
+	    }
+	    IntSet guests = new IntSet();
+	    Tablet lines;
+	    try {
+	        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(hibernateFile)));
+	        try {
+	            int count = in.readInt();
+	            for (int i = 0; i < count; i++) {
+	                guests.add(in.readInt());
+	            }
+	            lines = Tablet.readFrom(in, server.getConfig());
+	        } finally {
+	            in.close();
+	        }
+	    } catch (IOException e) {
+	        wakeFailures.increment();
+	        throw new RoomUnavailableException("ERROR: cannot read back room " + roomid + " from "
+	                + hibernateFile + ": " + e.getMessage());
+	    }
+	    hibernateFile.delete();
+	    hibernateFile = null;
+	    guestList = guests;
+	    tablet = lines;
+	}
+
+	/**
+	 * Deletes the hibernation file of the room, if it is hibernated, dropping the lines and guests in it.
+	 * Called when the server is killed, so no file outlives it; the room carries on empty if it is used again.
+	 */
+	void discardHibernation() {
+	    mailbox.call(new Callable<Void>() {
+	        @Override
+	        public Void call() {
+	            if (hibernateFile != null) {
+	                hibernateFile.delete();
+	                hibernateFile = null;
+	                guestList = new IntSet();
+	                tablet = new Tablet(server.getConfig());
+	            }
+	            return null;
+	        }
+	    });
+	}
+
+	/**
+	 * Thrown by a command that needs the Tablet or guestList of a hibernated room when they cannot be read
+	 * back from its file. The room stays hibernated, so a later command may try again.
+	 */
+	@SuppressWarnings("serial")
+	public static class RoomUnavailableException extends RuntimeException {
+	    public RoomUnavailableException(String message) {
+	        super(message);
+	    }
 	}
 }
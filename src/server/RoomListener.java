@@ -5,14 +5,19 @@ package server;
  * Whenever there is a client --> server message that affects the entire room
  * the RoomListener is used to send a server --> client message back to everyone
  * who is in the room.
+ * Users are given by the id the server's UsernameTable gave their username; the listener turns the id
+ * back into the name when it writes the server --> client message.
  */
 public interface RoomListener {
     
-    public void notifySay(String user,String said, int roomno);
-    public void notifyUserEnteredRoom(String user, int roomno);
-    public void notifyUserLeftRoom(String user, int roomno);
-    public void notifyUserTyping(String user, int roomno);
-    public void notifyUserEnteredText(String user, int roomno);
-    public void notifyUserIdle(String user, int roomno);
+    public void notifySay(int user,String said, int roomno);
+    public void notifyTracedSay(int user, String said, int roomno, MessageTrace trace);
+    public void notifyUserEnteredRoom(int user, int roomno);
+    public void notifyUserLeftRoom(int user, int roomno);
+    public void notifyUserTyping(int user, int roomno);
+    public void notifyUserEnteredText(int user, int roomno);
+    public void notifyUserIdle(int user, int roomno);
+    public void notifyTypingStates(String states, int roomno);
+    public void notifyTypingSummary(int typing, int enteredText, int roomno);
     
 }
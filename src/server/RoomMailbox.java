@@ -0,0 +1,130 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serial mailbox for a single Room.
+ * Commands posted to the mailbox are run one at a time, in the order they were posted, on a
+ * shared Executor, or on the posting thread once that Executor has been shut down. At most one worker thread drains a given mailbox at any time, so the state
+ * of the Room that owns the mailbox is only ever touched by one thread at a time, without the Room
+ * holding a lock while it calls back into the RoomListeners.
+ *
+ * Threadsafe argument:
+ * The queue is a ConcurrentLinkedQueue, and the scheduled flag is an AtomicBoolean that guarantees
+ * that the mailbox is submitted to the executor at most once until it has finished draining.
+ */
+class RoomMailbox implements Runnable {
+
+    private static final int BATCH_SIZE = 64; // commands run per turn before yielding the worker thread to other rooms
+
+    private final Executor executor;
+    private final Queue<Runnable> queue;
+    private final AtomicBoolean scheduled;
+    private volatile Thread runner; // the worker thread currently draining this mailbox, null if none
+
+    /**
+     * Creates a new, empty mailbox
+     * @param executor - the executor that runs the mailbox. Requires executor not null
+     * @throws IllegalArgumentException if executor is null
+     */
+    public RoomMailbox(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("ERROR: Cannot create mailbox with null executor");
+        }
+        this.executor = executor;
+        this.queue = new ConcurrentLinkedQueue<Runnable>();
+        this.scheduled = new AtomicBoolean(false);
+    }
+
+    /**
+     * Posts a command to the mailbox without waiting for it to run
+     * @param command - requires command not null, else no effect
+     */
+    public void post(Runnable command) {
+        if (command == null) {
+            return;
+        }
+        queue.add(command);
+        schedule();
+    }
+
+    /**
+     * Posts a command to the mailbox and blocks until it has run.
+     * If called from the thread that is currently draining this mailbox, the command is run immediately
+     * @param command - requires command not null
+     * @return - the value returned by the command
+     * @throws IllegalStateException if the calling thread is interrupted while waiting
+     */
+    public <T> T call(Callable<T> command) {
+        FutureTask<T> task = new FutureTask<T>(command);
+        if (Thread.currentThread() == runner) {
+            task.run();
+        }
+        else {
+            post(task);
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("ERROR: Interrupted while waiting on room mailbox");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return - the number of commands waiting to run. Counts the queue, so it is for reports, not hot paths
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Drains up to BATCH_SIZE commands, then gives the worker thread back to the executor,
+     * rescheduling itself if more commands are waiting.
+     */
+    @Override
+    public void run() {
+        runner = Thread.currentThread();
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable command = queue.poll();
+                if (command == null) {
+                    break;
+                }
+                try {
+                    command.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            runner = null;
+            scheduled.set(false);
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                run();  // the executor has been shut down, with its server: drain on the posting thread
+            }
+        }
+    }
+}
@@ -0,0 +1,774 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import metrics.Counter;
+import metrics.MetricsRegistry;
+import util.ConcurrentIntMap;
+
+/**
+ * Durable store of the server's rooms, their members and guests, the room counter and the registered
+ * users, kept in a single directory as a snapshot plus a write-ahead log:
+ * Every createRoom, join, leave, invite, decline and register is appended to the log (the file wal) as
+ * one record before the store's in-memory registry is updated. The appending thread, usually a Room's
+ * mailbox, only copies the record into the log's buffer; the store's log thread flushes the buffer to the
+ * file, so records appended while a flush runs go out together in the next one.
+ *
+ * Durability: unless ServerConfig.isStoreSync() is turned off, each flush forces the log to the disk
+ * (FileChannel.force), and a rotated log and a snapshot are forced before they are renamed. A record is durable
+ * once the flush that follows it has returned, so a crash of the server or of the machine, or a power failure,
+ * loses at most the records appended since the last flush started, and always leaves a complete snapshot. The
+ * renames themselves are only as durable as the file system's metadata, which Java cannot force: after a power
+ * failure a rename may be undone, in which case the rotated records are found again in wal and replayed.
+ * With storeSync off, the flushes go only to the OS, which survives a crash of the server but not of the
+ * machine: records written in the last few seconds before a power failure may be lost, and a snapshot may be
+ * found truncated, in which case recovery fails rather than guessing.
+ * Once the log holds ServerConfig.getWalSnapshotRecords() records, it is rotated: renamed to wal-N, where N is
+ * the sequence number of its last record, and a new, empty wal is started. A copy of the registry is then
+ * written to the file snapshot by the store's snapshot thread, which deletes the rotated logs the snapshot
+ * covers once it is written, so recovery never replays more than about that many records. A snapshot that
+ * fails is counted in store.snapshotFailures and its rotated logs are kept, to be replayed or covered by the
+ * next snapshot.
+ *
+ * Each log record is framed as its length, the CRC32 of its body, and the body: type, sequence number,
+ * room number and username (and the password of a register). Recovery reads the snapshot, then the rotated
+ * logs in order and the log, each up to its first incomplete or corrupt record (the tail of a crashed write),
+ * which it truncates away. Records numbered at or below the snapshot's sequence number are skipped, so a
+ * crash between writing a snapshot and deleting the rotated logs replays nothing twice. Records are then applied in parallel, one task
+ * per group of rooms, so the records of each room are applied in order.
+ *
+ * A room's members and guests are only turned into a Room when the room is first asked for, see
+ * ChatServer.getRoom.
+ *
+ * Threadsafe argument:
+ * After recovery, every method that reads or writes the registry or the log is synchronized on the store,
+ * including the flushes made by the log thread. The snapshot thread writes an immutable copy of the registry
+ * taken under the lock, and is the only thread that writes the snapshot or deletes rotated logs; snapshots
+ * run one at a time, in the order they were asked for. During recovery the registry is only written by the recovery tasks, each of which owns a
+ * distinct set of rooms, and the ConcurrentIntMap of rooms is safe for their concurrent puts; the store is
+ * not published until every task has finished.
+ */
+class RoomStore {
+
+    private static final int FORMAT = 2;   // written first in the snapshot, bumped if the format changes
+
+    private static final byte CREATE = 1;
+    private static final byte JOIN = 2;
+    private static final byte LEAVE = 3;
+    private static final byte INVITE = 4;
+    private static final byte DECLINE = 5;
+    private static final byte REGISTER = 6;
+
+    private final File dir;
+    private final ServerConfig config;
+    private final ConcurrentIntMap<RoomRecord> rooms;   // room number to stored members and guests
+    private final Map<String, String> registrations;    // username to password, in registration order
+    private int nextRoomNumber;
+    private long sequence;          // sequence number of the last record appended or recovered
+    private long snapshotSequence;  // sequence number of the last record included in the snapshot
+    private int recordsSinceSnapshot;
+    private DataOutputStream log;
+    private FileChannel logChannel;     // the channel of the file log writes to, forced after each flush
+    private final ByteArrayOutputStream recordBytes;    // reused to build each record before framing it
+    private final DataOutputStream record;
+    private final CRC32 crc;
+    private final ExecutorService logThread;       // flushes the log
+    private final ExecutorService snapshotThread;  // writes snapshots, one at a time
+    private final Runnable flush;
+    private boolean flushScheduled;     // true while a flush is waiting on the log thread
+    private int pendingSnapshots;       // snapshots rotated but not yet written
+    private boolean closing;            // true once close has been called, no more snapshots are started
+    private boolean closed;
+    private final Counter snapshots;
+    private final Counter snapshotFailures;
+    private final Counter logFailures;
+
+    /**
+     * Opens the store in a directory, creating the directory if needed, and recovers its contents
+     * @param dir - requires dir not null
+     * @param config - requires config not null
+     * @param metrics - requires metrics not null, where snapshots and failures to write are counted
+     * @throws IOException if the directory cannot be created, or the snapshot or log cannot be read
+     */
+    public RoomStore(File dir, ServerConfig config, MetricsRegistry metrics) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("ERROR: cannot create room directory " + dir);
+        }
+        this.dir = dir;
+        this.config = config;
+        rooms = new ConcurrentIntMap<RoomRecord>();
+        registrations = new LinkedHashMap<String, String>();
+        nextRoomNumber = 0;
+        sequence = 0;
+        snapshotSequence = 0;
+        recordBytes = new ByteArrayOutputStream(64);
+        record = new DataOutputStream(recordBytes);
+        crc = new CRC32();
+        snapshots = metrics.counter("store.snapshots");
+        snapshotFailures = metrics.counter("store.snapshotFailures");
+        logFailures = metrics.counter("store.logFailures");
+        readSnapshot();
+        recordsSinceSnapshot = replayLog();
+        openLog();
+        logThread = Executors.newSingleThreadExecutor(daemon("room-store-log"));
+        snapshotThread = Executors.newSingleThreadExecutor(daemon("room-store-snapshot"));
+        flushScheduled = false;
+        pendingSnapshots = 0;
+        closing = false;
+        closed = false;
+        flush = new Runnable() {
+            @Override
+            public void run() {
+                FileChannel written;
+                synchronized (RoomStore.this) {
+                    flushScheduled = false;
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        log.flush();
+                    } catch (IOException e) {
+                        logFailures.increment();
+                        e.printStackTrace();
+                        return;
+                    }
+                    written = logChannel;
+                }
+                try {   // outside the lock, so records appended meanwhile go out in the next flush
+                    sync(written);
+                } catch (ClosedChannelException e) {
+                    // rotated or closed meanwhile, which forced it first
+                } catch (IOException e) {
+                    logFailures.increment();
+                    e.printStackTrace();
+                }
+            }
+        };
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    /**
+     * @return - the next room number to hand out
+     */
+    public synchronized int getNextRoomNumber() {
+        return nextRoomNumber;
+    }
+
+    /**
+     * @return - a copy of every registered username and its password
+     */
+    public synchronized Map<String, String> getRegistrations() {
+        return new LinkedHashMap<String, String>(registrations);
+    }
+
+    /**
+     * @return - the number of records in the log since it was last rotated for a snapshot
+     */
+    public synchronized int getLogRecords() {
+        return recordsSinceSnapshot;
+    }
+
+    /**
+     * Records that a room was created
+     * @param roomno - requires roomno >= 0
+     * @param creator - requires creator not null, the username of the room's first member
+     */
+    public synchronized void logCreate(int roomno, String creator) {
+        append(CREATE, roomno, creator, null);
+    }
+
+    /**
+     * Records that a guest joined a room
+     * @param roomno - requires roomno >= 0
+     * @param username - requires username not null
+     */
+    public synchronized void logJoin(int roomno, String username) {
+        append(JOIN, roomno, username, null);
+    }
+
+    /**
+     * Records that a member left a room
+     * @param roomno - requires roomno >= 0
+     * @param username - requires username not null
+     */
+    public synchronized void logLeave(int roomno, String username) {
+        append(LEAVE, roomno, username, null);
+    }
+
+    /**
+     * Records that a user was invited to a room
+     * @param roomno - requires roomno >= 0
+     * @param username - requires username not null
+     */
+    public synchronized void logInvite(int roomno, String username) {
+        append(INVITE, roomno, username, null);
+    }
+
+    /**
+     * Records that a guest declined an invitation to a room
+     * @param roomno - requires roomno >= 0
+     * @param username - requires username not null
+     */
+    public synchronized void logDecline(int roomno, String username) {
+        append(DECLINE, roomno, username, null);
+    }
+
+    /**
+     * Records that a user registered
+     * @param username - requires username not null
+     * @param pass - requires pass not null
+     */
+    public synchronized void logRegister(String username, String pass) {
+        append(REGISTER, -1, username, pass);
+    }
+
+    /**
+     * Reads back a stored room
+     * @param roomno - any int
+     * @return - {members, guests} of the room, or null if no room is stored as roomno
+     */
+    public synchronized String[][] load(int roomno) {
+        RoomRecord room = rooms.get(roomno);
+        if (room == null) {
+            return null;
+        }
+        return new String[][] { room.members.toArray(new String[room.members.size()]),
+                room.guests.toArray(new String[room.guests.size()]) };
+    }
+
+    /**
+     * Rotates the log and writes the whole registry to the snapshot now, after any snapshot already waiting.
+     * Blocks until it is written
+     * @throws IOException if the log cannot be rotated or the snapshot cannot be written, in which case the
+     * logs it would have covered are kept
+     */
+    public void snapshot() throws IOException {
+        Future<Void> written;
+        synchronized (this) {
+            if (closing) {
+                throw new IOException("ERROR: room store is closed");
+            }
+            written = snapshotThread.submit(rotate());
+        }
+        try {
+            written.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("ERROR: interrupted while writing the room snapshot");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("ERROR: cannot write the room snapshot: " + e.getCause());
+        }
+    }
+
+    /**
+     * Waits for the snapshots already asked for, then flushes and closes the log. The store must not be
+     * used afterwards
+     */
+    public void close() {
+        synchronized (this) {
+            closing = true;
+        }
+        snapshotThread.shutdown();
+        try {
+            snapshotThread.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                log.flush();
+                sync(logChannel);
+                log.close();
+            } catch (IOException e) {
+                logFailures.increment();
+                e.printStackTrace();
+            }
+        }
+        logThread.shutdown();
+    }
+
+    /**
+     * Appends a record to the log's buffer, to be flushed by the log thread, and applies it to the registry.
+     * A record that cannot be written is reported on stderr and counted, and is still applied so the running
+     * server stays consistent. Starts a snapshot on the snapshot thread once the log is long enough, unless
+     * one is still being written.
+     */
+    private void append(byte type, int roomno, String username, String pass) {
+        sequence++;
+        try {
+            recordBytes.reset();
+            record.writeByte(type);
+            record.writeLong(sequence);
+            record.writeInt(roomno);
+            record.writeUTF(username);
+            if (type == REGISTER) {
+                record.writeUTF(pass);
+            }
+            crc.reset();
+            crc.update(recordBytes.toByteArray(), 0, recordBytes.size());
+            log.writeInt(recordBytes.size());
+            log.writeInt((int) crc.getValue());
+            recordBytes.writeTo(log);
+        } catch (IOException e) {
+            logFailures.increment();
+            e.printStackTrace();
+        }
+        if (!flushScheduled && !closed) {
+            flushScheduled = true;
+            logThread.execute(flush);
+        }
+        if (type == REGISTER) {
+            registrations.put(username, pass);
+        } else {
+            if (type == CREATE) {
+                nextRoomNumber = Math.max(nextRoomNumber, roomno + 1);
+            }
+            apply(rooms, type, roomno, username);
+        }
+        if (++recordsSinceSnapshot >= config.getWalSnapshotRecords() && pendingSnapshots == 0 && !closing) {
+            try {
+                snapshotThread.submit(rotate());
+            } catch (IOException e) {
+                snapshotFailures.increment();
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Renames the log to wal-N, N being the sequence number of its last record, starts a new, empty log and
+     * copies the registry for the snapshot that will cover the renamed log. Must hold the store's lock
+     * @return - the task that writes the snapshot and deletes the rotated logs it covers
+     * @throws IOException if the log cannot be forced or renamed, in which case records go on being appended to it
+     */
+    private Callable<Void> rotate() throws IOException {
+        File wal = new File(dir, "wal");
+        File segment = new File(dir, "wal-" + sequence);
+        if (!segment.exists()) {    // else nothing was appended since the last rotation
+            try {
+                try {
+                    log.flush();
+                    sync(logChannel);
+                } finally {
+                    log.close();
+                }
+                replace(wal, segment);
+            } finally {
+                openLog();
+            }
+        }
+        recordsSinceSnapshot = 0;
+        pendingSnapshots++;
+        final long covered = sequence;
+        final int next = nextRoomNumber;
+        final Map<String, String> registered = new LinkedHashMap<String, String>(registrations);
+        final Map<Integer, RoomRecord> copy = new LinkedHashMap<Integer, RoomRecord>();
+        for (int roomno : rooms.keys()) {
+            RoomRecord room = rooms.get(roomno);
+            RoomRecord copied = new RoomRecord();
+            copied.members.addAll(room.members);
+            copied.guests.addAll(room.guests);
+            copy.put(roomno, copied);
+        }
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                try {
+                    writeSnapshot(covered, next, registered, copy);
+                    snapshots.increment();
+                } catch (IOException e) {
+                    snapshotFailures.increment();
+                    e.printStackTrace();
+                    throw e;
+                } finally {
+                    synchronized (RoomStore.this) {
+                        pendingSnapshots--;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Writes a copy of the registry to the snapshot, then deletes the rotated logs it covers.
+     * Only called on the snapshot thread
+     * @param covered - the sequence number of the last record in the copy
+     */
+    private void writeSnapshot(long covered, int next, Map<String, String> registered,
+            Map<Integer, RoomRecord> copy) throws IOException {
+        File tmp = new File(dir, "snapshot.tmp");
+        FileOutputStream file = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+        try {
+            out.writeInt(FORMAT);
+            out.writeLong(covered);
+            out.writeInt(next);
+            out.writeInt(registered.size());
+            for (Map.Entry<String, String> registration : registered.entrySet()) {
+                out.writeUTF(registration.getKey());
+                out.writeUTF(registration.getValue());
+            }
+            out.writeInt(copy.size());
+            for (Map.Entry<Integer, RoomRecord> room : copy.entrySet()) {
+                out.writeInt(room.getKey());
+                writeNames(out, room.getValue().members);
+                writeNames(out, room.getValue().guests);
+            }
+            out.flush();
+            sync(file.getChannel());
+        } finally {
+            out.close();
+        }
+        replace(tmp, new File(dir, "snapshot"));
+        for (File segment : rotatedLogs()) {
+            if (segmentSequence(segment) <= covered) {
+                segment.delete();
+            }
+        }
+    }
+
+    /**
+     * Opens the log for appending, at the end of the file wal. Must hold the store's lock, or be recovering
+     */
+    private void openLog() throws IOException {
+        FileOutputStream file = new FileOutputStream(new File(dir, "wal"), true);
+        logChannel = file.getChannel();
+        log = new DataOutputStream(new BufferedOutputStream(file));
+    }
+
+    /**
+     * Forces what was written to a file's channel to the disk, unless ServerConfig.isStoreSync() is off
+     */
+    private void sync(FileChannel channel) throws IOException {
+        if (config.isStoreSync()) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * @return - the rotated logs in the store's directory, oldest first
+     */
+    private List<File> rotatedLogs() {
+        List<File> segments = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().matches("wal-\\d+")) {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = segmentSequence(a);
+                long y = segmentSequence(b);
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * @return - the sequence number of the last record of a rotated log, as given by its name
+     */
+    private static long segmentSequence(File segment) {
+        return Long.parseLong(segment.getName().substring("wal-".length()));
+    }
+
+    /**
+     * Applies a room record to a registry
+     */
+    private static void apply(ConcurrentIntMap<RoomRecord> rooms, byte type, int roomno, String username) {
+        RoomRecord room = rooms.get(roomno);
+        if (type == CREATE) {
+            room = new RoomRecord();
+            room.members.add(username);
+            rooms.put(roomno, room);
+            return;
+        }
+        if (room == null) {
+            if (type != INVITE) {
+                return;
+            }
+            room = new RoomRecord();
+            rooms.put(roomno, room);
+        }
+        switch (type) {
+            case JOIN:
+                room.guests.remove(username);
+                room.members.add(username);
+                break;
+            case LEAVE:
+                room.members.remove(username);
+                break;
+            case INVITE:
+                room.guests.add(username);
+                break;
+            case DECLINE:
+                room.guests.remove(username);
+                break;
+            default:
+                break;
+        }
+        if (room.members.isEmpty() && room.guests.isEmpty()) {  // nobody could ever join it again
+            rooms.remove(roomno);
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        File file = new File(dir, "snapshot");
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FORMAT) {
+                throw new IOException("ERROR: " + file + " is not a room snapshot");
+            }
+            snapshotSequence = in.readLong();
+            sequence = snapshotSequence;
+            nextRoomNumber = in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String username = in.readUTF();
+                registrations.put(username, in.readUTF());
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int roomno = in.readInt();
+                RoomRecord room = new RoomRecord();
+                readNames(in, room.members);
+                readNames(in, room.guests);
+                rooms.put(roomno, room);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the rotated logs not covered by the snapshot, oldest first, then the log, truncates any incomplete
+     * or corrupt tail, and applies the records after the snapshot. Rotated logs the snapshot covers are deleted
+     * @return - the number of records in the logs
+     */
+    private int replayLog() throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (File segment : rotatedLogs()) {
+            if (segmentSequence(segment) <= snapshotSequence) {
+                segment.delete();   // the snapshot was written, but the log not yet deleted
+            } else {
+                files.add(segment);
+            }
+        }
+        File wal = new File(dir, "wal");
+        if (wal.exists()) {
+            files.add(wal);
+        }
+        int partitions = Runtime.getRuntime().availableProcessors();
+        final List<List<Record>> byRoom = new ArrayList<List<Record>>();
+        for (int i = 0; i < partitions; i++) {
+            byRoom.add(new ArrayList<Record>());
+        }
+        int records = 0;
+        for (File file : files) {
+            records += readLog(file, byRoom);
+        }
+        applyRecords(byRoom);
+        return records;
+    }
+
+    /**
+     * Reads a log up to its first incomplete or corrupt record, truncating it there, and sorts the records
+     * after the snapshot into partitions by room, applying registrations at once
+     * @return - the number of records in the log
+     */
+    private int readLog(File file, List<List<Record>> byRoom) throws IOException {
+        int partitions = byRoom.size();
+        int records = 0;
+        long valid = 0;     // length of the log up to the end of the last good record
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] body = new byte[64];
+            CRC32 check = new CRC32();
+            while (true) {
+                int length;
+                int sum;
+                try {
+                    length = in.readInt();
+                    sum = in.readInt();
+                    if (length < 0 || length > 1 << 20) {
+                        break;
+                    }
+                    if (length > body.length) {
+                        body = new byte[length];
+                    }
+                    in.readFully(body, 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                check.reset();
+                check.update(body, 0, length);
+                if ((int) check.getValue() != sum) {
+                    break;
+                }
+                valid += 8 + length;
+                records++;
+                DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body, 0, length));
+                Record r = new Record(fields.readByte(), fields.readLong(), fields.readInt(), fields.readUTF());
+                if (r.sequence <= snapshotSequence) {
+                    continue;
+                }
+                sequence = Math.max(sequence, r.sequence);
+                if (r.type == REGISTER) {
+                    registrations.put(r.username, fields.readUTF());
+                } else {
+                    if (r.type == CREATE) {
+                        nextRoomNumber = Math.max(nextRoomNumber, r.roomno + 1);
+                    }
+                    byRoom.get(r.roomno % partitions).add(r);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        if (valid < file.length()) {
+            RandomAccessFile truncate = new RandomAccessFile(file, "rw");
+            try {
+                truncate.setLength(valid);
+            } finally {
+                truncate.close();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Applies the records of each partition in parallel, one task per partition
+     */
+    private void applyRecords(List<List<Record>> byRoom) throws IOException {
+        int partitions = byRoom.size();
+        ExecutorService pool = Executors.newFixedThreadPool(partitions);
+        try {
+            List<Future<Void>> done = new ArrayList<Future<Void>>();
+            for (final List<Record> partition : byRoom) {
+                done.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (Record r : partition) {
+                            apply(rooms, r.type, r.roomno, r.username);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("ERROR: interrupted while recovering rooms");
+        } catch (ExecutionException e) {
+            throw new IOException("ERROR: cannot recover rooms: " + e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, Set<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static void readNames(DataInputStream in, Set<String> names) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("ERROR: corrupt room snapshot");
+        }
+        for (int i = 0; i < count; i++) {
+            names.add(in.readUTF());
+        }
+    }
+
+    private static void replace(File tmp, File file) throws IOException {
+        if (!tmp.renameTo(file)) {
+            file.delete();  // some platforms will not rename over an existing file
+            if (!tmp.renameTo(file)) {
+                throw new IOException("ERROR: cannot replace " + file);
+            }
+        }
+    }
+
+    /**
+     * The stored members and guests of a room
+     */
+    private static class RoomRecord {
+        private final Set<String> members = new LinkedHashSet<String>();
+        private final Set<String> guests = new LinkedHashSet<String>();
+    }
+
+    /**
+     * Immutable datatype representing a room record read back from the log
+     */
+    private static class Record {
+        private final byte type;
+        private final long sequence;
+        private final int roomno;
+        private final String username;
+
+        public Record(byte type, long sequence, int roomno, String username) {
+            this.type = type;
+            this.sequence = sequence;
+            this.roomno = roomno;
+            this.username = username;
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package server;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tunable settings of a ChatServer.
+ * Every setting starts from a system property (eg. -Dchat.typingWindowMs=250 on the java command line),
+ * falling back to a default, and may be changed at runtime through its setter. Settings without a setter are
+ * only read when the ChatServer starts.
+ *
+ * Threadsafe argument:
+ * Every field is final or volatile and is read and written independently, so a change made by one thread is
+ * seen by the next read from any other thread. The set of admins is never modified, only replaced.
+ */
+public class ServerConfig {
+
+    private volatile int typingWindowMillis;
+    private volatile int typingSummaryThreshold;
+    private volatile boolean tabletOffHeap;
+    private volatile long tabletOffHeapCapacity;
+    private volatile long hibernateAfterMillis;
+    private volatile String hibernateDir;
+    private final String userFile;
+    private final String roomDir;
+    private volatile int walSnapshotRecords;
+    private volatile boolean storeSync;
+    private volatile String snapshotFile;
+    private final boolean restoreSnapshot;
+    private volatile Set<String> admins;
+    private volatile long inviteTtlMillis;
+    private volatile long sessionIdleTimeoutMillis;
+    private volatile long pingIntervalMillis;
+    private volatile long pongTimeoutMillis;
+    private volatile int sessionQueueLimit;
+    private volatile RateLimit sessionLimit;
+    private volatile RateLimit sayLimit;
+    private volatile RateLimit createLimit;
+    private volatile RateLimit inviteLimit;
+    private volatile RateLimit typingLimit;
+    private volatile long overloadShedLagMillis;
+    private volatile long overloadRefuseLagMillis;
+    private final int metricsPort;
+    private final String metricsHost;
+    private volatile long metricsSnapshotMillis;
+    private volatile boolean traceMessages;
+    private volatile int traceSampleRate;
+
+    /**
+     * Creates a new ServerConfig from the system properties
+     */
+    public ServerConfig() {
+        typingWindowMillis = Integer.getInteger("chat.typingWindowMs", 100);
+        typingSummaryThreshold = Integer.getInteger("chat.typingSummaryThreshold", 50);
+        tabletOffHeap = Boolean.getBoolean("chat.tabletOffHeap");
+        tabletOffHeapCapacity = Long.getLong("chat.tabletOffHeapCapacity", 256L * 1024 * 1024);
+        hibernateAfterMillis = Long.getLong("chat.hibernateAfterMs", 0);
+        hibernateDir = System.getProperty("chat.hibernateDir", System.getProperty("java.io.tmpdir"));
+        userFile = System.getProperty("chat.userFile", "src/server/userfile");
+        roomDir = System.getProperty("chat.roomDir");
+        walSnapshotRecords = Integer.getInteger("chat.walSnapshotRecords", 10000);
+        storeSync = Boolean.parseBoolean(System.getProperty("chat.storeSync", "true"));
+        snapshotFile = System.getProperty("chat.snapshotFile", "chat.snapshot");
+        restoreSnapshot = Boolean.getBoolean("chat.restoreSnapshot");
+        setAdmins(System.getProperty("chat.admins", ""));
+        inviteTtlMillis = Long.getLong("chat.inviteTtlMs", 24L * 60 * 60 * 1000);
+        sessionIdleTimeoutMillis = Long.getLong("chat.sessionIdleTimeoutMs", 0);
+        pingIntervalMillis = Long.getLong("chat.pingIntervalMs", 15000);
+        pongTimeoutMillis = Long.getLong("chat.pongTimeoutMs", 10000);
+        sessionQueueLimit = Integer.getInteger("chat.sessionQueueLimit", 10000);
+        sessionLimit = rateLimit("chat.sessionLimit", "0");
+        sayLimit = rateLimit("chat.sayLimit", "0");
+        createLimit = rateLimit("chat.createLimit", "0");
+        inviteLimit = rateLimit("chat.inviteLimit", "0");
+        typingLimit = rateLimit("chat.typingLimit", "0");
+        overloadShedLagMillis = Long.getLong("chat.overloadShedLagMs", 200);
+        overloadRefuseLagMillis = Long.getLong("chat.overloadRefuseLagMs", 1000);
+        metricsPort = Integer.getInteger("chat.metricsPort", 0);
+        metricsHost = System.getProperty("chat.metricsHost", "127.0.0.1");
+        metricsSnapshotMillis = Long.getLong("chat.metricsSnapshotMs", 1000);
+        traceMessages = Boolean.getBoolean("chat.traceMessages");
+        traceSampleRate = Integer.getInteger("chat.traceSampleRate", 100);
+    }
+
+    /**
+     * @return - the length of the window over which typing changes in a room are collected before
+     * they are broadcast, in milliseconds. 0 means broadcast as soon as the change is made
+     */
+    public int getTypingWindowMillis() {
+        return typingWindowMillis;
+    }
+
+    /**
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setTypingWindowMillis(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Typing window cannot be negative.");
+        }
+        typingWindowMillis = millis;
+    }
+
+    /**
+     * @return - the largest room, by member count, whose members are told the typing status of each user.
+     * Members of larger rooms are only told how many users are typing
+     */
+    public int getTypingSummaryThreshold() {
+        return typingSummaryThreshold;
+    }
+
+    /**
+     * @param members - requires members >= 0
+     * @throws IllegalArgumentException if members < 0
+     */
+    public void setTypingSummaryThreshold(int members) {
+        if (members < 0) {
+            throw new IllegalArgumentException("ERROR: Typing summary threshold cannot be negative.");
+        }
+        typingSummaryThreshold = members;
+    }
+
+    /**
+     * @return - true if new rooms keep the text of their Tablet in direct (off-heap) memory
+     */
+    public boolean isTabletOffHeap() {
+        return tabletOffHeap;
+    }
+
+    /**
+     * Sets whether rooms created from now on keep the text of their Tablet off-heap
+     * @param offHeap - true to use direct memory, false to use the heap
+     */
+    public void setTabletOffHeap(boolean offHeap) {
+        tabletOffHeap = offHeap;
+    }
+
+    /**
+     * @return - the most direct memory, in bytes, that Tablets may use in total. Once it is used up,
+     * Tablets store new lines on the heap
+     */
+    public long getTabletOffHeapCapacity() {
+        return tabletOffHeapCapacity;
+    }
+
+    /**
+     * @param bytes - requires bytes >= 0
+     * @throws IllegalArgumentException if bytes < 0
+     */
+    public void setTabletOffHeapCapacity(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("ERROR: Tablet off-heap capacity cannot be negative.");
+        }
+        tabletOffHeapCapacity = bytes;
+    }
+
+    /**
+     * @return - how long a room must go without any join, leave, invite, write or status change before
+     * it is hibernated to disk, in milliseconds. 0 means rooms are never hibernated
+     */
+    public long getHibernateAfterMillis() {
+        return hibernateAfterMillis;
+    }
+
+    /**
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setHibernateAfterMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Hibernation delay cannot be negative.");
+        }
+        hibernateAfterMillis = millis;
+    }
+
+    /**
+     * @return - the directory hibernated rooms are written to
+     */
+    public String getHibernateDir() {
+        return hibernateDir;
+    }
+
+    /**
+     * @param dir - requires dir not null, the path of an existing, writable directory
+     * @throws IllegalArgumentException if dir is null
+     */
+    public void setHibernateDir(String dir) {
+        if (dir == null) {
+            throw new IllegalArgumentException("ERROR: Hibernation directory cannot be null.");
+        }
+        hibernateDir = dir;
+    }
+
+    /**
+     * @return - the file registered usernames and passwords are read from at startup and appended to, one
+     * "username password" line each
+     */
+    public String getUserFile() {
+        return userFile;
+    }
+
+    /**
+     * @return - the directory the durable state of the server (rooms, invites, the room counter and
+     * registrations) is logged to, or null if it is not durable and room numbers start from 0 on every start
+     */
+    public String getRoomDir() {
+        return roomDir;
+    }
+
+    /**
+     * @return - the number of records the write-ahead log may hold before the durable state is written
+     * to a snapshot and the log is emptied
+     */
+    public int getWalSnapshotRecords() {
+        return walSnapshotRecords;
+    }
+
+    /**
+     * @param records - requires records > 0
+     * @throws IllegalArgumentException if records <= 0
+     */
+    public void setWalSnapshotRecords(int records) {
+        if (records <= 0) {
+            throw new IllegalArgumentException("ERROR: Snapshot interval must be positive.");
+        }
+        walSnapshotRecords = records;
+    }
+
+    /**
+     * @return - true if the room store forces its log and snapshots to the disk before counting them written,
+     * so they survive a crash of the machine and not only of the server, see RoomStore
+     */
+    public boolean isStoreSync() {
+        return storeSync;
+    }
+
+    /**
+     * @param sync - true to force the room store's writes to the disk, false to leave them to the OS
+     */
+    public void setStoreSync(boolean sync) {
+        storeSync = sync;
+    }
+
+    /**
+     * @return - the file server snapshots are written to, and restored from
+     */
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * @param file - requires file not null, the path of the snapshot file
+     * @throws IllegalArgumentException if file is null
+     */
+    public void setSnapshotFile(String file) {
+        if (file == null) {
+            throw new IllegalArgumentException("ERROR: Snapshot file cannot be null.");
+        }
+        snapshotFile = file;
+    }
+
+    /**
+     * @return - true if the server restores its rooms from the snapshot file, if there is one, when it starts
+     */
+    public boolean isRestoreSnapshot() {
+        return restoreSnapshot;
+    }
+
+    /**
+     * @param username - any String
+     * @return - true if username is one of the administrators, who may use the privileged commands
+     */
+    public boolean isAdmin(String username) {
+        return username != null && admins.contains(username);
+    }
+
+    /**
+     * @param usernames - requires usernames not null, the usernames of the administrators separated by commas
+     * @throws IllegalArgumentException if usernames is null
+     */
+    public void setAdmins(String usernames) {
+        if (usernames == null) {
+            throw new IllegalArgumentException("ERROR: Admin list cannot be null.");
+        }
+        Set<String> set = new HashSet<String>();
+        for (String name : usernames.split(",")) {
+            if (name.trim().length() > 0) {
+                set.add(name.trim());
+            }
+        }
+        admins = Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * @return - how long an invite stays open before it expires as if it had been declined, in milliseconds.
+     * 0 means invites never expire. The guests of a room restored from the room store or a snapshot never expire
+     */
+    public long getInviteTtlMillis() {
+        return inviteTtlMillis;
+    }
+
+    /**
+     * Sets the time to live of invites made from now on
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setInviteTtlMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Invite time to live cannot be negative.");
+        }
+        inviteTtlMillis = millis;
+    }
+
+    /**
+     * @return - how long a session may go without sending a line before it is closed, in milliseconds.
+     * 0 means sessions are never closed for being idle
+     */
+    public long getSessionIdleTimeoutMillis() {
+        return sessionIdleTimeoutMillis;
+    }
+
+    /**
+     * Sets the idle timeout of sessions that connect from now on
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setSessionIdleTimeoutMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Session idle timeout cannot be negative.");
+        }
+        sessionIdleTimeoutMillis = millis;
+    }
+
+    /**
+     * @return - how long a session may be quiet before the server pings it, in milliseconds.
+     * 0 means sessions are never pinged
+     */
+    public long getPingIntervalMillis() {
+        return pingIntervalMillis;
+    }
+
+    /**
+     * Sets the ping interval of sessions that connect from now on
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setPingIntervalMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Ping interval cannot be negative.");
+        }
+        pingIntervalMillis = millis;
+    }
+
+    /**
+     * @return - how long the server waits for any line after a ping before it treats the client as dead
+     * and closes the session, in milliseconds
+     */
+    public long getPongTimeoutMillis() {
+        return pongTimeoutMillis;
+    }
+
+    /**
+     * Sets the pong timeout of sessions that connect from now on
+     * @param millis - requires millis > 0
+     * @throws IllegalArgumentException if millis <= 0
+     */
+    public void setPongTimeoutMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("ERROR: Pong timeout must be positive.");
+        }
+        pongTimeoutMillis = millis;
+    }
+
+    /**
+     * @return - the number of lines that may wait to be written to a session before the client is taken to be
+     * stuck and the session is closed
+     */
+    public int getSessionQueueLimit() {
+        return sessionQueueLimit;
+    }
+
+    /**
+     * Sets the limit on lines waiting to be written, for sessions that connect from now on
+     * @param limit - requires limit > 0
+     * @throws IllegalArgumentException if limit <= 0
+     */
+    public void setSessionQueueLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("ERROR: Session queue limit must be positive.");
+        }
+        sessionQueueLimit = limit;
+    }
+
+    /**
+     * Limits the sessions that connect from now on to the rates a public server should use, for each limit
+     * that is not given by its system property: 100 lines a second in all, in bursts of up to 200, and of those
+     * 20 says (bursts of 40), 2 creates (10), 10 invites (30) and 20 typing, enteredText and idle commands (60).
+     * Without this, a limit not given by its system property is unlimited
+     */
+    public void useRecommendedRateLimits() {
+        sessionLimit = rateLimit("chat.sessionLimit", "100/200");
+        sayLimit = rateLimit("chat.sayLimit", "20/40");
+        createLimit = rateLimit("chat.createLimit", "2/10");
+        inviteLimit = rateLimit("chat.inviteLimit", "10/30");
+        typingLimit = rateLimit("chat.typingLimit", "20/60");
+    }
+
+    /**
+     * @return - the limit on all lines a session sends, whatever the command
+     */
+    public RateLimit getSessionLimit() {
+        return sessionLimit;
+    }
+
+    /**
+     * Sets the limit on all lines, for sessions that connect from now on
+     * @param limit - requires limit not null
+     * @throws IllegalArgumentException if limit is null
+     */
+    public void setSessionLimit(RateLimit limit) {
+        sessionLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return - the limit on say commands
+     */
+    public RateLimit getSayLimit() {
+        return sayLimit;
+    }
+
+    /**
+     * Sets the limit on say commands, for sessions that connect from now on
+     * @param limit - requires limit not null
+     * @throws IllegalArgumentException if limit is null
+     */
+    public void setSayLimit(RateLimit limit) {
+        sayLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return - the limit on create commands
+     */
+    public RateLimit getCreateLimit() {
+        return createLimit;
+    }
+
+    /**
+     * Sets the limit on create commands, for sessions that connect from now on
+     * @param limit - requires limit not null
+     * @throws IllegalArgumentException if limit is null
+     */
+    public void setCreateLimit(RateLimit limit) {
+        createLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return - the limit on invite commands
+     */
+    public RateLimit getInviteLimit() {
+        return inviteLimit;
+    }
+
+    /**
+     * Sets the limit on invite commands, for sessions that connect from now on
+     * @param limit - requires limit not null
+     * @throws IllegalArgumentException if limit is null
+     */
+    public void setInviteLimit(RateLimit limit) {
+        inviteLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return - the limit on typing, enteredText and idle commands together
+     */
+    public RateLimit getTypingLimit() {
+        return typingLimit;
+    }
+
+    /**
+     * Sets the limit on typing, enteredText and idle commands, for sessions that connect from now on
+     * @param limit - requires limit not null
+     * @throws IllegalArgumentException if limit is null
+     */
+    public void setTypingLimit(RateLimit limit) {
+        typingLimit = checkLimit(limit);
+    }
+
+    /**
+     * @return - the lag of the room executor, in milliseconds, past which the server defers typing and
+     * presence updates. 0 means never
+     */
+    public long getOverloadShedLagMillis() {
+        return overloadShedLagMillis;
+    }
+
+    /**
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setOverloadShedLagMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Overload threshold cannot be negative.");
+        }
+        overloadShedLagMillis = millis;
+    }
+
+    /**
+     * @return - the lag of the room executor, in milliseconds, past which the server also refuses new
+     * connections. 0 means never
+     */
+    public long getOverloadRefuseLagMillis() {
+        return overloadRefuseLagMillis;
+    }
+
+    /**
+     * @param millis - requires millis >= 0
+     * @throws IllegalArgumentException if millis < 0
+     */
+    public void setOverloadRefuseLagMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("ERROR: Overload threshold cannot be negative.");
+        }
+        overloadRefuseLagMillis = millis;
+    }
+
+    /**
+     * @return - the port of the HTTP metrics and health endpoint, or 0 if the server process does not start one
+     */
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return - the address the HTTP metrics and health endpoint listens on, the loopback address by default
+     */
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+
+    /**
+     * @return - how often the HTTP endpoint takes a new snapshot of the metrics, in milliseconds
+     */
+    public long getMetricsSnapshotMillis() {
+        return metricsSnapshotMillis;
+    }
+
+    /**
+     * @param millis - requires millis > 0
+     * @throws IllegalArgumentException if millis <= 0
+     */
+    public void setMetricsSnapshotMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("ERROR: Metrics snapshot interval must be positive.");
+        }
+        metricsSnapshotMillis = millis;
+    }
+
+    /**
+     * @return - true if chat lines are sent as tracedMessage, stamped with the times the server read and
+     * broadcast them, and the stages of sampled lines are recorded in the trace histograms
+     */
+    public boolean isTraceMessages() {
+        return traceMessages;
+    }
+
+    /**
+     * @param on - true to trace chat lines
+     */
+    public void setTraceMessages(boolean on) {
+        traceMessages = on;
+    }
+
+    /**
+     * @return - in trace mode, the stages of one line in this many are recorded
+     */
+    public int getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /**
+     * @param rate - requires rate >= 1
+     * @throws IllegalArgumentException if rate < 1
+     */
+    public void setTraceSampleRate(int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("ERROR: Trace sample rate must be at least 1.");
+        }
+        traceSampleRate = rate;
+    }
+
+    private static RateLimit rateLimit(String property, String fallback) {
+        return RateLimit.parse(System.getProperty(property, fallback));
+    }
+
+    private static RateLimit checkLimit(RateLimit limit) {
+        if (limit == null) {
+            throw new IllegalArgumentException("ERROR: Rate limit cannot be null.");
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,21 @@
+package server;
+
+/**
+ * Interface StatsListener
+ * Receives a report of the server's health from ChatServer.reportStats, one stat at a time as it is
+ * gathered, so the report can be streamed to an admin's client rather than built up first.
+ */
+public interface StatsListener {
+
+    /**
+     * @param kind - the kind of stat, eg. "gauge", "histogram" or "room"
+     * @param name - what the stat is about, eg. a metric name or a room number
+     * @param values - the values, space separated
+     */
+    public void notifyStat(String kind, String name, String values);
+
+    /**
+     * Called once after the last stat of the report
+     */
+    public void notifyStatsEnd();
+}
@@ -1,56 +1,415 @@
 package server;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
 
+import metrics.FlightEvents;
+
+/**
+ * Everything said in a Room, in order.
+ *
+ * The text of each line is stored as UTF-8 packed back to back in byte chunks, and the line is
+ * indexed by the id of the user that said it (see UsernameTable) and the position of its text. So a
+ * line costs its UTF-8 bytes plus 16 bytes of index, instead of a Line object, two Strings and their
+ * char arrays.
+ *
+ * A line's text never spans two chunks: a line that does not fit in the rest of the current chunk starts
+ * a new one, and a line longer than CHUNK_SIZE gets a chunk of its own. The first chunk is only
+ * FIRST_CHUNK_SIZE bytes and each new chunk is twice the size of the one before, up to CHUNK_SIZE, so a
+ * Tablet with a few lines holds a few hundred bytes rather than a whole CHUNK_SIZE.
+ *
+ * An off-heap Tablet allocates its chunks in direct memory, so only the index is on the heap and the
+ * garbage collector never has to copy or scan the text. Direct memory used by all Tablets together is
+ * limited by ServerConfig.getTabletOffHeapCapacity(); when it is used up, new chunks go on the heap.
+ *
+ * Threadsafe argument:
+ * All access to the chunks and the index is synchronized on the Tablet, except that writeTo only holds the
+ * lock while it takes references to them: the bytes and index entries of a line are never changed after
+ * the line is added, and growing the index or the chunk array copies it into a new array. The direct memory
+ * used by all Tablets is counted in an AtomicLong, and reserved with compareAndSet so the capacity is never
+ * exceeded.
+ */
 public class Tablet {
-    
-	private List<Line> lines;
-	
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int FIRST_CHUNK_SIZE = 256;
+	private static final int INITIAL_LINES = 16;
+	private static final AtomicLong offHeapBytes = new AtomicLong();
+
+	private final ServerConfig config;  // null if the Tablet is always on the heap
+	private ByteBuffer[] chunks;
+	private int chunkCount;   // number of chunks in use, the last one is being filled
+	private int position;     // next free byte in the last chunk
+	private int chunkLimit;   // bytes usable in the last chunk, 0 if no more lines go in it
+	private int nextChunkSize; // size of the next chunk that is not for a single oversized line
+	private long bytes;       // total UTF-8 bytes of text stored
+	private long reserved;    // bytes of direct memory held by this Tablet
+
+	private int[] users;      // users[i] is the id of the user that said line i
+	private long[] offsets;   // offsets[i] is (chunk << 32 | position) of the text of line i
+	private int[] lengths;    // lengths[i] is the length in bytes of the text of line i
+	private int size;         // number of lines
+
+	/**
+	 * Creates a new, empty Tablet that keeps its text on the heap
+	 */
 	public Tablet(){
-		lines = Collections.synchronizedList(new ArrayList<Line>());
+		this(null);
+	}
+
+	/**
+	 * Creates a new, empty Tablet that keeps its text off-heap if config says so
+	 * @param config - the settings of the server, or null to always keep the text on the heap
+	 */
+	public Tablet(ServerConfig config){
+		this.config = config;
+		chunks = new ByteBuffer[4];
+		chunkCount = 0;
+		position = 0;
+		chunkLimit = 0;
+		nextChunkSize = FIRST_CHUNK_SIZE;
+		bytes = 0;
+		reserved = 0;
+		users = new int[INITIAL_LINES];
+		offsets = new long[INITIAL_LINES];
+		lengths = new int[INITIAL_LINES];
+		size = 0;
 	}
-	
+
 	/**
 	 * Add a line to the Tablet
-	 * @param username - requires username be a non-null String, else do nothing
+	 * @param user - requires user be the id of the user that said the line, else do nothing
 	 * @param text - requires text be a non-null String, else do nothing
 	 */
-	public synchronized void addLine(String username, String text) {
-	    if (username != null && text != null) {
-	        lines.add(new Line(username, text));
-	    }
-	}
-	
-	/**
-	 * Immutable datatype representing a line in a chat window
-	 * Contains String:username of user that said the line, and String:lineText of the actual text
-	 */
-	private class Line{
-		private final String username;
-		private final String lineText;
-		
-		/**
-		 * Creates a new Line object
-		 * @param username - requires username be a non-null String
-		 * @param said - requires said be a non-null String
-		 * @throws IllegalArgumentException if preconditions on the arguments not satisfied
-		 */
-		public Line(String username,String said){
-		    if (username == null || said == null) {
-		        throw new IllegalArgumentException("ERROR: null arguments given to Line constructor");
-		    }
-			this.username = username;
-			this.lineText = said;
-		}
-		public String getUsername() {
-		    return username;
-		}
-		public String getLineText() {
-		    return lineText;
-		}
-	}
-	
-	
+	public synchronized void addLine(int user, String text) {
+	    if (user < 0 || text == null) {
+	        return;
+	    }
+	    byte[] encoded = text.getBytes(UTF8);
+	    addEncoded(user, encoded);
+	    FlightEvents.tabletAppend(encoded.length, size, bytes, reserved > 0);
+	}
+
+	/**
+	 * Add a line whose text is already UTF-8 encoded
+	 * @param user - requires user >= 0
+	 * @param encoded - requires encoded not null, the UTF-8 bytes of the text
+	 */
+	private void addEncoded(int user, byte[] encoded) {
+	    int length = encoded.length;
+	    ByteBuffer chunk;
+	    int start;
+	    if (length > CHUNK_SIZE) {
+	        chunk = newChunk(length);
+	        start = 0;
+	        position = 0;
+	        chunkLimit = 0;             // the oversized chunk is full, the next line starts a new one
+	    } else {
+	        if (chunkCount == 0 || position + length > chunkLimit) {
+	            int capacity = nextChunkSize;
+	            while (capacity < length) {
+	                capacity *= 2;
+	            }
+	            newChunk(capacity);
+	            nextChunkSize = Math.min(capacity * 2, CHUNK_SIZE);
+	            position = 0;
+	            chunkLimit = capacity;
+	        }
+	        chunk = chunks[chunkCount - 1];
+	        start = position;
+	        position += length;
+	    }
+	    if (length > 0) {
+	        chunk.position(start);
+	        chunk.put(encoded);
+	    }
+	    if (size == users.length) {
+	        growIndex();
+	    }
+	    users[size] = user;
+	    offsets[size] = ((long) (chunkCount - 1) << 32) | start;
+	    lengths[size] = length;
+	    size++;
+	    bytes += length;
+	}
+
+	/**
+	 * @return - the number of lines in the Tablet
+	 */
+	public synchronized int size() {
+	    return size;
+	}
+
+	/**
+	 * @param i - requires 0 <= i < size()
+	 * @return - the id of the user that said line i
+	 * @throws IndexOutOfBoundsException if i is not the index of a line
+	 */
+	public synchronized int getUser(int i) {
+	    checkIndex(i);
+	    return users[i];
+	}
+
+	/**
+	 * @param i - requires 0 <= i < size()
+	 * @return - the text of line i
+	 * @throws IndexOutOfBoundsException if i is not the index of a line
+	 */
+	public synchronized String getLineText(int i) {
+	    checkIndex(i);
+	    long offset = offsets[i];
+	    ByteBuffer chunk = chunks[(int) (offset >>> 32)];
+	    if (chunk.hasArray()) {
+	        return new String(chunk.array(), chunk.arrayOffset() + (int) offset, lengths[i], UTF8);
+	    }
+	    byte[] encoded = new byte[lengths[i]];
+	    chunk.position((int) offset);
+	    chunk.get(encoded);
+	    return new String(encoded, UTF8);
+	}
+
+	/**
+	 * @return - the total size in bytes of the UTF-8 text of every line in the Tablet
+	 */
+	public synchronized long getTextBytes() {
+	    return bytes;
+	}
+
+	/**
+	 * Writes every line of the Tablet, in the compact form read back by readFrom and map
+	 * @param out - requires out not null
+	 * @throws IOException if out throws
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+	    writeTo(out, size());
+	}
+
+	/**
+	 * Writes the first count lines of the Tablet in a compact form: the number of lines, the user id of every
+	 * line, the length in bytes of every line, the total length of the text, then the UTF-8 text of every
+	 * line back to back.
+	 * Lines are never changed once added, so only the references to the index and chunks are taken under
+	 * the Tablet's lock; the lines are written without it, and lines may be added meanwhile. This holds even
+	 * if the Tablet is released meanwhile, since release only drops the references.
+	 * @param out - requires out not null
+	 * @param count - requires 0 <= count <= size()
+	 * @throws IOException if out throws, or if the Tablet has fewer than count lines
+	 */
+	public void writeTo(DataOutput out, int count) throws IOException {
+	    ByteBuffer[] c;
+	    int[] u;
+	    long[] o;
+	    int[] l;
+	    synchronized (this) {
+	        if (count < 0 || count > size) {
+	            throw new IOException("ERROR: cannot write " + count + " lines of a Tablet of " + size + " lines");
+	        }
+	        c = chunks;
+	        u = users;
+	        o = offsets;
+	        l = lengths;
+	    }
+	    out.writeInt(count);
+	    long text = 0;
+	    for (int i = 0; i < count; i++) {
+	        out.writeInt(u[i]);
+	    }
+	    for (int i = 0; i < count; i++) {
+	        out.writeInt(l[i]);
+	        text += l[i];
+	    }
+	    out.writeLong(text);
+	    byte[] buffer = new byte[FIRST_CHUNK_SIZE];
+	    ByteBuffer[] views = new ByteBuffer[c.length];     // own positions, so concurrent readers are not disturbed
+	    for (int i = 0; i < count; i++) {
+	        int chunk = (int) (o[i] >>> 32);
+	        if (views[chunk] == null) {
+	            views[chunk] = c[chunk].duplicate();
+	        }
+	        ByteBuffer view = views[chunk];
+	        if (view.hasArray()) {
+	            out.write(view.array(), view.arrayOffset() + (int) o[i], l[i]);
+	        } else {
+	            if (l[i] > buffer.length) {
+	                buffer = new byte[l[i]];
+	            }
+	            view.position((int) o[i]);
+	            view.get(buffer, 0, l[i]);
+	            out.write(buffer, 0, l[i]);
+	        }
+	    }
+	}
+
+	/**
+	 * Reads back a Tablet written by writeTo
+	 * @param in - requires in not null, positioned at the start of a Tablet written by writeTo
+	 * @param config - the settings of the server, or null to keep the text on the heap
+	 * @return - a new Tablet with the same lines, in the same order
+	 * @throws IOException if in throws or does not hold a Tablet
+	 */
+	public static Tablet readFrom(DataInput in, ServerConfig config) throws IOException {
+	    Tablet tablet = new Tablet(config);
+	    int lines = in.readInt();
+	    if (lines < 0) {
+	        throw new IOException("ERROR: corrupt Tablet, " + lines + " lines");
+	    }
+	    int[] u = new int[lines];
+	    int[] l = new int[lines];
+	    for (int i = 0; i < lines; i++) {
+	        u[i] = in.readInt();
+	    }
+	    for (int i = 0; i < lines; i++) {
+	        l[i] = in.readInt();
+	    }
+	    in.readLong();
+	    for (int i = 0; i < lines; i++) {
+	        if (u[i] < 0 || l[i] < 0) {
+	            throw new IOException("ERROR: corrupt Tablet line " + i);
+	        }
+	        byte[] encoded = new byte[l[i]];
+	        in.readFully(encoded);
+	        tablet.addEncoded(u[i], encoded);
+	    }
+	    return tablet;
+	}
+
+	/**
+	 * Makes a Tablet whose existing lines are read in place from a buffer holding a Tablet written by writeTo,
+	 * typically a memory-mapped file, so the text is neither copied nor on the heap. Only the index is built.
+	 * Lines added later go in chunks of their own.
+	 * @param buffer - requires buffer not null, positioned at the start of a Tablet written by writeTo.
+	 * The buffer's contents must not change for as long as the Tablet is used.
+	 * Modifies - buffer's position, which is left just after the Tablet
+	 * @param config - the settings of the server, or null to keep new text on the heap
+	 * @return - a new Tablet with the same lines, in the same order
+	 * @throws IOException if the buffer does not hold a Tablet
+	 */
+	public static Tablet map(ByteBuffer buffer, ServerConfig config) throws IOException {
+	    Tablet tablet = new Tablet(config);
+	    int lines = buffer.getInt();
+	    if (lines < 0 || (long) lines * 8 + 8 > buffer.remaining()) {
+	        throw new IOException("ERROR: corrupt Tablet, " + lines + " lines");
+	    }
+	    int capacity = Math.max(INITIAL_LINES, lines);
+	    tablet.users = new int[capacity];
+	    tablet.offsets = new long[capacity];
+	    tablet.lengths = new int[capacity];
+	    for (int i = 0; i < lines; i++) {
+	        tablet.users[i] = buffer.getInt();
+	    }
+	    long position = 0;
+	    for (int i = 0; i < lines; i++) {
+	        int length = buffer.getInt();
+	        if (tablet.users[i] < 0 || length < 0) {
+	            throw new IOException("ERROR: corrupt Tablet line " + i);
+	        }
+	        tablet.offsets[i] = position;
+	        tablet.lengths[i] = length;
+	        position += length;
+	    }
+	    long text = buffer.getLong();
+	    if (text != position || text > buffer.remaining()) {
+	        throw new IOException("ERROR: corrupt Tablet text");
+	    }
+	    ByteBuffer region = buffer.slice();
+	    region.limit((int) text);
+	    buffer.position(buffer.position() + (int) text);
+	    tablet.chunks[0] = region;
+	    tablet.chunkCount = 1;
+	    tablet.chunkLimit = 0;          // the next line starts a new chunk
+	    tablet.size = lines;
+	    tablet.bytes = text;
+	    return tablet;
+	}
+
+	/**
+	 * @return - the bytes of direct memory held by this Tablet
+	 */
+	public synchronized long getOffHeapBytes() {
+	    return reserved;
+	}
+
+	/**
+	 * @return - the bytes of direct memory held by all Tablets together
+	 */
+	public static long getTotalOffHeapBytes() {
+	    return offHeapBytes.get();
+	}
+
+	/**
+	 * Drops every line and gives back the memory of the Tablet, including its share of the off-heap
+	 * capacity. Called when the Room it belongs to is closed.
+	 * Modifies - the Tablet is empty afterwards
+	 */
+	public synchronized void release() {
+	    offHeapBytes.addAndGet(-reserved);
+	    reserved = 0;
+	    chunks = new ByteBuffer[4];
+	    chunkCount = 0;
+	    position = 0;
+	    chunkLimit = 0;
+	    nextChunkSize = FIRST_CHUNK_SIZE;
+	    bytes = 0;
+	    users = new int[INITIAL_LINES];
+	    offsets = new long[INITIAL_LINES];
+	    lengths = new int[INITIAL_LINES];
+	    size = 0;
+	}
+
+	private void checkIndex(int i) {
+	    if (i < 0 || i >= size) {
+	        throw new IndexOutOfBoundsException("ERROR: no line " + i + " in a Tablet of " + size + " lines");
+	    }
+	}
+
+	private ByteBuffer newChunk(int capacity) {
+	    if (chunkCount == chunks.length) {
+	        ByteBuffer[] larger = new ByteBuffer[chunks.length * 2];
+	        System.arraycopy(chunks, 0, larger, 0, chunkCount);
+	        chunks = larger;
+	    }
+	    ByteBuffer chunk;
+	    if (config != null && config.isTabletOffHeap() && reserve(capacity, config.getTabletOffHeapCapacity())) {
+	        chunk = ByteBuffer.allocateDirect(capacity);
+	        reserved += capacity;
+	    } else {
+	        chunk = ByteBuffer.allocate(capacity);
+	    }
+	    chunks[chunkCount++] = chunk;
+	    return chunk;
+	}
+
+	/**
+	 * Reserves part of the off-heap capacity shared by all Tablets
+	 * @return - true if the bytes were reserved, false if that would go over the limit
+	 */
+	private static boolean reserve(long bytes, long limit) {
+	    while (true) {
+	        long used = offHeapBytes.get();
+	        if (used + bytes > limit) {
+	            return false;
+	        }
+	        if (offHeapBytes.compareAndSet(used, used + bytes)) {
+	            return true;
+	        }
+	    }
+	}
+
+	private void growIndex() {
+	    int capacity = users.length * 2;
+	    int[] newUsers = new int[capacity];
+	    long[] newOffsets = new long[capacity];
+	    int[] newLengths = new int[capacity];
+	    System.arraycopy(users, 0, newUsers, 0, size);
+	    System.arraycopy(offsets, 0, newOffsets, 0, size);
+	    System.arraycopy(lengths, 0, newLengths, 0, size);
+	    users = newUsers;
+	    offsets = newOffsets;
+	    lengths = newLengths;
+	}
 }
@@ -0,0 +1,92 @@
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-wide symbol table of usernames.
+ * Every username is given a dense int id (0, 1, 2, ...) the first time it is interned, normally when the user
+ * logs in or is invited to a room, and keeps it for the life of the server. Rooms keep ids instead of names, and
+ * only turn them back into names when they are written to a client.
+ *
+ * Threadsafe argument:
+ * ids is a ConcurrentHashMap. intern is synchronized on the table, so ids are handed out one at a time.
+ * The names array is only ever replaced by a larger copy (never modified after an id has been handed out
+ * for a slot) and is published through a volatile field, so nameOf needs no lock.
+ */
+public class UsernameTable {
+
+    private final ConcurrentHashMap<String, Integer> ids; // username to id
+    private volatile String[] names; // id to username
+    private int count; // number of ids handed out, only accessed while holding the table's lock
+
+    /**
+     * Creates a new, empty table
+     */
+    public UsernameTable() {
+        ids = new ConcurrentHashMap<String, Integer>();
+        names = new String[64];
+        count = 0;
+    }
+
+    /**
+     * Gets the id of a username, giving it the next id if it has none yet
+     * @param username - any String
+     * @return - the id of username, or -1 if username is null
+     */
+    public int intern(String username) {
+        if (username == null) {
+            return -1;
+        }
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(username);
+            if (id != null) {
+                return id;
+            }
+            String[] n = names;
+            if (count == n.length) {
+                String[] larger = new String[n.length * 2];
+                System.arraycopy(n, 0, larger, 0, n.length);
+                n = larger;
+            }
+            n[count] = username;
+            names = n;  // publishes the name before the id can be seen
+            ids.put(username, count);
+            return count++;
+        }
+    }
+
+    /**
+     * @param username - any String
+     * @return - the id of username, or -1 if username is null or was never interned
+     */
+    public int idOf(String username) {
+        if (username == null) {
+            return -1;
+        }
+        Integer id = ids.get(username);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return - the number of usernames interned, ie. one more than the largest id handed out
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @param id - an id returned by intern
+     * @return - the username with that id, or null if there is no such id
+     */
+    public String nameOf(int id) {
+        String[] n = names;
+        if (id < 0 || id >= n.length) {
+            return null;
+        }
+        return n[id];
+    }
+}
@@ -0,0 +1,45 @@
+package server.bench;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.ConcurrentIntMap;
+import bench.Heap;
+
+/**
+ * Compares the room number to Room map, a ConcurrentIntMap, with the synchronized HashMap<Integer, Room>
+ * it replaced, by the heap used by 1,000,000 mappings (all to the same value, so only the map itself is
+ * measured). The throughput of ChatServer.getRoom, which reads the ConcurrentIntMap, is measured by the JMH
+ * LookupBenchmark, in jmh/src.
+ */
+public class RoomMapBenchmark {
+
+    private static final int MEMORY_ROOMS = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        memory();
+    }
+
+    private static void memory() {
+        Object room = new Object();
+        long before = Heap.used();
+        ConcurrentIntMap<Object> intMap = new ConcurrentIntMap<Object>();
+        for (int i = 0; i < MEMORY_ROOMS; i++) {
+            intMap.put(i, room);
+        }
+        long intMapBytes = Heap.used() - before;
+
+        before = Heap.used();
+        Map<Integer, Object> boxedMap = Collections.synchronizedMap(new HashMap<Integer, Object>());
+        for (int i = 0; i < MEMORY_ROOMS; i++) {
+            boxedMap.put(i, room);
+        }
+        long boxedMapBytes = Heap.used() - before;
+
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/room", "memory ConcurrentIntMap",
+                "rooms=" + intMap.size(), (double) intMapBytes / MEMORY_ROOMS));
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/room", "memory synchronized HashMap",
+                "rooms=" + boxedMap.size(), (double) boxedMapBytes / MEMORY_ROOMS));
+    }
+}
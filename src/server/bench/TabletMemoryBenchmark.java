@@ -0,0 +1,125 @@
+package server.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import server.ServerConfig;
+import server.Tablet;
+import bench.Heap;
+
+/**
+ * Measures the heap used per line by a Tablet holding 1,000,000 chat lines, against the list of
+ * Line objects (a username String and a text String per line) it used to keep. The off-heap Tablet is
+ * measured too, for both its heap and its direct memory. The throughput of Tablet.addLine is measured by the
+ * JMH TabletAppendBenchmark, in jmh/src.
+ * The memory of 100,000 small Tablets (1 and 10 lines each, as in many quiet rooms) is measured too, on the
+ * heap and off it, with the direct memory of the off-heap ones given per Tablet.
+ *
+ * Every line has a distinct text of about 30 characters, said by one of 100 users.
+ */
+public class TabletMemoryBenchmark {
+
+    private static final int LINES = 1000000;
+    private static final int USERS = 100;
+    private static final int TABLETS = 100000;
+    private static final int[] SMALL_LINES = {1, 10};
+
+    public static void main(String[] args) throws Exception {
+        memory();
+        smallTablets();
+    }
+
+    private static String text(int i) {
+        return "this is line " + i + " of the chat";
+    }
+
+    private static void memory() {
+        String[] names = new String[USERS];
+        for (int u = 0; u < USERS; u++) {
+            names[u] = "user" + u;
+        }
+
+        long before = Heap.used();
+        Tablet tablet = new Tablet();
+        for (int i = 0; i < LINES; i++) {
+            tablet.addLine(i % USERS, text(i));
+        }
+        long tabletBytes = Heap.used() - before;
+
+        ServerConfig config = new ServerConfig();
+        config.setTabletOffHeap(true);
+        config.setTabletOffHeapCapacity(Long.MAX_VALUE);
+        before = Heap.used();
+        Tablet offHeap = new Tablet(config);
+        for (int i = 0; i < LINES; i++) {
+            offHeap.addLine(i % USERS, text(i));
+        }
+        long offHeapTabletBytes = Heap.used() - before;
+
+        before = Heap.used();
+        List<Line> lines = Collections.synchronizedList(new ArrayList<Line>());
+        for (int i = 0; i < LINES; i++) {
+            lines.add(new Line(names[i % USERS], text(i)));
+        }
+        long listBytes = Heap.used() - before;
+
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/line", "memory Tablet",
+                "lines=" + tablet.size(), (double) tabletBytes / LINES));
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/line", "memory off-heap Tablet (heap)",
+                "lines=" + offHeap.size(), (double) offHeapTabletBytes / LINES));
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/line", "memory off-heap Tablet (direct)",
+                "lines=" + offHeap.size(), (double) offHeap.getOffHeapBytes() / LINES));
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/line", "memory List<Line>",
+                "lines=" + lines.size(), (double) listBytes / LINES));
+        System.out.println(String.format("%-40s %-24s %16.1f bytes/line", "UTF-8 text",
+                "lines=" + tablet.size(), (double) tablet.getTextBytes() / LINES));
+    }
+
+    private static void smallTablets() {
+        ServerConfig config = new ServerConfig();
+        config.setTabletOffHeap(true);
+        config.setTabletOffHeapCapacity(Long.MAX_VALUE);
+        for (int lines : SMALL_LINES) {
+            for (boolean offHeap : new boolean[] {false, true}) {
+                long before = Heap.used();
+                long direct = Tablet.getTotalOffHeapBytes();
+                Tablet[] tablets = new Tablet[TABLETS];
+                for (int t = 0; t < TABLETS; t++) {
+                    tablets[t] = offHeap ? new Tablet(config) : new Tablet();
+                    for (int i = 0; i < lines; i++) {
+                        tablets[t].addLine(i % USERS, text(i));
+                    }
+                }
+                long heapBytes = Heap.used() - before;
+                direct = Tablet.getTotalOffHeapBytes() - direct;
+                String params = "tablets=" + TABLETS + ",lines=" + lines;
+                System.out.println(String.format("%-40s %-24s %16.1f bytes/tablet",
+                        offHeap ? "memory small off-heap Tablet (heap)" : "memory small Tablet", params,
+                        (double) heapBytes / TABLETS));
+                if (offHeap) {
+                    System.out.println(String.format("%-40s %-24s %16.1f bytes/tablet",
+                            "memory small off-heap Tablet (direct)", params, (double) direct / TABLETS));
+                }
+                for (Tablet tablet : tablets) {
+                    tablet.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * The line representation the Tablet used to keep
+     */
+    private static class Line {
+        @SuppressWarnings("unused")
+        private final String username;
+        @SuppressWarnings("unused")
+        private final String lineText;
+
+        public Line(String username, String lineText) {
+            this.username = username;
+            this.lineText = lineText;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package server.test;
 
+import server.MessageTrace;
 import server.RoomListener;
 
 /**
@@ -10,27 +11,39 @@ import server.RoomListener;
 public class TestListener implements RoomListener {
 
     @Override
-    public void notifySay(String user, String said, int roomno) {
+    public void notifySay(int user, String said, int roomno) {
     }
 
     @Override
-    public void notifyUserEnteredRoom(String user, int roomno) {
+    public void notifyTracedSay(int user, String said, int roomno, MessageTrace trace) {
     }
 
     @Override
-    public void notifyUserLeftRoom(String user, int roomno) {
+    public void notifyUserEnteredRoom(int user, int roomno) {
     }
 
     @Override
-    public void notifyUserTyping(String user, int roomno) {
+    public void notifyUserLeftRoom(int user, int roomno) {
     }
 
     @Override
-    public void notifyUserEnteredText(String user, int roomno) {
+    public void notifyUserTyping(int user, int roomno) {
     }
 
     @Override
-    public void notifyUserIdle(String user, int roomno) {
+    public void notifyUserEnteredText(int user, int roomno) {
+    }
+
+    @Override
+    public void notifyUserIdle(int user, int roomno) {
+    }
+
+    @Override
+    public void notifyTypingStates(String states, int roomno) {
+    }
+
+    @Override
+    public void notifyTypingSummary(int typing, int enteredText, int roomno) {
     }
 
 }
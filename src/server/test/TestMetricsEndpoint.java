@@ -0,0 +1,87 @@
+package server.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Scanner;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.MetricsEndpoint;
+
+/**
+ * Tests for the HTTP metrics and health endpoint
+ *
+ * Testing strategy
+ * 1. Scrape /metrics. Test that it has the server's gauges in the Prometheus format, and that a new
+ *    count shows up once a snapshot has been taken.
+ * 2. Test that the server is live and ready, and is no longer ready while it refuses connections.
+ */
+public class TestMetricsEndpoint {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private static int status(int port, String path) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        try {
+            return c.getResponseCode();
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    private static String get(int port, String path) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        InputStream in = c.getInputStream();
+        try {
+            Scanner scanner = new Scanner(in, "UTF-8").useDelimiter("\\A");
+            return scanner.hasNext() ? scanner.next() : "";
+        } finally {
+            in.close();
+            c.disconnect();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setMetricsSnapshotMillis(20);
+        MetricsEndpoint endpoint = new MetricsEndpoint(server, "127.0.0.1", 0);
+        endpoint.start();
+        String body = get(endpoint.getPort(), "/metrics");
+        assertTrue(body.contains("# TYPE chat_sessions_active gauge\nchat_sessions_active 0\n"));
+        server.getMetrics().counter("test.count").add(5);
+        Thread.sleep(200);
+        body = get(endpoint.getPort(), "/metrics");
+        endpoint.stop();
+        server.kill();
+        assertTrue(body.contains("# TYPE chat_test_count counter\nchat_test_count 5\n"));
+    }
+
+    @Test
+    public void testHealth() throws IOException {
+        ChatServer server = new ChatServer(4445);
+        MetricsEndpoint endpoint = new MetricsEndpoint(server, "127.0.0.1", 0);
+        endpoint.start();
+        int live = status(endpoint.getPort(), "/health/live");
+        int ready = status(endpoint.getPort(), "/health/ready");
+        server.getOverloadMonitor().recordLag(server.getConfig().getOverloadRefuseLagMillis());
+        int refusingLive = status(endpoint.getPort(), "/health/live");
+        int refusingReady = status(endpoint.getPort(), "/health/ready");
+        endpoint.stop();
+        server.kill();
+        assertEquals(200, live);
+        assertEquals(200, ready);
+        assertEquals(200, refusingLive);
+        assertEquals(503, refusingReady);
+    }
+}
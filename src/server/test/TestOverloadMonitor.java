@@ -0,0 +1,144 @@
+package server.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import encryption.EstablishClientHandshake;
+import encryption.ServerRefusedException;
+import server.ChatServer;
+import server.OverloadMonitor;
+import server.OverloadMonitor.State;
+import server.ServerConfig;
+import util.HashedWheelTimer;
+
+/**
+ * Tests for the admission control of the server
+ *
+ * Testing strategy
+ * 1. Feed the monitor lags past each threshold. Test that it goes straight to the worse state, and counts it.
+ * 2. Feed it low lags. Test that it only recovers after enough of them in a row, and that a high lag in
+ *    between starts the count again.
+ * 3. Put a running server in the refusing state and connect. Test that the client is told the server is
+ *    overloaded and the refusal is counted.
+ * 4. Connect to a refusing server with the client's handshake. Test that it fails with the server's error 13
+ *    instead of a corrupt stream.
+ */
+public class TestOverloadMonitor {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private static final Executor INLINE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer("test-timer", 10, 64);
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private OverloadMonitor newMonitor() {
+        ServerConfig config = new ServerConfig();
+        config.setOverloadShedLagMillis(100);
+        config.setOverloadRefuseLagMillis(500);
+        return new OverloadMonitor(TIMER, INLINE, config, NOTHING);
+    }
+
+    @Test
+    public void testEscalate() {
+        OverloadMonitor monitor = newMonitor();
+        monitor.recordLag(10);
+        assertEquals(State.NORMAL, monitor.getState());
+        monitor.recordLag(150);
+        assertEquals(State.SHEDDING, monitor.getState());
+        assertEquals(true, monitor.isShedding());
+        assertEquals(false, monitor.isRefusing());
+        monitor.recordLag(600);
+        assertEquals(State.REFUSING, monitor.getState());
+        assertEquals(true, monitor.isRefusing());
+        assertEquals(600, monitor.getLagMillis());
+        assertEquals(1, monitor.getTimesEntered(State.SHEDDING));
+        assertEquals(1, monitor.getTimesEntered(State.REFUSING));
+    }
+
+    @Test
+    public void testRecover() {
+        OverloadMonitor monitor = newMonitor();
+        monitor.recordLag(600);
+        for (int i = 0; i < 9; i++) {
+            monitor.recordLag(10);
+        }
+        assertEquals(State.REFUSING, monitor.getState());
+        monitor.recordLag(300);        // below the refuse threshold but above its recovery level
+        for (int i = 0; i < 9; i++) {
+            monitor.recordLag(10);
+        }
+        assertEquals(State.REFUSING, monitor.getState());
+        monitor.recordLag(10);
+        assertEquals(State.NORMAL, monitor.getState());
+        assertEquals(1, monitor.getTimesEntered(State.NORMAL));
+    }
+
+    @Test
+    public void testRefuseConnection() throws IOException, InterruptedException {
+        final ChatServer server = new ChatServer(4445);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.start();
+            }
+        });
+        t.start();
+        server.getOverloadMonitor().recordLag(server.getConfig().getOverloadRefuseLagMillis());
+        Socket client = new Socket("localhost", 4445);
+        client.setSoTimeout(2000);
+        BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        String line = in.readLine();
+        client.close();
+        server.kill();
+        t.join(1000);
+        assertEquals("error 13 server overloaded", line);
+        assertEquals(1, server.getOverloadMonitor().getRefusedConnections());
+    }
+
+    @Test
+    public void testRefusedHandshake() throws Exception {
+        final ChatServer server = new ChatServer(4445);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.start();
+            }
+        });
+        t.start();
+        server.getOverloadMonitor().recordLag(server.getConfig().getOverloadRefuseLagMillis());
+        Socket client = new Socket("localhost", 4445);
+        client.setSoTimeout(2000);
+        int code = 0;
+        try {
+            new EstablishClientHandshake(client.getInputStream(), client.getOutputStream()).init();
+        } catch (ServerRefusedException e) {
+            code = e.getCode();
+        }
+        client.close();
+        server.kill();
+        t.join(1000);
+        assertEquals(13, code);
+    }
+}
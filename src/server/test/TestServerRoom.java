@@ -2,8 +2,11 @@ package server.test;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import server.ChatServer;
@@ -21,8 +24,30 @@ import server.Room;
  * 4. Test join without invite, make sure join is unsuccessful
  * 5. Test decline invite, make sure removed from guest list
  * 6. Test decline then accept, make sure removed from guest list, and the join is unsucessful
+ * 7. Test the members list, make sure it is the same before and after it is cached, and changes after a join
+ * 8. Test the members changes since a version: nothing changed, a join, a status change, a leave, and a version
+ * too old or new to give changes for
+ * 9. Test hibernation: an idle room is written to disk, and a later command reads it back with its guest
+ * list and lines, and removes the file
+ * 9a. Test a hibernation file that cannot be read back: the command fails, the room stays hibernated with
+ * its file kept and the failure counted, and killing the server deletes the file
+ * 10. Test durable rooms: room numbers carry on after a restart, and a stored room comes back with its
+ * members and guests invited
+ * 11. Test recovery from the write-ahead log: with snapshots taken every few records, and with a torn
+ * record at the end of the log
+ * 11a. Test snapshots that cannot be written: the failures are counted, the rotated logs are kept, and
+ * recovery replays them
+ * 12. Test a snapshot: rooms written while live come back on restore with their guests and lines, the
+ * restored Tablet can be added to, and room numbers carry on
+ * 13. Test invite expiry: an invite not answered within its time to live is removed, a joined one is not affected
+ * 14. Test that the guests of a room restored from the room store do not expire
  */
 public class TestServerRoom {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
     
     @Test
     public void testRoom() throws IOException {
@@ -91,4 +116,327 @@ public class TestServerRoom {
         assertEquals(false, joined);
         assertEquals(false, room.isInvited("random"));
     }
+    
+    @Test
+    public void testUsersInRoom() throws IOException {
+        ChatServer server = new ChatServer(4445);
+        Room room = new Room(server, "cliu", new TestListener(), 1);
+        String first = room.getUsersInRoom();
+        String cached = room.getUsersInRoom();
+        room.inviteUser("cliu", "random");
+        room.join("random", new TestListener());
+        String joined = room.getUsersInRoom();
+        server.kill();
+        assertEquals("cliu 0", first);
+        assertEquals("cliu 0", cached);
+        assertEquals(true, joined.equals("cliu 0 random 0") || joined.equals("random 0 cliu 0"));
+    }
+    
+    @Test
+    public void testUsersSince() throws IOException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setTypingWindowMillis(0);
+        Room room = new Room(server, "cliu", new TestListener(), 1);
+        String full = room.getUsersSince(0);
+        String unchanged = room.getUsersSince(1);
+        room.inviteUser("cliu", "random");
+        room.join("random", new TestListener());
+        String joined = room.getUsersSince(1);
+        room.setTyping("random");
+        String typing = room.getUsersSince(2);
+        room.leave("random");
+        String left = room.getUsersSince(2);
+        String tooNew = room.getUsersSince(10);
+        server.kill();
+        assertEquals("0 1 cliu 0", full);
+        assertEquals("1 1", unchanged);
+        assertEquals("1 2 random 0", joined);
+        assertEquals("2 3 random 1", typing);
+        assertEquals("2 4 random -1", left);
+        assertEquals("0 4 cliu 0", tooNew);
+    }
+
+    @Test
+    public void testHibernate() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        File dir = File.createTempFile("hibernate", "");
+        dir.delete();
+        dir.mkdir();
+        server.getConfig().setHibernateDir(dir.getPath());
+        Room room = server.createRoom("cliu", new TestListener());
+        room.inviteUser("cliu", "random");
+        room.write("cliu", "hello");
+        server.getConfig().setHibernateAfterMillis(50);
+        boolean hibernated = false;
+        for (int i = 0; i < 100 && !hibernated; i++) {
+            Thread.sleep(50);
+            hibernated = room.isHibernated();
+        }
+        server.getConfig().setHibernateAfterMillis(0);
+        int files = dir.list().length;
+        boolean invited = room.isInvited("random");
+        int lines = room.getLineCount();
+        boolean stillHibernated = room.isHibernated();
+        int filesAfter = dir.list().length;
+        server.kill();
+        dir.delete();
+        assertEquals(true, hibernated);
+        assertEquals(1, files);
+        assertEquals(true, invited);
+        assertEquals(1, lines);
+        assertEquals(false, stillHibernated);
+        assertEquals(0, filesAfter);
+    }
+
+    @Test
+    public void testWakeFailure() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        File dir = File.createTempFile("hibernate", "");
+        dir.delete();
+        dir.mkdir();
+        server.getConfig().setHibernateDir(dir.getPath());
+        Room room = server.createRoom("cliu", new TestListener());
+        room.inviteUser("cliu", "random");
+        room.write("cliu", "hello");
+        server.getConfig().setHibernateAfterMillis(50);
+        boolean hibernated = false;
+        for (int i = 0; i < 100 && !hibernated; i++) {
+            Thread.sleep(50);
+            hibernated = room.isHibernated();
+        }
+        server.getConfig().setHibernateAfterMillis(0);
+        File file = dir.listFiles()[0];
+        FileOutputStream truncate = new FileOutputStream(file);
+        truncate.write(new byte[] {0, 0});
+        truncate.close();
+        boolean failed = false;
+        try {
+            room.isInvited("random");
+        } catch (Room.RoomUnavailableException e) {
+            failed = true;
+        }
+        boolean stillHibernated = room.isHibernated();
+        boolean kept = file.exists();
+        long failures = server.getMetrics().counter("room.wakeFailures").get();
+        server.kill();
+        boolean deleted = !file.exists();
+        dir.delete();
+        assertEquals(true, hibernated);
+        assertEquals(true, failed);
+        assertEquals(true, stillHibernated);
+        assertEquals(true, kept);
+        assertEquals(1, failures);
+        assertEquals(true, deleted);
+    }
+
+    @Test
+    public void testDurableRooms() throws IOException {
+        File dir = File.createTempFile("rooms", "");
+        dir.delete();
+        System.setProperty("chat.roomDir", dir.getPath());
+        try {
+            ChatServer server = new ChatServer(4445);
+            Room first = server.createRoom("cliu", new TestListener());
+            first.inviteUser("cliu", "random");
+            Room second = server.createRoom("random", new TestListener());
+            server.kill();
+
+            ChatServer restarted = new ChatServer(4445);
+            Room third = restarted.createRoom("cliu", new TestListener());
+            Room restored = restarted.getRoom(0);
+            boolean creatorInvited = restored.isInvited("cliu");
+            boolean guestInvited = restored.isInvited("random");
+            boolean joined = restored.join("random", new TestListener());
+            String users = restored.getUsersInRoom();
+            Room missing = restarted.getRoom(5);
+            restarted.kill();
+            assertEquals(0, first.getId());
+            assertEquals(1, second.getId());
+            assertEquals(2, third.getId());
+            assertEquals(true, creatorInvited);
+            assertEquals(true, guestInvited);
+            assertEquals(true, joined);
+            assertEquals("random 0", users);
+            assertEquals(null, missing);
+        } finally {
+            System.clearProperty("chat.roomDir");
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testLogRecovery() throws IOException {
+        File dir = File.createTempFile("rooms", "");
+        dir.delete();
+        System.setProperty("chat.roomDir", dir.getPath());
+        System.setProperty("chat.walSnapshotRecords", "3");
+        try {
+            ChatServer server = new ChatServer(4445);
+            for (int i = 0; i < 5; i++) {
+                Room room = server.createRoom("user" + i, new TestListener());
+                room.inviteUser("user" + i, "guest" + i);
+            }
+            Room declined = server.getRoom(4);
+            declined.decline("guest4");
+            declined.leave("user4");    // nobody left to join room 4, so it is forgotten
+            declined.getUsersSince(0);  // waits until the leave has been logged
+            server.kill();
+
+            FileOutputStream torn = new FileOutputStream(new File(dir, "wal"), true);
+            torn.write(new byte[] {0, 0, 0, 40, 1, 2});
+            torn.close();
+
+            ChatServer restarted = new ChatServer(4445);
+            Room room = restarted.createRoom("cliu", new TestListener());
+            boolean creatorInvited = restarted.getRoom(3).isInvited("user3");
+            boolean guestInvited = restarted.getRoom(3).isInvited("guest3");
+            Room forgotten = restarted.getRoom(4);
+            restarted.kill();
+            assertEquals(5, room.getId());
+            assertEquals(true, creatorInvited);
+            assertEquals(true, guestInvited);
+            assertEquals(null, forgotten);
+        } finally {
+            System.clearProperty("chat.roomDir");
+            System.clearProperty("chat.walSnapshotRecords");
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testLogSnapshotFailure() throws IOException {
+        File dir = File.createTempFile("rooms", "");
+        dir.delete();
+        new File(dir, "snapshot.tmp").mkdirs();    // a directory in the way of every snapshot
+        System.setProperty("chat.roomDir", dir.getPath());
+        System.setProperty("chat.walSnapshotRecords", "3");
+        try {
+            ChatServer server = new ChatServer(4445);
+            for (int i = 0; i < 4; i++) {
+                Room room = server.createRoom("user" + i, new TestListener());
+                room.inviteUser("user" + i, "guest" + i);
+            }
+            server.kill();
+            long failures = server.getMetrics().counter("store.snapshotFailures").get();
+            int rotated = 0;
+            for (String name : dir.list()) {
+                if (name.startsWith("wal-")) {
+                    rotated++;
+                }
+            }
+
+            ChatServer restarted = new ChatServer(4445);
+            Room room = restarted.createRoom("cliu", new TestListener());
+            boolean firstInvited = restarted.getRoom(0).isInvited("guest0");
+            boolean lastInvited = restarted.getRoom(3).isInvited("guest3");
+            restarted.kill();
+            assertEquals(true, failures > 0);
+            assertEquals(true, rotated > 0);
+            assertEquals(4, room.getId());
+            assertEquals(true, firstInvited);
+            assertEquals(true, lastInvited);
+        } finally {
+            System.clearProperty("chat.roomDir");
+            System.clearProperty("chat.walSnapshotRecords");
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSnapshotRestore() throws IOException {
+        File file = File.createTempFile("chat", ".snapshot");
+        try {
+            ChatServer server = new ChatServer(4445);
+            Room room = server.createRoom("cliu", new TestListener());
+            room.inviteUser("cliu", "random");
+            room.write("cliu", "hello");
+            room.write("cliu", "h\u00e9llo \u4e16\u754c");
+            Room empty = server.createRoom("random", new TestListener());
+            empty.leave("random");
+            int written = server.writeSnapshot(file);
+            server.kill();
+
+            System.setProperty("chat.restoreSnapshot", "true");
+            System.setProperty("chat.snapshotFile", file.getPath());
+            ChatServer restarted = new ChatServer(4445);
+            Room restored = restarted.getRoom(0);
+            boolean creatorInvited = restored.isInvited("cliu");
+            boolean guestInvited = restored.isInvited("random");
+            int lines = restored.getLineCount();
+            boolean joined = restored.join("random", new TestListener());
+            restored.write("random", "back again");
+            int linesAfter = restored.getLineCount();
+            Room created = restarted.createRoom("cliu", new TestListener());
+            restarted.kill();
+            assertEquals(1, written);
+            assertEquals(true, creatorInvited);
+            assertEquals(true, guestInvited);
+            assertEquals(2, lines);
+            assertEquals(true, joined);
+            assertEquals(3, linesAfter);
+            assertEquals(2, created.getId());
+        } finally {
+            System.clearProperty("chat.restoreSnapshot");
+            System.clearProperty("chat.snapshotFile");
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testInviteExpiry() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setInviteTtlMillis(100);
+        Room room = server.createRoom("cliu", new TestListener());
+        room.inviteUser("cliu", "random");
+        room.inviteUser("cliu", "joiner");
+        boolean joined = room.join("joiner", new TestListener());
+        boolean invitedBefore = room.isInvited("random");
+        Thread.sleep(400);
+        boolean invitedAfter = room.isInvited("random");
+        String users = room.getUsersSince(0);
+        server.getConfig().setInviteTtlMillis(24L * 60 * 60 * 1000);
+        server.kill();
+        assertEquals(true, joined);
+        assertEquals(true, invitedBefore);
+        assertEquals(false, invitedAfter);
+        assertEquals(true, users.contains("joiner 0"));
+    }
+
+    @Test
+    public void testRestoredGuestsDoNotExpire() throws IOException, InterruptedException {
+        File dir = File.createTempFile("rooms", "");
+        dir.delete();
+        System.setProperty("chat.roomDir", dir.getPath());
+        try {
+            ChatServer server = new ChatServer(4445);
+            Room room = server.createRoom("cliu", new TestListener());
+            room.inviteUser("cliu", "random");
+            server.kill();
+
+            ChatServer restarted = new ChatServer(4445);
+            restarted.getConfig().setInviteTtlMillis(100);
+            Room restored = restarted.getRoom(0);
+            Thread.sleep(400);
+            boolean creatorInvited = restored.isInvited("cliu");
+            boolean guestInvited = restored.isInvited("random");
+            restarted.kill();
+            assertEquals(true, creatorInvited);
+            assertEquals(true, guestInvited);
+        } finally {
+            System.clearProperty("chat.roomDir");
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
 }
@@ -0,0 +1,158 @@
+package server.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import server.ServerConfig;
+import server.Tablet;
+
+/**
+ * Tests for the packed storage of lines in a Tablet
+ *
+ * Testing strategy
+ * 1. Test lines of ASCII, non-ASCII and empty text come back as they were added, with their user
+ * 2. Test that null text and negative user ids are ignored, and that bad indices throw
+ * 3. Test enough lines to fill several chunks, and a line longer than a whole chunk
+ * 4. Test an off-heap Tablet: lines read back, direct memory is counted and given back on release,
+ *    and lines go on the heap once the off-heap capacity is used up
+ * 5. Test that a Tablet of one short line only holds a small chunk, and that chunks grow as lines are added
+ * 6. Test writing a Tablet and reading it back, both copied and mapped in place, and adding to the copy
+ */
+public class TestTablet {
+
+    @Test
+    public void testAddGet() {
+        Tablet tablet = new Tablet();
+        tablet.addLine(0, "hello");
+        tablet.addLine(3, "h\u00e9llo w\u00f6rld \u4e16\u754c");
+        tablet.addLine(1, "");
+        assertEquals(3, tablet.size());
+        assertEquals(0, tablet.getUser(0));
+        assertEquals("hello", tablet.getLineText(0));
+        assertEquals(3, tablet.getUser(1));
+        assertEquals("h\u00e9llo w\u00f6rld \u4e16\u754c", tablet.getLineText(1));
+        assertEquals("", tablet.getLineText(2));
+        assertEquals(5 + 20, tablet.getTextBytes());
+    }
+
+    @Test
+    public void testInvalid() {
+        Tablet tablet = new Tablet();
+        tablet.addLine(0, null);
+        tablet.addLine(-1, "nobody");
+        assertEquals(0, tablet.size());
+        try {
+            tablet.getLineText(0);
+            throw new AssertionError("expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+        }
+    }
+
+    @Test
+    public void testManyChunks() {
+        Tablet tablet = new Tablet();
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 20000; i++) {
+            tablet.addLine(i % 7, "line number " + i);
+            if (i == 10000) {
+                tablet.addLine(42, longLine.toString());
+            }
+        }
+        assertEquals(20001, tablet.size());
+        for (int i = 0; i < 20001; i++) {
+            if (i == 10001) {
+                assertEquals(42, tablet.getUser(i));
+                assertEquals(longLine.toString(), tablet.getLineText(i));
+            } else {
+                int n = i > 10001 ? i - 1 : i;
+                assertEquals(n % 7, tablet.getUser(i));
+                assertEquals("line number " + n, tablet.getLineText(i));
+            }
+        }
+    }
+
+    @Test
+    public void testOffHeap() {
+        ServerConfig config = new ServerConfig();
+        config.setTabletOffHeap(true);
+        long before = Tablet.getTotalOffHeapBytes();
+        Tablet tablet = new Tablet(config);
+        for (int i = 0; i < 10000; i++) {
+            tablet.addLine(i % 3, "off heap line " + i + " \u4e16");
+        }
+        assertEquals(10000, tablet.size());
+        assertEquals("off heap line 9999 \u4e16", tablet.getLineText(9999));
+        assertEquals(1, tablet.getUser(4000));
+        assertEquals(true, tablet.getOffHeapBytes() >= tablet.getTextBytes());
+        assertEquals(before + tablet.getOffHeapBytes(), Tablet.getTotalOffHeapBytes());
+        tablet.release();
+        assertEquals(0, tablet.size());
+        assertEquals(0, tablet.getOffHeapBytes());
+        assertEquals(before, Tablet.getTotalOffHeapBytes());
+    }
+
+    @Test
+    public void testOffHeapCapacity() {
+        ServerConfig config = new ServerConfig();
+        config.setTabletOffHeap(true);
+        config.setTabletOffHeapCapacity(0);
+        Tablet tablet = new Tablet(config);
+        tablet.addLine(0, "on the heap after all");
+        assertEquals(0, tablet.getOffHeapBytes());
+        assertEquals("on the heap after all", tablet.getLineText(0));
+    }
+
+    @Test
+    public void testSmallTablet() {
+        ServerConfig config = new ServerConfig();
+        config.setTabletOffHeap(true);
+        Tablet tablet = new Tablet(config);
+        tablet.addLine(0, "hi");
+        assertEquals(true, tablet.getOffHeapBytes() > 0);
+        assertEquals(true, tablet.getOffHeapBytes() <= 1024);
+        for (int i = 0; i < 1000; i++) {
+            tablet.addLine(1, "growing line " + i);
+        }
+        assertEquals("hi", tablet.getLineText(0));
+        assertEquals("growing line 999", tablet.getLineText(1000));
+        assertEquals(true, tablet.getOffHeapBytes() >= tablet.getTextBytes());
+        assertEquals(true, tablet.getOffHeapBytes() < 4 * tablet.getTextBytes());
+        tablet.release();
+    }
+
+    @Test
+    public void testWriteReadMap() throws IOException {
+        Tablet tablet = new Tablet();
+        tablet.addLine(2, "first");
+        tablet.addLine(0, "h\u00e9llo");
+        tablet.addLine(1, "");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tablet.writeTo(new DataOutputStream(bytes));
+
+        Tablet copy = Tablet.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), null);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        Tablet mapped = Tablet.map(buffer, null);
+        mapped.addLine(3, "after");
+        for (Tablet t : new Tablet[] {copy, mapped}) {
+            assertEquals(2, t.getUser(0));
+            assertEquals("first", t.getLineText(0));
+            assertEquals("h\u00e9llo", t.getLineText(1));
+            assertEquals("", t.getLineText(2));
+        }
+        assertEquals(0, buffer.remaining());
+        assertEquals(4, mapped.size());
+        assertEquals("after", mapped.getLineText(3));
+        assertEquals(3, mapped.getUser(3));
+    }
+}
@@ -0,0 +1,44 @@
+package server.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Points the ChatServers made by the tests at a temporary user file instead of src/server/userfile, the
+ * server's default (see ServerConfig.getUserFile), so running the tests leaves the source tree as it was.
+ * Every test class that makes a ChatServer calls use before it does. The file is shared by the test classes
+ * run in the same JVM, and deleted when the JVM exits. It starts with the user cliu, password 123, which some
+ * tests log in as without registering it first.
+ */
+public class TestUserFile {
+
+    private static File file;
+
+    /**
+     * Makes the temporary user file, if not made yet, and sets chat.userFile to it for the ChatServers made
+     * from now on
+     * @return - the temporary user file
+     * @throws IOException if the file cannot be made
+     */
+    public static synchronized File use() throws IOException {
+        if (file == null) {
+            file = File.createTempFile("userfile", "");
+            file.deleteOnExit();
+            PrintWriter users = new PrintWriter(new FileOutputStream(file));
+            users.print("cliu 123\n");
+            users.close();
+        }
+        System.setProperty("chat.userFile", file.getPath());
+        return file;
+    }
+
+    /**
+     * Empties the temporary user file, so the next ChatServer made starts with no registered users
+     * @throws IOException if the file cannot be written
+     */
+    public static synchronized void clear() throws IOException {
+        new FileOutputStream(use()).close();
+    }
+}
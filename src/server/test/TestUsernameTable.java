@@ -0,0 +1,51 @@
+package server.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import server.UsernameTable;
+
+/**
+ * Tests for the server-wide username to id table
+ *
+ * Testing strategy
+ * 1. Test that ids are dense and given in order, and that interning a name again gives the same id
+ * 2. Test lookups of names that were never interned, null names and unknown ids
+ * 3. Test enough names to grow the table
+ */
+public class TestUsernameTable {
+
+    @Test
+    public void testIntern() {
+        UsernameTable table = new UsernameTable();
+        assertEquals(0, table.intern("cliu"));
+        assertEquals(1, table.intern("random"));
+        assertEquals(0, table.intern("cliu"));
+        assertEquals(1, table.idOf("random"));
+        assertEquals("cliu", table.nameOf(0));
+        assertEquals("random", table.nameOf(1));
+    }
+
+    @Test
+    public void testUnknown() {
+        UsernameTable table = new UsernameTable();
+        table.intern("cliu");
+        assertEquals(-1, table.idOf("stranger"));
+        assertEquals(-1, table.idOf(null));
+        assertEquals(-1, table.intern(null));
+        assertEquals(null, table.nameOf(1));
+        assertEquals(null, table.nameOf(-1));
+    }
+
+    @Test
+    public void testGrow() {
+        UsernameTable table = new UsernameTable();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, table.intern("user" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("user" + i, table.nameOf(i));
+        }
+    }
+}
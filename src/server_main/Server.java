@@ -3,11 +3,14 @@ package server_main;
 import java.io.IOException;
 
 import server.ChatServer;
+import server.MetricsEndpoint;
 
 public class Server {
 
     /**
-     * Start a chat server.
+     * Start a chat server, with the recommended rate limits (see ServerConfig.useRecommendedRateLimits), and its
+     * HTTP metrics endpoint if -Dchat.metricsPort is set.
+     * The server is killed when the process exits, so its hibernated rooms leave no files behind.
      */
     public static void main(String[] args)  {
         ChatServer chatServer;
@@ -18,6 +21,18 @@ public class Server {
             else {
                 chatServer = new ChatServer();
             }
+            chatServer.getConfig().useRecommendedRateLimits();
+            final ChatServer server = chatServer;
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    server.kill();  // deletes the hibernation files
+                }
+            }, "shutdown"));
+            if (chatServer.getConfig().getMetricsPort() > 0) {
+                new MetricsEndpoint(chatServer, chatServer.getConfig().getMetricsHost(),
+                        chatServer.getConfig().getMetricsPort()).start();
+            }
             chatServer.start();
         } 
         catch (IOException e) {
@@ -13,6 +13,7 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 
 import client.Model;
+import encryption.ServerRefusedException;
 
 
 /**
@@ -131,6 +132,10 @@ public class ConnectView extends JPanel {
 			model = new Model(host, Integer.parseInt(port));
 			model.start(this.frame);
 		}
+		catch(ServerRefusedException e){
+			NotificationDialog.serverOverloadedError();
+			connectButton.setEnabled(true);
+		}
 		catch(IOException e){
 			NotificationDialog.connectionFailedError();
 			connectButton.setEnabled(true);
@@ -147,6 +152,10 @@ public class ConnectView extends JPanel {
 			model = new Model(host, Integer.parseInt(port));
 			model.start(this.frame);
 		}
+		catch(ServerRefusedException e){
+			NotificationDialog.serverOverloadedError();
+			connectButton.setEnabled(true);
+		}
 		catch(IOException e){
 			NotificationDialog.connectionFailedError();
 			connectButton.setEnabled(true);
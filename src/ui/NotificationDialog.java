@@ -98,6 +98,14 @@ public abstract class NotificationDialog {
 			    "Error", JOptionPane.ERROR_MESSAGE);
 	}
 	
+	/**
+	 * Displays a dialog box when the server could not read back a room the client tried to use.
+	 */
+	public static void roomUnavailableError(){
+		JOptionPane.showMessageDialog(null,"Room is unavailable, try again later.",
+			    "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
 	/**
 	 * Displays a dialog box when the client tries to connect to the server but fails.
 	 */
@@ -106,6 +114,46 @@ public abstract class NotificationDialog {
 			    "Error", JOptionPane.ERROR_MESSAGE);
 	}
 	
+	/**
+	 * Displays a dialog box when the connection to the server is lost because it stopped answering pings.
+	 */
+	public static void connectionLostError(){
+		JOptionPane.showMessageDialog(null,"Lost the connection to the server.",
+			    "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Displays a dialog box when the server refuses the connection because it is overloaded.
+	 */
+	public static void serverOverloadedError(){
+		JOptionPane.showMessageDialog(null,"The server is overloaded, try again later.",
+			    "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Displays a dialog box when the server drops a command because the client sent too many too fast.
+	 */
+	public static void rateLimitedError(){
+		JOptionPane.showMessageDialog(null,"You are sending too fast, some of your messages were dropped.",
+			    "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Displays a dialog box when the client asks for something only an admin may do.
+	 */
+	public static void notPermittedError(){
+		JOptionPane.showMessageDialog(null,"You are not permitted to do that.",
+			    "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
+	/**
+	 * Displays a dialog box when the server could not write the snapshot an admin asked for.
+	 */
+	public static void snapshotFailedError(){
+		JOptionPane.showMessageDialog(null,"The server could not write the snapshot.",
+			    "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
 	
 	/**
 	 * Displays a dialog box when the client triese to register a username that is not composed of alpha numeric characters
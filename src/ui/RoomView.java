@@ -208,6 +208,7 @@ public class RoomView extends JPanel{
 	 * Refreshes the members list.
 	 * Modifies: listModel
 	 */
+	@SuppressWarnings("unchecked") // listModel is a raw DefaultListModel, as Java 6 has no generic one
 	public void refresh(){
 		listModel.clear();
 		Set<String> l = room.getMembersList().keySet();
@@ -226,6 +227,10 @@ public class RoomView extends JPanel{
 				listModel.addElement(username + " has entered text.");
 			}
 		}
+		String summary = room.getTypingSummary();
+		if(summary != null){
+			listModel.addElement(summary);
+		}
 	} 
 	
 	/**
@@ -243,20 +248,43 @@ public class RoomView extends JPanel{
 			frame.setTitle("New message...");
 		}
 		try{
-			tabletModel.insertString(tabletModel.getLength(), username + ": ", tabletModel.getStyle("bold"));
-			
-			for(int i = 0; i < tokens.length-1; i++){
-				tabletModel.insertString(tabletModel.getLength(), tokens[i], tabletModel.getStyle(styles[i]));
-			}
-			tabletModel.insertString(tabletModel.getLength(), tokens[tokens.length-1] + "\n", tabletModel.getStyle(styles[tokens.length - 1]));
+			appendMessage(tabletModel, username, tokens, styles);
 		}
 		catch(BadLocationException e){
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Appends a message to the end of a chat history document, one insertString per token.
+	 * Needs no window, so it can also be run headless (see the JMH StyledDocumentBenchmark, in jmh/src)
+	 * @param tabletModel The document, with the styles of addStylesTo
+	 * @param username The username of the person who sent the message
+	 * @param tokens The text tokens of the message, at least one
+	 * @param styles The style of each token, the same length as tokens
+	 * @throws BadLocationException if the document changes length while the message is appended
+	 */
+	static void appendMessage(StyledDocument tabletModel, String username, String[] tokens, String[] styles)
+			throws BadLocationException{
+		tabletModel.insertString(tabletModel.getLength(), username + ": ", tabletModel.getStyle("bold"));
+		
+		for(int i = 0; i < tokens.length-1; i++){
+			tabletModel.insertString(tabletModel.getLength(), tokens[i], tabletModel.getStyle(styles[i]));
+		}
+		tabletModel.insertString(tabletModel.getLength(), tokens[tokens.length-1] + "\n", tabletModel.getStyle(styles[tokens.length - 1]));
+	}
+	
 	//adds styles to the document for the tablet to call
 	private void addStylesToDocument(){
+		addStylesTo(tabletModel);
+	}
+	
+	/**
+	 * Adds the styles of the chat history to a document: the combinations of bold, italic and strikethrough,
+	 * and an icon style for each emoticon, named as MessageParser names them
+	 * @param tabletModel The document
+	 */
+	static void addStylesTo(StyledDocument tabletModel){
 		Style def = StyleContext.getDefaultStyleContext().
                 getStyle(StyleContext.DEFAULT_STYLE);
 
@@ -0,0 +1,271 @@
+package user;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import metrics.FlightEvents;
+
+/**
+ * Writes the server-->client lines of one User session, in two priority lanes:
+ * The urgent lane holds lines that must all be delivered, in order (chat messages, invites, room membership,
+ * command replies and errors).
+ * The lossy lane holds state updates (typing statuses and contact presence) that are only written once the
+ * urgent lane is empty. A lossy line may carry a key; a newer line with the same key replaces the older
+ * one if it is still waiting, so a congested connection only ever gets the latest state for that key.
+ * A lossy line may also belong to a group, such as a room. An urgent line sent with sendAfterGroup first moves
+ * the waiting lossy lines of its group into the urgent lane, so a typing update of a room is never written
+ * after a later enter or leave of the same room.
+ *
+ * The lines are written by the session-writer threads, never by the thread that queues them, which is
+ * usually a Room's mailbox: a client whose socket blocks only holds up its own writer thread, never a room.
+ * A session is drained by at most one writer thread at a time, for at most BATCH_LINES lines before it queues
+ * itself again behind the other sessions, so a fixed pool of writer threads is shared fairly. If more than the
+ * limit of lines are waiting, the client is not keeping up, and the overflow handler is run once, to end the
+ * session, instead of queueing without bound.
+ *
+ * Threadsafe argument:
+ * The urgent lane is a ConcurrentLinkedQueue, counted with an AtomicInteger, and the lossy lane is only
+ * accessed while holding its own lock; its size is published in a volatile field, so the queue depth is read
+ * without the lock. Only the one drain task that won the compareAndSet on scheduled writes
+ * to the PrintWriter. A drain task clears scheduled when it finds the lanes empty and then checks them again,
+ * so a line queued meanwhile either is seen by that check or schedules a new drain; no line is left behind.
+ */
+class SessionWriter {
+
+    private static final int FLUSH_EVERY = 64; // lines written between flushes while the lanes stay busy
+    private static final int BATCH_LINES = 256; // lines written per turn before yielding the writer thread
+    private static final long CLOSE_WAIT_MILLIS = 5000;
+    private static final int WRITER_THREADS = Integer.getInteger("chat.sessionWriters",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+
+    // a fixed number of threads; the queue holds at most one drain task per session
+    private static final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS,
+            new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "session-writer-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final PrintWriter out;
+    private final int limit;
+    private final Runnable onOverflow;
+    private final Queue<String> urgent;
+    private final AtomicInteger urgentCount;
+    private final Map<Object, Lossy> lossy; // key to latest line for that key, in the order the keys were queued
+    private volatile int lossySize;         // lossy.size(), written while holding the lossy lock
+    private final AtomicBoolean scheduled;  // true while a drain task is queued or running
+    private final AtomicBoolean overflowed;
+    private final Runnable drainTask;
+    private volatile boolean closing;
+    private final CountDownLatch closed;    // counted down once the stream is closed
+
+    /**
+     * Creates a new SessionWriter
+     * @param out - the stream to the client. Requires out not null
+     * @param limit - requires limit > 0, the number of lines that may wait before the client is taken to be stuck
+     * @param onOverflow - requires onOverflow not null, run once if more than limit lines wait, on the thread
+     * that queued the line past the limit; it should end the session
+     * @throws IllegalArgumentException if out is null
+     */
+    public SessionWriter(PrintWriter out, int limit, Runnable onOverflow) {
+        if (out == null) {
+            throw new IllegalArgumentException("ERROR: Cannot create writer for null stream");
+        }
+        this.out = out;
+        this.limit = limit;
+        this.onOverflow = onOverflow;
+        this.urgent = new ConcurrentLinkedQueue<String>();
+        this.urgentCount = new AtomicInteger();
+        this.lossy = new LinkedHashMap<Object, Lossy>();
+        this.scheduled = new AtomicBoolean(false);
+        this.overflowed = new AtomicBoolean(false);
+        this.closing = false;
+        this.closed = new CountDownLatch(1);
+        this.drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Queues a line in the urgent lane, to be written by a writer thread
+     * @param line - the line, without the trailing newline. Requires line not null, else no effect
+     */
+    public void send(String line) {
+        if (line == null) {
+            return;
+        }
+        urgent.add(line);
+        urgentCount.incrementAndGet();
+        queued();
+    }
+
+    /**
+     * Queues a line in the urgent lane, after moving the waiting lossy lines of a group to the urgent lane
+     * ahead of it, in the order they were queued
+     * @param group - requires group not null, the group whose lossy lines must be written before this line
+     * @param line - the line, without the trailing newline. Requires line not null, else no effect
+     */
+    public void sendAfterGroup(Object group, String line) {
+        if (line == null) {
+            return;
+        }
+        synchronized (lossy) {
+            Iterator<Lossy> it = lossy.values().iterator();
+            while (it.hasNext()) {
+                Lossy waiting = it.next();
+                if (group.equals(waiting.group)) {
+                    it.remove();
+                    urgent.add(waiting.line);
+                    urgentCount.incrementAndGet();
+                }
+            }
+            lossySize = lossy.size();
+            urgent.add(line);
+            urgentCount.incrementAndGet();
+        }
+        queued();
+    }
+
+    /**
+     * Queues a line in the lossy lane, to be written by a writer thread once the urgent lane is empty
+     * @param key - lines with equal keys supersede each other. If null, the line is never superseded
+     * @param group - the group of the line, see sendAfterGroup, or null if it belongs to none
+     * @param line - the line, without the trailing newline. Requires line not null, else no effect
+     */
+    public void sendLossy(Object key, Object group, String line) {
+        if (line == null) {
+            return;
+        }
+        synchronized (lossy) {
+            if (key == null) {
+                key = new Object();
+            }
+            lossy.remove(key);  // a superseded line loses its place, the new one goes to the back
+            lossy.put(key, new Lossy(group, line));
+            lossySize = lossy.size();
+        }
+        queued();
+    }
+
+    /**
+     * Writes the lines still waiting, then closes the stream. Lines queued after this are not written.
+     * Blocks until the stream is closed, or for at most CLOSE_WAIT_MILLIS if the client does not take the lines,
+     * in which case the stream is closed by a writer thread once its socket is
+     */
+    public void close() {
+        closing = true;
+        if (scheduled.compareAndSet(false, true)) {
+            writers.execute(drainTask);
+        }
+        try {
+            closed.await(CLOSE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return - the number of lines waiting to be written
+     */
+    public int getQueueDepth() {
+        return urgentCount.get() + lossySize;
+    }
+
+    private void queued() {
+        if (getQueueDepth() > limit && overflowed.compareAndSet(false, true)) {
+            onOverflow.run();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            writers.execute(drainTask);
+        }
+    }
+
+    /**
+     * Writes up to BATCH_LINES lines, then gives the writer thread back to the pool, queueing this session again
+     * if lines are still waiting
+     */
+    private void drain() {
+        Object stall = FlightEvents.beginWrite();
+        int written = 0;
+        try {
+            String line = null;
+            while (written < BATCH_LINES && (line = next()) != null) {
+                out.print(line + "\n");
+                if (++written % FLUSH_EVERY == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+            if (line == null && closing && closed.getCount() > 0) {
+                out.close();
+                closed.countDown();
+            }
+        } finally {
+            if (stall != null) {
+                FlightEvents.endWrite(stall, written, getQueueDepth());
+            }
+            scheduled.set(false);
+        }
+        if ((!isEmpty() || closing && closed.getCount() > 0) && scheduled.compareAndSet(false, true)) {
+            writers.execute(drainTask);
+        }
+    }
+
+    private String next() {
+        String line = urgent.poll();
+        if (line != null) {
+            urgentCount.decrementAndGet();
+            return line;
+        }
+        synchronized (lossy) {
+            Iterator<Lossy> it = lossy.values().iterator();
+            if (!it.hasNext()) {
+                return null;
+            }
+            line = it.next().line;
+            it.remove();
+            lossySize = lossy.size();
+            return line;
+        }
+    }
+
+    private boolean isEmpty() {
+        if (!urgent.isEmpty()) {
+            return false;
+        }
+        synchronized (lossy) {
+            return lossy.isEmpty();
+        }
+    }
+
+    /**
+     * A waiting lossy line and its group
+     */
+    private static class Lossy {
+        private final Object group;
+        private final String line;
+
+        private Lossy(Object group, String line) {
+            this.group = group;
+            this.line = line;
+        }
+    }
+}
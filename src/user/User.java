@@ -1,6 +1,7 @@
 package user;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -11,9 +12,7 @@ import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.spec.InvalidKeySpecException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.NoSuchPaddingException;
 
@@ -22,6 +21,17 @@ import server.ChatServer.IllegalUsernameException;
 import server.ChatServer.UserAlreadyExistsException;
 import server.Room;
 import server.RoomListener;
+import server.StatsListener;
+import server.MessageTrace;
+import server.RateLimit;
+import metrics.Counter;
+import metrics.CountingInputStream;
+import metrics.CountingOutputStream;
+import metrics.FlightEvents;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import util.ConcurrentIntMap;
+import util.TokenBucket;
 import encryption.EstablishServerHandshake;
 import encryption.StreamPair;
 
@@ -32,12 +42,16 @@ import encryption.StreamPair;
     
     Message ::= NotifyContactOffline | NotifyContactOnline | NotifyRoomInvite | NotifyNewMsg |              NotifyRoomCreated | NotifyError | NotifyStatus | NotifyRoomUsers | NotifyEnter |
             NotifyLeave | NotifyWelcome | NotifyTyping | NotifyEnteredText | NotifyIdle | 
-            NotifyRegisterSuccess | NotifyOnline
+            NotifyRegisterSuccess | NotifyOnline | NotifyTypingStates | NotifyTypingSummary |
+            NotifyRoomUsersDelta | NotifySnapshot | NotifyPing | NotifyPong | NotifyStats | NotifyStatsEnd |
+            NotifyTracedMsg
     
     NotifyContactOffline ::= ContactOffline Username Newline
     NotifyContactOnline ::= ContactOnline Username Newline
     NotifyRoomInvite ::= RoomInvite RoomNumber Username Newline
     NotifyNewMsg ::= NewMsg Username RoomNumber Line Newline
+    NotifyTracedMsg ::= TracedMsg Username RoomNumber Millis Millis Line Newline     (in trace mode, instead of
+            NotifyNewMsg: the server's wall clock times when it read the line and when it broadcast it)
     NotifyRoomCreated ::= RoomCreated RoomNumber Newline
     NotifyError ::= Error ErrorMsg Newline
     NotifyStatus ::= Status OnlineStatus (Number)* Newline
@@ -50,6 +64,14 @@ import encryption.StreamPair;
     NotifyIdle ::= Idle Username RoomNumber Newline
     NotifyRegisterSuccess ::= RegisterSuccess Username Newline
     NotifyOnline ::= Online (Username)+
+    NotifyTypingStates ::= TypingStates RoomNumber (Username TypeStatus)+ Newline
+    NotifyTypingSummary ::= TypingSummary RoomNumber Number Number Newline
+    NotifyRoomUsersDelta ::= RoomUsersDelta RoomNumber FromVersion ToVersion (Username DeltaStatus)* Newline
+    NotifySnapshot ::= Snapshot Number Newline     (the number of rooms written)
+    NotifyPing ::= Ping Token Newline     (the client must answer with a pong carrying the same token)
+    NotifyPong ::= Pong Token Newline     (the answer to the client's ping)
+    NotifyStats ::= Stats StatKind StatName StatValue+ Newline     (one line per stat, then NotifyStatsEnd)
+    NotifyStatsEnd ::= StatsEnd Newline
     
     RoomNumber ::= Number
     ErrorMsg ::= error 0 malformed command | 
@@ -61,7 +83,12 @@ import encryption.StreamPair;
             error 6 contact is not online | 
             error 7 user already online on same client |
             error 8 user with same username already exists |
-            error 9 invalid login or password
+            error 9 invalid login or password |
+            error 10 not permitted |
+            error 11 snapshot failed |
+            error 12 rate limit exceeded |    (the command was dropped)
+            error 13 server overloaded |   (sent in plain text instead of the handshake, then the connection is closed)
+            error 14 room unavailable      (the room's hibernated lines could not be read back, try again later)
             
             
     
@@ -69,6 +96,8 @@ import encryption.StreamPair;
     ContactOnline ::= userOnline
     RoomInvite ::= invite
     NewMsg ::= message
+    TracedMsg ::= tracedMessage
+    Millis ::= [0-9]+
     RoomCreated ::= roomcreated
     Error ::= error
     Username ::= [A-Za-z0-9_-]+
@@ -82,6 +111,21 @@ import encryption.StreamPair;
     Idle ::= idle
     RegisterSuccess ::= registerSuccess
     Online ::= online
+    TypingStates ::= typingStates
+    TypingSummary ::= typingSummary
+    RoomUsersDelta ::= roomUsersDelta
+    Snapshot ::= snapshot
+    Ping ::= ping
+    Pong ::= pong
+    Token ::= [0-9]+
+    Stats ::= stats
+    StatsEnd ::= statsEnd
+    StatKind ::= gauge | counter | histogram | queue | room
+    StatName ::= [A-Za-z0-9_.]+
+    StatValue ::= -?[0-9]+     (histogram: count p50 p99 max, queue: total max, room: members lines textBytes)
+    FromVersion ::= Number     (0 if the delta replaces the whole member list)
+    ToVersion ::= Number
+    DeltaStatus ::= TypeStatus | -1     (-1 if the user left)
     Number ::= (1-9)[0-9]*
     Line ::= .*
     Newline ::= \n
@@ -91,7 +135,8 @@ import encryption.StreamPair;
     
     Protocol ::= Message*
     Message ::= NotifyLogin | NotifyCreateRoom | NotifyInvite | NotifyAccept | NotifyDecline | NotifySay |  NotifyLogout | NotifyCreateAcct | NotifyStatus | NotifyOnline | NotifyLeave | NotifyEnteredText |
-        NotifyIdle | NotifyTyping | NotifyRoomUsers
+        NotifyIdle | NotifyTyping | NotifyRoomUsers | NotifyRoomUsersSince | NotifySnapshot | NotifyPing | NotifyPong |
+        NotifyStats
     
     NotifyLogin ::= Login Username Newline
     NotifyCreateRoom ::= CreateRoom Newline
@@ -108,6 +153,11 @@ import encryption.StreamPair;
     NotifyIdle ::= Idle RoomNumber Newline
     NotifyTyping ::= Typing RoomNumber Newline
     NotifyRoomUsers ::= RoomUsers RoomNumber Newline
+    NotifyRoomUsersSince ::= RoomUsersSince RoomNumber Number Newline
+    NotifySnapshot ::= Snapshot Newline     (admins only)
+    NotifyPing ::= Ping Token Newline     (the server answers with a pong carrying the same token)
+    NotifyPong ::= Pong Token Newline     (the answer to the server's ping)
+    NotifyStats ::= Stats Newline     (admins only)
     
     Login ::= login
     CreateRoom ::= create
@@ -124,6 +174,12 @@ import encryption.StreamPair;
     Idle ::= idle
     Typing ::= typing
     RoomUsers ::= roomUsers
+    RoomUsersSince ::= roomUsersSince
+    Snapshot ::= snapshot
+    Ping ::= ping
+    Pong ::= pong
+    Token ::= [0-9]+
+    Stats ::= stats
     Username ::= [A-Za-z0-9_-]+
     RoomNumber ::= (1-9)[0-9]+
     Line ::= .*
@@ -134,54 +190,100 @@ import encryption.StreamPair;
  * Class that represents a User. Each user runs in its own thread, which takes care of processing client-server
  * messages and sends back server-client messages.
  * 
- * This class is threadsafe because all methods that observe or modify fields are synchronized
- * on the User's lock. We've established the thread-safety of the ChatServer and Room which may be
- * called by other users.
+ * This class is threadsafe because commands are only handled by the User's own thread, which is the
+ * only thread that modifies the username and roomlist fields. Other threads (other Users and the Room
+ * mailboxes) only read the volatile username, or send messages through sendToUser, which hands them to the
+ * threadsafe SessionWriter, whose own threads write them to the socket. No User lock is held while a message is
+ * sent, and no socket write is made by the sender, so a broadcast from a Room never waits on a slow client or on
+ * a lock held by a User that is itself waiting on that Room. The heartbeat fields are volatile; the ping
+ * fields are only written by the server timer's single worker thread, and read by the User's thread when a
+ * pong arrives. We've established the thread-safety of the ChatServer and Room which may be called by other users.
  */
 public class User implements Runnable{
 	
 	private final ChatServer server;
 	private PrintWriter out;
+	private SessionWriter writer;
 	private BufferedReader in;
-	private final Map<Integer, Room> roomlist;
-	private String username;
+	private final InputStream rawIn;    // the socket's stream under in, closed to end an idle session
+	private volatile long lastRead;     // System.currentTimeMillis() when the last line was read
+	private long commandStart;          // System.nanoTime() when the current command started, for traces
+	private volatile boolean ended;     // true once run has finished
+	private volatile long pingSentAt;   // System.currentTimeMillis() when the last ping was sent, 0 if none
+	private volatile long pingSentNanos;
+	private volatile long pingToken;    // the token of the last ping sent
+	private volatile long roundTripMillis;
+	private final TokenBucket sessionBucket;   // the buckets are only checked by the User's own thread
+	private final TokenBucket sayBucket;
+	private final TokenBucket createBucket;
+	private final TokenBucket inviteBucket;
+	private final TokenBucket typingBucket;
+	private final Histogram[] commandLatency;  // nanoseconds to handle each Command, by ordinal
+	private final Counter unknownCommands;
+	private final Counter rateLimited;
+	private final Counter sessionsOpened;
+	private final Counter sessionsClosed;
+	private final Counter writerOverflows;
+	private final ConcurrentIntMap<Room> roomlist;
+	private volatile String username;
 	private final boolean debug;
 	
 	private final RoomListener defaultRoomListener = new RoomListener(){
 	    @Override
-		public void notifySay(String user, String said, int roomno) {
-	        if (user != null && said != null && roomno >=0) {
-	            sendToUser("message "+ user + " " + roomno+ " " + said);
+		public void notifySay(int user, String said, int roomno) {
+	        if (user >= 0 && said != null && roomno >=0) {
+	            sendToUser("message "+ nameOf(user) + " " + roomno+ " " + said);
 	        }
 		}
 	    @Override
-		public void notifyUserEnteredRoom(String user, int roomno) {
-	        if (user != null && roomno >=0) {
-                sendToUser("enter " + user + " " + roomno);
+	    public void notifyTracedSay(int user, String said, int roomno, MessageTrace trace) {
+	        if (user >= 0 && said != null && roomno >=0) {
+	            long start = System.nanoTime();
+	            sendToUser("tracedMessage " + nameOf(user) + " " + roomno + " " + trace.getReceivedMillis() + " "
+	                    + trace.getBroadcastMillis() + " " + said);
+	            trace.addWriteNanos(System.nanoTime() - start);
+	        }
+	    }
+	    @Override
+		public void notifyUserEnteredRoom(int user, int roomno) {
+	        if (user >= 0 && roomno >=0) {
+                sendAfterRoomUpdates(roomno, "enter " + nameOf(user) + " " + roomno);
             }
 		}
 	    @Override
-		public void notifyUserLeftRoom(String user, int roomno) {
-	        if (user != null && roomno >=0) {
-                sendToUser("leave " + user + " " + roomno);
+		public void notifyUserLeftRoom(int user, int roomno) {
+	        if (user >= 0 && roomno >=0) {
+                sendAfterRoomUpdates(roomno, "leave " + nameOf(user) + " " + roomno);
             }
 	    }
         @Override
-        public void notifyUserTyping(String user, int roomno) {
-            if (user != null && roomno >=0) {
-                sendToUser("typing " + user + " " + roomno);
+        public void notifyUserTyping(int user, int roomno) {
+            if (user >= 0 && roomno >=0) {
+                sendLossyToUser("status " + user + " " + roomno, roomno, "typing " + nameOf(user) + " " + roomno);
+            }
+        }
+        @Override
+        public void notifyUserEnteredText(int user, int roomno) {
+            if (user >= 0 && roomno >=0) {
+                sendLossyToUser("status " + user + " " + roomno, roomno, "enteredText " + nameOf(user) + " " + roomno);
+            }
+        }
+        @Override
+        public void notifyUserIdle(int user, int roomno) {
+            if (user >= 0 && roomno >=0) {
+                sendLossyToUser("status " + user + " " + roomno, roomno, "idle " + nameOf(user) + " " + roomno);
             }
         }
         @Override
-        public void notifyUserEnteredText(String user, int roomno) {
-            if (user != null && roomno >=0) {
-                sendToUser("enteredText " + user + " " + roomno);
+        public void notifyTypingStates(String states, int roomno) {
+            if (states != null && roomno >=0) {
+                sendLossyToUser(null, roomno, "typingStates " + roomno + " " + states);
             }
         }
         @Override
-        public void notifyUserIdle(String user, int roomno) {
-            if (user != null && roomno >=0) {
-                sendToUser("idle " + user + " " + roomno);
+        public void notifyTypingSummary(int typing, int enteredText, int roomno) {
+            if (roomno >=0) {
+                sendLossyToUser("summary " + roomno, roomno, "typingSummary " + roomno + " " + typing + " " + enteredText);
             }
         }
 	};
@@ -192,7 +294,7 @@ public class User implements Runnable{
 	 */
 	private enum Command{
         login, logout, create, leave, invite, accept, decline, say, register, status, online,
-        typing, enteredText, idle, roomUsers;
+        typing, enteredText, idle, roomUsers, roomUsersSince, snapshot, ping, pong, stats;
         
         public static boolean contains(String s){
             for(Command c: values()){
@@ -221,11 +323,17 @@ public class User implements Runnable{
             throw new IllegalArgumentException("ERROR: Arguments to User constructor cannot be null");
         }
 	    this.server = server;
+	    MetricsRegistry metrics = server.getMetrics();
+	    inStream = new CountingInputStream(inStream, metrics.counter("net.bytesIn"));
+	    outStream = new CountingOutputStream(outStream, metrics.counter("net.bytesOut"));
+	    this.rawIn = inStream;
 	    try{
 	        if (secure) {
+	            long start = System.nanoTime();
 	            EstablishServerHandshake handshake = new EstablishServerHandshake(inStream, outStream);
                 handshake.init();
                 StreamPair pair = handshake.getStreamPair();
+                metrics.histogram("session.handshake").record(System.nanoTime() - start);
                 this.in = new BufferedReader(new InputStreamReader(pair.inputStream()));
                 this.out = new PrintWriter(pair.outputStream(), true);
 	        }
@@ -251,8 +359,36 @@ public class User implements Runnable{
 	         e.printStackTrace();
 		}
         
+        if (out != null) {     // null if the handshake failed
+            this.writer = new SessionWriter(out, server.getConfig().getSessionQueueLimit(), new Runnable() {
+                @Override
+                public void run() {
+                    writerOverflows.increment();
+                    endSession();
+                }
+            });
+        }
         this.username = null;
-        this.roomlist=Collections.synchronizedMap(new HashMap<Integer,Room>());
+        this.lastRead = System.currentTimeMillis();
+        this.ended = false;
+        this.pingSentAt = 0;
+        this.pingToken = 0;
+        this.roundTripMillis = -1;
+        this.sessionBucket = newBucket(server.getConfig().getSessionLimit());
+        this.sayBucket = newBucket(server.getConfig().getSayLimit());
+        this.createBucket = newBucket(server.getConfig().getCreateLimit());
+        this.inviteBucket = newBucket(server.getConfig().getInviteLimit());
+        this.typingBucket = newBucket(server.getConfig().getTypingLimit());
+        this.commandLatency = new Histogram[Command.values().length];
+        for (Command c : Command.values()) {
+            commandLatency[c.ordinal()] = metrics.histogram("command." + c.name() + ".latency");
+        }
+        this.unknownCommands = metrics.counter("command.unknown");
+        this.rateLimited = metrics.counter("command.rateLimited");
+        this.sessionsOpened = metrics.counter("sessions.opened");
+        this.sessionsClosed = metrics.counter("sessions.closed");
+        this.writerOverflows = metrics.counter("sessions.writerOverflows");
+        this.roomlist=new ConcurrentIntMap<Room>();
         this.debug = debug;
     }
 	
@@ -260,10 +396,13 @@ public class User implements Runnable{
 		
 		try{
 			String input;
-			out.print("connection successful\n");
-			out.flush();
+			sessionsOpened.increment();
+			sendToUser("connection successful");
+			lastRead = System.currentTimeMillis();
+			scheduleHeartbeat(0);
 			while(true) {        // handle commands until the stream stops.
 			    input = in.readLine();
+			    lastRead = System.currentTimeMillis();
 			    if (input == null && !debug) {
 			        break;
 			    }
@@ -273,35 +412,181 @@ public class User implements Runnable{
 			}
 		} catch(IOException e){
 		} finally {
+		    ended = true;
+		    sessionsClosed.increment();
 		    if (username!= null) {
 		        logOut();
 		    }
-		    out.close();
+		    writer.close();
 		    server.removeUser(this);
 		}
 	}
 	
+	/**
+	 * Schedules a check of the session on the server's timer. A session that has been quiet for the ping
+	 * interval is sent a ping; if no line at all arrives within the pong timeout of the ping, or none has
+	 * arrived for the idle timeout, the client is treated as dead and the session is closed, so it is
+	 * logged out, leaves its rooms and its memory is freed. Each check schedules the next one for the
+	 * earliest time something could be due, so a session costs one pending Timeout and no thread.
+	 * @param delay - milliseconds until the check
+	 */
+	private void scheduleHeartbeat(long delay) {
+	    final long pingInterval = server.getConfig().getPingIntervalMillis();
+	    final long pongTimeout = server.getConfig().getPongTimeoutMillis();
+	    final long idleTimeout = server.getConfig().getSessionIdleTimeoutMillis();
+	    if ((pingInterval <= 0 && idleTimeout <= 0) || ended) {
+	        return;
+	    }
+	    server.getTimer().schedule(new Runnable() {
+	        @Override
+	        public void run() {
+	            if (ended) {
+	                return;
+	            }
+	            long now = System.currentTimeMillis();
+	            long idle = now - lastRead;
+	            long next = Long.MAX_VALUE;
+	            if (idleTimeout > 0) {
+	                if (idle >= idleTimeout) {
+	                    endSession();
+	                    return;
+	                }
+	                next = idleTimeout - idle;
+	            }
+	            if (pingInterval > 0) {
+	                if (pingSentAt > lastRead) {        // waiting for an answer
+	                    long waited = now - pingSentAt;
+	                    if (waited >= pongTimeout) {
+	                        endSession();
+	                        return;
+	                    }
+	                    next = Math.min(next, pongTimeout - waited);
+	                }
+	                else if (idle >= pingInterval) {
+	                    pingToken++;
+	                    pingSentNanos = System.nanoTime();
+	                    pingSentAt = now;
+	                    sendToUser("ping " + pingToken);
+	                    next = Math.min(next, pongTimeout);
+	                }
+	                else {
+	                    next = Math.min(next, pingInterval - idle);
+	                }
+	            }
+	            scheduleHeartbeat(next);
+	        }
+	    }, delay, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Closes the socket's stream, so the blocked readLine fails and run logs the user out
+	 */
+	private void endSession() {
+	    try {
+	        rawIn.close();
+	    } catch (IOException e) {
+	        e.printStackTrace();
+	    }
+	}
+	
+	/**
+	 * @return - the number of lines waiting to be written to the client
+	 */
+	public int getQueueDepth() {
+	    return writer == null ? 0 : writer.getQueueDepth();
+	}
+	
+	/**
+	 * @return - the round trip time of the last ping the client answered, in milliseconds, or -1 if it
+	 * has not answered one yet
+	 */
+	public long getRoundTripMillis() {
+	    return roundTripMillis;
+	}
+	
+	private static TokenBucket newBucket(RateLimit limit) {
+	    return new TokenBucket(limit.getPerSecond(), limit.getBurst());
+	}
+	
+	/**
+	 * @param command - requires command not null
+	 * @return - the bucket limiting the class of commands that command is in, or null if only the session limit applies
+	 */
+	private TokenBucket bucketFor(Command command) {
+	    switch (command) {
+	        case say:
+	            return sayBucket;
+	        case create:
+	            return createBucket;
+	        case invite:
+	            return inviteBucket;
+	        case typing:
+	        case enteredText:
+	        case idle:
+	            return typingBucket;
+	        default:
+	            return null;
+	    }
+	}
+	
 	/**
 	 * Method to handle all client to server messages. Messages are sent back to the client
-	 * directly from this method or methods that it calls.
+	 * directly from this method or methods that it calls. Before a command is dispatched it must get a token
+	 * from the session's bucket and from the bucket of its class, if it has one; otherwise it is dropped and
+	 * the client is sent a rate limit error.
 	 * @param input - requires the input be non-null. Otherwise this method has no effect
 	 * Messages that do not conform to the grammar will result in error messages
 	 */
-	private synchronized void handleCommand(String input){
+	private void handleCommand(String input){
 
 	    if (input == null) {
 	        return;
+	    }
+	    long now = System.nanoTime();
+	    commandStart = now;
+	    if (!sessionBucket.tryTake(now)) {
+	        sendRateLimitedError();
+	        return;
 	    }
 		String[] cmd=input.split(" ");
 		
 		//first see if this starts off as a valid command
 		if(!Command.contains(cmd[0])){
+		    unknownCommands.increment();
 		    sendCommandNotFoundError();
 			return;
 		}
+		
+		//then that the user hasn't sent too many commands of its class
+		Command command = Command.valueOf(cmd[0]);
+		TokenBucket bucket = bucketFor(command);
+		if (bucket != null && !bucket.tryTake(now)) {
+		    sendRateLimitedError();
+		    return;
+		}
+		
+		try {
+		    dispatch(command, cmd, input);
+		} catch (Room.RoomUnavailableException e) {
+		    e.printStackTrace();
+		    sendRoomUnavailableError();
+		} finally {
+		    long nanos = System.nanoTime() - now;
+		    commandLatency[command.ordinal()].record(nanos);
+		    FlightEvents.command(command.name(), username, nanos);
+		}
+	}
+	
+	/**
+	 * Carries out a command that has passed the rate limits
+	 * @param command - requires command not null, the command named by cmd[0]
+	 * @param cmd - requires cmd not null, the words of the line
+	 * @param input - requires input not null, the whole line
+	 */
+	private void dispatch(Command command, String[] cmd, String input) {
 
 		//handle all commands for which the user doesn't need to be logged in
-		switch(Command.valueOf(cmd[0])){
+		switch(command){
 			case login:
 				if(cmd.length!=3){
 				    sendMalformedCommandError();
@@ -332,12 +617,30 @@ public class User implements Runnable{
 			    }
 			    else {
 			        String s = "status online";
-			        for (Integer i : roomlist.keySet()) {
-			            s += " " + i.toString();
+			        for (int i : roomlist.keys()) {
+			            s += " " + i;
 			        }
 			        sendToUser(s);
 			    }
 			    return;
+			    
+			case ping:
+			    if (cmd.length != 2 || !cmd[1].matches("[0-9]+")) {
+			        sendMalformedCommandError();
+			    }
+			    else {
+			        sendToUser("pong " + cmd[1]);
+			    }
+			    return;
+			    
+			case pong:
+			    if (cmd.length != 2 || !cmd[1].matches("[0-9]+")) {
+			        sendMalformedCommandError();
+			    }
+			    else if (cmd[1].equals(Long.toString(pingToken))) {
+			        roundTripMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pingSentNanos);
+			    }
+			    return;
 		}
 		
 		//make sure you've already logged in by checking if username is null
@@ -348,7 +651,7 @@ public class User implements Runnable{
 		
 		try {
 		  //handle all commands for which the user needs to be logged in
-	        switch(Command.valueOf(cmd[0])){
+	        switch(command){
 	            case online:
 	                if (cmd.length != 1) {
 	                    sendMalformedCommandError();
@@ -453,6 +756,38 @@ public class User implements Runnable{
 	                getUsersInRoom(Integer.parseInt(cmd[1]));
 	                return;
 	                
+	            case roomUsersSince:
+	                if (cmd.length != 3) {
+	                    sendMalformedCommandError();
+	                    return;
+	                }
+	                getUsersInRoomSince(Integer.parseInt(cmd[1]), Integer.parseInt(cmd[2]));
+	                return;
+	                
+	            case snapshot:
+	                if (cmd.length != 1) {
+	                    sendMalformedCommandError();
+	                }
+	                else if (!server.getConfig().isAdmin(username)) {
+	                    sendNotPermittedError();
+	                }
+	                else {
+	                    writeSnapshot();
+	                }
+	                return;
+	                
+	            case stats:
+	                if (cmd.length != 1) {
+	                    sendMalformedCommandError();
+	                }
+	                else if (!server.getConfig().isAdmin(username)) {
+	                    sendNotPermittedError();
+	                }
+	                else {
+	                    reportStats();
+	                }
+	                return;
+	                
 	            default:
 	                sendMalformedCommandError();
 	                return;
@@ -477,7 +812,7 @@ public class User implements Runnable{
 	 * Modifies - notifies the server of the login if successful. Sets the username, writes welcome message to user
 	 * @return - true if the login was successful, false otherwise
 	 */
-	private synchronized boolean logIn(String username, String password) {
+	private boolean logIn(String username, String password) {
 	    try {
 	        if (!server.isValidUserPass(username, password)) { // bad username-password combo
 	            sendInvalidLoginParametersError();
@@ -503,10 +838,10 @@ public class User implements Runnable{
 	 * Modifies - Notifies the server of the logout. Removes user from all rooms.
 	 * Sets username field to null
 	 */
-	private synchronized void logOut(){
+	private void logOut(){
 		server.notifyUserLoggedOut(this);
-		for(int roomno: roomlist.keySet()){
-			roomlist.get(roomno).leave(username);
+		for(Room room: roomlist.values()){
+			room.leave(username);
 		}
 		roomlist.clear();
 		username=null; 
@@ -521,7 +856,7 @@ public class User implements Runnable{
 	 * On successful registration, a registerSuccess message is sent back to the user.
 	 * If the username is already taken, or if the username is illegal, an error message is sent back
 	 */
-	private synchronized void register(String user, String pass) {
+	private void register(String user, String pass) {
 	    try {
             server.register(user, pass);
             sendToUser("registerSuccess " + user);
@@ -532,12 +867,46 @@ public class User implements Runnable{
         }
 	}
 
+	/**
+	 * Method called when an admin asks for a snapshot of the server. The snapshot is written on this
+	 * User's thread, so only this session waits for it.
+	 * On success, a snapshot message with the number of rooms written is sent back to the user,
+	 * otherwise an error message
+	 */
+	private void writeSnapshot() {
+	    try {
+	        int rooms = server.writeSnapshot(new File(server.getConfig().getSnapshotFile()));
+	        sendToUser("snapshot " + rooms);
+	    } catch (IOException e) {
+	        e.printStackTrace();
+	        sendSnapshotFailedError();
+	    }
+	}
+
+	/**
+	 * Method called when an admin asks for the server's stats. The report is gathered on the server's stats
+	 * thread and each stat is sent as soon as it is read, ending with statsEnd, so the session carries on
+	 * handling commands meanwhile
+	 */
+	private void reportStats() {
+	    server.reportStats(new StatsListener() {
+	        @Override
+	        public void notifyStat(String kind, String name, String values) {
+	            sendToUser("stats " + kind + " " + name + " " + values);
+	        }
+	        @Override
+	        public void notifyStatsEnd() {
+	            sendToUser("statsEnd");
+	        }
+	    });
+	}
+
 	/**
 	 * Method called when the user wants to create a room.
 	 * Gets a new room object from the server and registers the defaultRoomListener
 	 * Modifies - roomlist. Adds the room number and Room object to the roomlist.
 	 */
-	private synchronized void createRoom(){
+	private void createRoom(){
 		Room room = server.createRoom(username, defaultRoomListener);
 		sendToUser("roomcreated " + room.getId());
 		roomlist.put(room.getId(),room);
@@ -548,7 +917,7 @@ public class User implements Runnable{
 	 * @param roomno -requires the room number be a nonnegative integer of a currently existing Room's room number
 	 * Modifies - roomlist - adds the room to the User's roomlist if successful.
 	 */
-	private synchronized void joinRoom(int roomno) {
+	private void joinRoom(int roomno) {
 	    if (roomno < 0) {
 	        sendMalformedCommandError();
 	        return;
@@ -571,7 +940,7 @@ public class User implements Runnable{
 	 * @param roomno - the room number corresponding to the invitation to be declined
 	 * Requires roomno be a valid nonnegative room number
 	 */
-	private synchronized void decline(int roomno) {
+	private void decline(int roomno) {
 	    if (roomno < 0) {
 	        sendMalformedCommandError();
 	        return;
@@ -588,7 +957,7 @@ public class User implements Runnable{
 	 * @param roomno - requires roomno be nonnegative, valid roomnumber of an existing Room
 	 * Modifies - roomlist - removes the room number-Room object mapping if it exists
 	 */
-	private synchronized void leaveRoom(int roomno){
+	private void leaveRoom(int roomno){
 	    if (roomno < 0) {
 	        sendMalformedCommandError();
 	        return;
@@ -609,7 +978,7 @@ public class User implements Runnable{
 	 * writes an appropriate error message.
 	 * Modifies - the Room object updates appropriately.
 	 */
-	private synchronized void inviteContactToRoom(String contactUsername, int roomno) {
+	private void inviteContactToRoom(String contactUsername, int roomno) {
 	    if (roomno < 0) {
 	        sendMalformedCommandError();
 	    }
@@ -638,7 +1007,7 @@ public class User implements Runnable{
 	 * Calls the setTyping method on the room, which in turn sends messages to all users in the room
 	 * @param roomno - requires roomno be the number of a valid Room, nonnegative
 	 */
-	private synchronized void setUserIsTyping(int roomno) {
+	private void setUserIsTyping(int roomno) {
 	    if (roomno < 0) {
 	        sendMalformedCommandError();
 	        return;
@@ -654,7 +1023,7 @@ public class User implements Runnable{
      * Calls the setEnteredText method on the room, which in turn sends messages to all users in the room
      * @param roomno - requires roomno be the number of a valid Room, nonnegative
      */
-	private synchronized void setUserHasEnteredText(int roomno) {
+	private void setUserHasEnteredText(int roomno) {
 	    if (roomno < 0) {
 	        sendMalformedCommandError();
 	    }
@@ -669,7 +1038,7 @@ public class User implements Runnable{
      * Calls the setIdle method on the room, which in turn sends messages to all users in the room
      * @param roomno - requires roomno be the number of a valid Room, nonnegative
      */
-	private synchronized void setUserIdle (int roomno) {
+	private void setUserIdle (int roomno) {
 	    if (roomno < 0) {
             sendMalformedCommandError();
         }
@@ -684,7 +1053,7 @@ public class User implements Runnable{
 	 * Sends to the user a server to client message that conforms to the protocol
      * @param roomno - requires roomno be the number of a valid Room, nonnegative
 	 */
-	private synchronized void getUsersInRoom(int roomno) {
+	private void getUsersInRoom(int roomno) {
 	    if (roomno < 0) {
             sendMalformedCommandError();
         }
@@ -698,16 +1067,64 @@ public class User implements Runnable{
 	}
 	
 	/**
-	 * Method called to send a message via the OutputStream to the user
+	 * Method is called when a user wants the changes to the users in the room and their statuses since the
+	 * snapshot version it last got. Sends a roomUsersDelta server to client message that conforms to the protocol
+	 * @param roomno - requires roomno be the number of a valid Room, nonnegative
+	 * @param version - the ToVersion of the last roomUsersDelta the user got for this room, or 0 for every member.
+	 * Requires version be nonnegative
+	 */
+	private void getUsersInRoomSince(int roomno, int version) {
+	    if (roomno < 0 || version < 0) {
+	        sendMalformedCommandError();
+	        return;
+	    }
+	    Room room = roomlist.get(roomno);
+	    if (room != null) {
+	        sendToUser("roomUsersDelta " + roomno + " " + room.getUsersSince(version));
+	    }
+	    else {
+	        sendRoomNotExistError();
+	    }
+	}
+	
+	/**
+	 * Method called to send a message via the OutputStream to the user, in the urgent lane of the writer
 	 * @param s - requires s not null. The string should conform to the protocol (as it should
 	 * be formed by other methods that construct the String correctly), but this method does not check that
 	 */
-	private synchronized void sendToUser(String s) {
+	private void sendToUser(String s) {
+	    if (s == null) {
+	        return;
+	    }
+	    writer.send(s);
+	}
+	
+	/**
+	 * Method called to send a room membership change to the user, in the urgent lane of the writer, after
+	 * the typing updates of the same room that are still waiting, so none of them can be written after it
+	 * @param roomno - requires roomno >= 0, the room the change is about
+	 * @param s - requires s not null, conforming to the protocol
+	 */
+	private void sendAfterRoomUpdates(int roomno, String s) {
 	    if (s == null) {
 	        return;
 	    }
-	    out.print(s + "\n");
-        out.flush();
+	    writer.sendAfterGroup(Integer.valueOf(roomno), s);
+	}
+	
+	/**
+	 * Method called to send a typing or presence update to the user, in the lossy lane of the writer:
+	 * it is only written once no chat, invite or error is waiting, and is dropped if a newer update
+	 * with the same key is queued before it is written
+	 * @param key - the user and room (or just the user) that the update is about, or null if it can't be superseded
+	 * @param roomno - the room the update is about, or -1 if it is not about a room
+	 * @param s - requires s not null, conforming to the protocol
+	 */
+	private void sendLossyToUser(String key, int roomno, String s) {
+	    if (s == null) {
+	        return;
+	    }
+	    writer.sendLossy(key, roomno < 0 ? null : Integer.valueOf(roomno), s);
 	}
 	
 	/**
@@ -715,7 +1132,7 @@ public class User implements Runnable{
 	 * @param s - the message that is to be said. Requires s not null
 	 * @param roomno - the room to send it to. Room number must be nonnegative
 	 */
-	private synchronized void say(String s, int roomno) {
+	private void say(String s, int roomno) {
 	    if (s == null) {
 	        return;
 	    }
@@ -727,6 +1144,10 @@ public class User implements Runnable{
 		    sendRoomNotExistError();
 			return;
 		}
+		else if (server.getConfig().isTraceMessages()) {
+		    int sampleRate = server.getConfig().getTraceSampleRate();
+		    room.write(username, s, new MessageTrace(lastRead, commandStart, sampleRate));
+		}
 		else{
 			room.write(username, s);
 		}
@@ -744,11 +1165,11 @@ public class User implements Runnable{
 	}
 	
 	public void notifyContactOnline(String user){
-		sendToUser("userOnline "+user);
+		sendLossyToUser("presence " + user, -1, "userOnline "+user);
 	}
 	
 	public void notifyContactOffline(String user){
-		sendToUser("offline "+user);
+		sendLossyToUser("presence " + user, -1, "offline "+user);
 	}
 	
 	public void requestContact(String from){
@@ -757,6 +1178,14 @@ public class User implements Runnable{
 	
 	/////////////////
 	
+	/**
+	 * @param user - a user id from the server's UsernameTable
+	 * @return - the username with that id
+	 */
+	private String nameOf(int user) {
+	    return server.getUsernames().nameOf(user);
+	}
+	
 	/**
 	 * @return - the username as a String
 	 * Requires the user be logged in (ie. username != null), otherwise will return null
@@ -816,4 +1245,21 @@ public class User implements Runnable{
 	private void sendInvalidLoginParametersError() {
 	    sendToUser("error 9 invalid login or password");
 	}
+	
+	private void sendNotPermittedError() {
+	    sendToUser("error 10 not permitted");
+	}
+	
+	private void sendSnapshotFailedError() {
+	    sendToUser("error 11 snapshot failed");
+	}
+	
+	private void sendRateLimitedError() {
+	    rateLimited.increment();
+	    sendToUser("error 12 rate limit exceeded");
+	}
+	
+	private void sendRoomUnavailableError() {
+	    sendToUser("error 14 room unavailable");
+	}
 }
\ No newline at end of file
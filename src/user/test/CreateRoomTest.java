@@ -4,14 +4,13 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import server.ChatServer;
+import server.test.TestUserFile;
 import user.User;
 
 /**
@@ -24,10 +23,14 @@ import user.User;
  */
 public class CreateRoomTest {
 
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
     @Test
     public void testCreateSingle() throws IOException, InterruptedException {
-        PrintWriter clear = new PrintWriter(new FileOutputStream(new File("src/server/userfile")));
-        clear.close();
+        TestUserFile.clear();
         ChatServer server = new ChatServer(4445);
         String inp = "register cliu 123\nlogin cliu 123\ncreate\n";
         ByteArrayInputStream in = new ByteArrayInputStream(inp.getBytes());
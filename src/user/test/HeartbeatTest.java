@@ -0,0 +1,100 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests the ping/pong heartbeat between the server and a client
+ *
+ * Testing strategy:
+ * 1. Send the server a ping. Test that it answers with a pong carrying the same token, before and after login.
+ * 2. Log in over a real socket and answer every ping from the server, sending nothing else, for several
+ *    ping intervals. Test that the session stays open and the server has measured a round trip time.
+ * 3. Then stop answering. Test that the server closes the socket and logs the user out.
+ */
+public class HeartbeatTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    @Test
+    public void pingAnswered() throws IOException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setPingIntervalMillis(0);
+        ServerSocket listener = new ServerSocket(0);
+        Socket client = new Socket("localhost", listener.getLocalPort());
+        Socket accepted = listener.accept();
+        new Thread(new User(server, accepted.getInputStream(), accepted.getOutputStream(), false, false)).start();
+        PrintWriter toServer = new PrintWriter(client.getOutputStream(), true);
+        BufferedReader fromServer = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        client.setSoTimeout(2000);
+        assertEquals("connection successful", fromServer.readLine());
+        toServer.println("ping 42");
+        assertEquals("pong 42", fromServer.readLine());
+        toServer.println("register pinger 123");
+        assertEquals("registerSuccess pinger", fromServer.readLine());
+        toServer.println("ping 43");
+        assertEquals("pong 43", fromServer.readLine());
+        toServer.println("ping abc");
+        assertEquals("error 0 malformed command", fromServer.readLine());
+        client.close();
+        listener.close();
+        server.kill();
+    }
+
+    @Test
+    public void deadPeerClosed() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setPingIntervalMillis(100);
+        server.getConfig().setPongTimeoutMillis(200);
+        ServerSocket listener = new ServerSocket(0);
+        Socket client = new Socket("localhost", listener.getLocalPort());
+        Socket accepted = listener.accept();
+        User user = new User(server, accepted.getInputStream(), accepted.getOutputStream(), false, false);
+        Thread t = new Thread(user);
+        t.start();
+        PrintWriter toServer = new PrintWriter(client.getOutputStream(), true);
+        BufferedReader fromServer = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        client.setSoTimeout(2000);
+        toServer.println("register heartbeat 123");
+        toServer.println("login heartbeat 123");
+        int pings = 0;
+        long end = System.currentTimeMillis() + 800;
+        while (System.currentTimeMillis() < end) {   // answer the server's pings for 800ms
+            String line = fromServer.readLine();
+            if (line.startsWith("ping ")) {
+                toServer.println("pong " + line.substring(5));
+                pings++;
+            }
+        }
+        boolean onlineWhileAnswering = server.isOnline("heartbeat");
+        long roundTrip = user.getRoundTripMillis();
+        while (fromServer.readLine() != null) {     // until the server closes the session
+        }
+        t.join(1000);
+        boolean onlineAfterSilence = server.isOnline("heartbeat");
+        client.close();
+        listener.close();
+        server.kill();
+        assertTrue(pings >= 3);
+        assertEquals(true, onlineWhileAnswering);
+        assertTrue(roundTrip >= 0);
+        assertEquals(false, onlineAfterSilence);
+    }
+}
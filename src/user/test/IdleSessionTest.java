@@ -0,0 +1,62 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests that sessions idle past the configured timeout are closed
+ *
+ * Testing strategy:
+ * 1. Log in over a real socket and keep sending lines for longer than the timeout. Test that the session stays open.
+ * 2. Then stop sending. Test that the server closes the socket and logs the user out.
+ */
+public class IdleSessionTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    @Test
+    public void idleSessionClosed() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setSessionIdleTimeoutMillis(200);
+        ServerSocket listener = new ServerSocket(0);
+        Socket client = new Socket("localhost", listener.getLocalPort());
+        Socket accepted = listener.accept();
+        Thread t = new Thread(new User(server, accepted.getInputStream(), accepted.getOutputStream(), false, false));
+        t.start();
+        PrintWriter toServer = new PrintWriter(client.getOutputStream(), true);
+        BufferedReader fromServer = new BufferedReader(new InputStreamReader(client.getInputStream()));
+        toServer.println("register idler 123");
+        toServer.println("login idler 123");
+        for (int i = 0; i < 6; i++) {   // 600ms of activity
+            Thread.sleep(100);
+            toServer.println("status");
+        }
+        boolean onlineWhileActive = server.isOnline("idler");
+        client.setSoTimeout(2000);
+        while (fromServer.readLine() != null) {     // until the server closes the session
+        }
+        t.join(1000);
+        boolean onlineAfterIdle = server.isOnline("idler");
+        client.close();
+        listener.close();
+        server.kill();
+        assertEquals(true, onlineWhileActive);
+        assertEquals(false, onlineAfterIdle);
+    }
+}
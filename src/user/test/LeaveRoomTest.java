@@ -3,16 +3,15 @@ package user.test;
 import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
-import java.io.PrintWriter;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import server.ChatServer;
+import server.test.TestUserFile;
 import user.User;
 
 /**
@@ -29,6 +28,11 @@ import user.User;
  *
  */
 public class LeaveRoomTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
     
     private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
         pipe.write(msg.getBytes());
@@ -38,8 +42,7 @@ public class LeaveRoomTest {
     
     @Test
     public void testSinglePersonLeaveRoomDies() throws IOException, InterruptedException {
-        PrintWriter clear = new PrintWriter(new FileOutputStream(new File("src/server/userfile")));
-        clear.close();
+        TestUserFile.clear();
         ChatServer server = new ChatServer(4445);
         PipedOutputStream pipe = new PipedOutputStream();
         PipedInputStream in = new PipedInputStream(pipe);
@@ -4,14 +4,13 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 import server.ChatServer;
+import server.test.TestUserFile;
 import user.User;
 
 /**
@@ -24,7 +23,7 @@ import user.User;
  * 4. Test try to send login command while already logged in. Should get error message
  * 5. Test login, logout, then login again. Should get two welcome messages.
  * 
- * NOTE: In the first test we clear the users file by creating a PrintWriter to write to the file.
+ * NOTE: In the first test we clear the users file, a temporary file the servers are pointed at (see TestUserFile).
  * We flag the debug field as true in the creation of a user, to keep the user from
  * automatically logging out when our input stream ends. This creates an infinite loop in the 
  * user, so we place a one-second delay to allow the commands to process.
@@ -33,10 +32,14 @@ import user.User;
  */
 public class LoginTest {
 
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
     @Test
     public void singleLogin() throws IOException, InterruptedException {
-        PrintWriter clear = new PrintWriter(new FileOutputStream(new File("src/server/userfile")));
-        clear.close();
+        TestUserFile.clear();
         ChatServer server = new ChatServer(4445);
         String inp = "register cliu 123\nlogin cliu 123\n";
         ByteArrayInputStream in = new ByteArrayInputStream(inp.getBytes());
@@ -0,0 +1,63 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import metrics.MetricsRegistry;
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests that a session's commands are recorded in the server's metrics
+ *
+ * Testing strategy:
+ * 1. Log in, create a room, say lines in it and send an unknown command. Test the per-command latency
+ *    counts, the broadcast fan-out, the unknown command count, the bytes counted and the active sessions.
+ */
+public class MetricsTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    @Test
+    public void commandsRecorded() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        MetricsRegistry metrics = server.getMetrics();
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register counted1 123\n");
+        send(pipe, t, "login counted1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "say 0 one\nsay 0 two\nnonsense\n");
+        long active = metrics.getGauges().get("sessions.active").getValue();
+        server.kill();
+        assertEquals(2, metrics.histogram("command.say.latency").getCount());
+        assertEquals(1, metrics.histogram("command.create.latency").getCount());
+        assertEquals(1, metrics.counter("command.unknown").get());
+        assertEquals(2, metrics.histogram("room.broadcast.fanout").getCount());    // the two lines
+        assertEquals(1, metrics.histogram("room.broadcast.fanout").getMax());
+        assertTrue(metrics.counter("net.bytesIn").get() > 0);
+        assertEquals(out.size(), metrics.counter("net.bytesOut").get());
+        assertEquals(1, active);
+    }
+}
@@ -0,0 +1,82 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.RateLimit;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests that sessions sending commands too fast are rate limited
+ *
+ * Testing strategy:
+ * 1. Send more say commands at once than the say burst. Test that the burst is said and the rest are
+ *    dropped with a rate limit error.
+ * 2. Send more lines at once than the session burst, with no login. Test that the burst is answered and
+ *    the rest get a rate limit error.
+ */
+public class RateLimitTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    private int count(String s, String line) {
+        int count = 0;
+        for (String l : s.split("\n")) {
+            if (l.equals(line)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void sayLimited() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setSayLimit(new RateLimit(1, 3));
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register flooder1 123\n");
+        send(pipe, t, "login flooder1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "say 0 hi\nsay 0 hi\nsay 0 hi\nsay 0 hi\nsay 0 hi\n");
+        server.kill();
+        assertEquals(3, count(out.toString(), "message flooder1 0 hi"));
+        assertEquals(2, count(out.toString(), "error 12 rate limit exceeded"));
+    }
+
+    @Test
+    public void sessionLimited() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setSessionLimit(new RateLimit(1, 2));
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "status\nstatus\nstatus\nstatus\n");
+        server.kill();
+        assertEquals(2, count(out.toString(), "status offline"));
+        assertEquals(2, count(out.toString(), "error 12 rate limit exceeded"));
+    }
+}
@@ -0,0 +1,122 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests that a client which stops reading only holds up its own session
+ *
+ * Testing strategy:
+ * 1. A member of a room never takes its lines. Test that the others in the room still get every message.
+ * 2. Lines pile up past the session queue limit for a client that never takes them. Test that the overflow
+ *    ends its session once, and the others in the room still get every message.
+ */
+public class SlowClientTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    /**
+     * @return - a stream whose writes block until release is counted down
+     */
+    private OutputStream stuck(final CountDownLatch release) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e.getMessage());
+                }
+            }
+        };
+    }
+
+    private int count(String s, String prefix) {
+        int count = 0;
+        for (String l : s.split("\n")) {
+            if (l.startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void stuckClientDoesNotStallRoom() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        CountDownLatch release = new CountDownLatch(1);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        PipedOutputStream pipe2 = new PipedOutputStream();
+        PipedInputStream in2 = new PipedInputStream(pipe2);
+        Thread t2 = new Thread(new User(server, in2, stuck(release), true, false));
+        t.start();
+        t2.start();
+        send(pipe, t, "register fast1 123\n");
+        send(pipe, t, "login fast1 123\n");
+        send(pipe2, t2, "register stuck1 123\n");
+        send(pipe2, t2, "login stuck1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "invite stuck1 0\n");
+        send(pipe2, t2, "accept 0\n");
+        send(pipe, t, "say 0 one\nsay 0 two\nsay 0 three\n");
+        release.countDown();
+        server.kill();
+        assertEquals(3, count(out.toString(), "message fast1 0 "));
+    }
+
+    @Test
+    public void stuckClientOverflowEndsSession() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setSessionQueueLimit(5);
+        CountDownLatch release = new CountDownLatch(1);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        PipedOutputStream pipe2 = new PipedOutputStream();
+        PipedInputStream in2 = new PipedInputStream(pipe2);
+        Thread t2 = new Thread(new User(server, in2, stuck(release), true, false));
+        t.start();
+        t2.start();
+        send(pipe, t, "register fast2 123\n");
+        send(pipe, t, "login fast2 123\n");
+        send(pipe2, t2, "register stuck2 123\n");
+        send(pipe2, t2, "login stuck2 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "invite stuck2 0\n");
+        send(pipe2, t2, "accept 0\n");
+        for (int i = 0; i < 10; i++) {
+            send(pipe, t, "say 0 line" + i + "\n");
+        }
+        long overflows = server.getMetrics().counter("sessions.writerOverflows").get();
+        release.countDown();
+        server.kill();
+        assertEquals(1, overflows);
+        assertEquals(10, count(out.toString(), "message fast2 0 "));
+    }
+}
@@ -0,0 +1,90 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests the admin stats command
+ *
+ * Testing strategy:
+ * 1. An admin writes a line in a room and asks for stats. Test that the reply streams the room, the
+ *    command latency histograms and the gauges, and ends with statsEnd.
+ * 2. A user that is not an admin asks for stats. Test that it gets the not permitted error.
+ */
+public class StatsTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    private boolean hasLineStarting(String s, String prefix) {
+        for (String l : s.split("\n")) {
+            if (l.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void adminStats() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setAdmins("statsadmin");
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register statsadmin 123\n");
+        send(pipe, t, "login statsadmin 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "say 0 hello\n");
+        send(pipe, t, "stats\n");
+        long end = System.currentTimeMillis() + 2000;
+        while (!out.toString().contains("statsEnd") && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        server.kill();
+        String s = out.toString();
+        assertTrue(hasLineStarting(s, "stats room 0 1 1 5"));
+        assertTrue(hasLineStarting(s, "stats histogram command.say.latency 1 "));
+        assertTrue(hasLineStarting(s, "stats gauge rooms.active 1"));
+        assertTrue(hasLineStarting(s, "stats queue sessions "));
+        assertTrue(s.endsWith("statsEnd\n"));
+    }
+
+    @Test
+    public void notAdmin() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setAdmins("someoneelse");
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register statsuser 123\n");
+        send(pipe, t, "login statsuser 123\n");
+        send(pipe, t, "stats\n");
+        server.kill();
+        assertEquals(true, out.toString().endsWith("error 10 not permitted\n"));
+    }
+}
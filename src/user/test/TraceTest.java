@@ -0,0 +1,86 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.MessageTrace;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests the message trace mode
+ *
+ * Testing strategy:
+ * 1. Say something with trace mode off. Test that it comes back as a plain message.
+ * 2. Say something with trace mode on. Test that it comes back as a tracedMessage whose receive time is no later
+ *    than its broadcast time, both within the test's run, and with the line intact, and that its stages are
+ *    recorded in the trace histograms.
+ * 3. Test that one trace in every sample rate is sampled.
+ */
+public class TraceTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    @Test
+    public void tracedMessage() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        long before = System.currentTimeMillis();
+        send(pipe, t, "register tracer 123\n");
+        send(pipe, t, "login tracer 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "say 0 untraced\n");
+        server.getConfig().setTraceMessages(true);
+        server.getConfig().setTraceSampleRate(1);
+        send(pipe, t, "say 0 hello there\n");
+        long after = System.currentTimeMillis();
+        server.kill();
+        String[] lines = out.toString().split("\n");
+        assertEquals("message tracer 0 untraced", lines[4]);
+        String[] traced = lines[5].split(" ", 6);
+        assertEquals("tracedMessage", traced[0]);
+        assertEquals("tracer", traced[1]);
+        assertEquals("0", traced[2]);
+        long received = Long.parseLong(traced[3]);
+        long broadcast = Long.parseLong(traced[4]);
+        assertTrue(before <= received);
+        assertTrue(received <= broadcast);
+        assertTrue(broadcast <= after);
+        assertEquals("hello there", traced[5]);
+        assertEquals(1, server.getMetrics().histogram("trace.total").getCount());
+        assertEquals(1, server.getMetrics().histogram("trace.write").getCount());
+    }
+
+    @Test
+    public void sampling() {
+        int sampled = 0;
+        for (int i = 0; i < 100; i++) {
+            if (new MessageTrace(0, 0, 10).isSampled()) {
+                sampled++;
+            }
+        }
+        assertEquals(10, sampled);
+    }
+}
@@ -0,0 +1,135 @@
+package user.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import server.ChatServer;
+import server.test.TestUserFile;
+import user.User;
+
+/**
+ * Tests the typing, enteredText and idle commands into and out of the server
+ *
+ * Testing strategy:
+ * 1. Send the same typing status twice. Test that the room is only told once.
+ * 2. Change status twice within one typing window. Test that only the last status is broadcast.
+ * 3. Two users change status within one typing window. Test that the room gets one combined typingStates line.
+ * 4. Change status in a room larger than the summary threshold. Test that the room only gets a typingSummary line.
+ */
+public class TypingTest {
+
+    @BeforeClass
+    public static void useTempUserFile() throws IOException {
+        TestUserFile.use();
+    }
+
+    private void send(PipedOutputStream pipe, Thread t, String msg) throws IOException, InterruptedException {
+        pipe.write(msg.getBytes());
+        pipe.flush();
+        t.join(100);
+    }
+
+    private int count(String s, String line) {
+        int count = 0;
+        for (String l : s.split("\n")) {
+            if (l.equals(line)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void repeatedStatusIgnored() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setTypingWindowMillis(0);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register typer1 123\n");
+        send(pipe, t, "login typer1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "typing 0\n");
+        send(pipe, t, "typing 0\n");
+        send(pipe, t, "idle 0\n");
+        send(pipe, t, "idle 0\n");
+        server.kill();
+        assertEquals(1, count(out.toString(), "typing typer1 0"));
+        assertEquals(1, count(out.toString(), "idle typer1 0"));
+    }
+
+    @Test
+    public void changesWithinWindowCoalesced() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setTypingWindowMillis(50);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register typer1 123\n");
+        send(pipe, t, "login typer1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "typing 0\nenteredText 0\n");
+        server.kill();
+        assertEquals(0, count(out.toString(), "typing typer1 0"));
+        assertEquals(1, count(out.toString(), "enteredText typer1 0"));
+    }
+
+    @Test
+    public void combinedTypingStates() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setTypingWindowMillis(300);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        PipedOutputStream pipe2 = new PipedOutputStream();
+        PipedInputStream in2 = new PipedInputStream(pipe2);
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        Thread t2 = new Thread(new User(server, in2, out2, true, false));
+        t.start();
+        t2.start();
+        send(pipe, t, "register typer1 123\n");
+        send(pipe, t, "login typer1 123\n");
+        send(pipe2, t2, "register typer2 123\n");
+        send(pipe2, t2, "login typer2 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "invite typer2 0\n");
+        send(pipe2, t2, "accept 0\n");
+        send(pipe, t, "typing 0\n");
+        send(pipe2, t2, "enteredText 0\n");
+        t.join(300);
+        server.kill();
+        assertEquals(1, count(out.toString(), "typingStates 0 typer1 1 typer2 2"));
+        assertEquals(1, count(out2.toString(), "typingStates 0 typer1 1 typer2 2"));
+    }
+
+    @Test
+    public void summaryAboveThreshold() throws IOException, InterruptedException {
+        ChatServer server = new ChatServer(4445);
+        server.getConfig().setTypingWindowMillis(0);
+        server.getConfig().setTypingSummaryThreshold(0);
+        PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Thread t = new Thread(new User(server, in, out, true, false));
+        t.start();
+        send(pipe, t, "register typer1 123\n");
+        send(pipe, t, "login typer1 123\n");
+        send(pipe, t, "create\n");
+        send(pipe, t, "typing 0\n");
+        server.kill();
+        assertEquals(0, count(out.toString(), "typing typer1 0"));
+        assertEquals(1, count(out.toString(), "typingSummary 0 1 0"));
+    }
+}
@@ -0,0 +1,234 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from primitive int keys to objects, used for the room number to Room maps.
+ * Keys are stored in an int array and values in a parallel array (open addressing with linear probing),
+ * so there is no Integer boxing on lookup and no entry object per mapping.
+ *
+ * Threadsafe argument:
+ * Reads take no lock. All writes are synchronized on the map, so there is only one writer at a time.
+ * A slot's key is written before its value, and values are written and read through an AtomicReferenceArray,
+ * so a reader that sees a value also sees the key that goes with it. A slot is never given to a different key
+ * within the same table (a removed mapping leaves a REMOVED marker that only the same key may reuse), so a
+ * reader can never pair one key with another key's value. A resize builds a whole new table and publishes it
+ * through the volatile table field; the old table is never modified again.
+ *
+ * @param <V> the type of the values
+ */
+public class ConcurrentIntMap<V> {
+
+    private static final Object REMOVED = new Object();    // marks a slot whose mapping was removed
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile Table table;
+    private int size;   // number of mappings, only accessed while holding the map's lock
+    private int used;   // number of slots holding a mapping or a REMOVED marker, same locking as size
+
+    /**
+     * Immutable datatype holding the keys and values arrays of one capacity
+     */
+    private static class Table {
+        private final int[] keys;
+        private final AtomicReferenceArray<Object> values; // null if the slot was never used
+        private final int mask;
+
+        public Table(int capacity) {
+            keys = new int[capacity];
+            values = new AtomicReferenceArray<Object>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    /**
+     * Creates a new, empty map
+     */
+    public ConcurrentIntMap() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * @param key - any int
+     * @return - the value mapped to by key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Table t = table;
+        int i = hash(key) & t.mask;
+        while (true) {
+            Object value = t.values.get(i);
+            if (value == null) {
+                return null;
+            }
+            if (t.keys[i] == key) {
+                return value == REMOVED ? null : (V) value;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * @param key - any int
+     * @return - true if key is mapped to a value, false otherwise
+     */
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Maps key to value, replacing the previous value of key if any
+     * @param key - any int
+     * @param value - requires value not null
+     * @return - the previous value of key, or null if there was none
+     * @throws IllegalArgumentException if value is null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("ERROR: Cannot map a key to null");
+        }
+        Table t = table;
+        int i = hash(key) & t.mask;
+        while (true) {
+            Object old = t.values.get(i);
+            if (old == null) {
+                break;
+            }
+            if (t.keys[i] == key) {
+                t.values.set(i, value);
+                if (old == REMOVED) {
+                    size++;
+                    return null;
+                }
+                return (V) old;
+            }
+            i = (i + 1) & t.mask;
+        }
+        t.keys[i] = key;
+        t.values.set(i, value);
+        size++;
+        used++;
+        if (used * 2 > t.keys.length) {
+            resize();
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping of key, if any
+     * @param key - any int
+     * @return - the value key was mapped to, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(int key) {
+        Table t = table;
+        int i = hash(key) & t.mask;
+        while (true) {
+            Object old = t.values.get(i);
+            if (old == null) {
+                return null;
+            }
+            if (t.keys[i] == key) {
+                if (old == REMOVED) {
+                    return null;
+                }
+                t.values.set(i, REMOVED);
+                size--;
+                return (V) old;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /**
+     * Removes every mapping
+     */
+    public synchronized void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * @return - the number of mappings
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return - true if there are no mappings
+     */
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return - a copy of the keys, in no particular order
+     */
+    public synchronized int[] keys() {
+        Table t = table;
+        int[] keys = new int[size];
+        int n = 0;
+        for (int i = 0; i < t.keys.length; i++) {
+            Object value = t.values.get(i);
+            if (value != null && value != REMOVED) {
+                keys[n++] = t.keys[i];
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return - a copy of the values, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<V> values() {
+        Table t = table;
+        List<V> values = new ArrayList<V>(size);
+        for (int i = 0; i < t.keys.length; i++) {
+            Object value = t.values.get(i);
+            if (value != null && value != REMOVED) {
+                values.add((V) value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Copies the mappings into a new table, twice as large unless most used slots only hold REMOVED markers,
+     * and publishes it. Requires the caller hold the map's lock
+     */
+    private void resize() {
+        Table old = table;
+        int capacity = old.keys.length;
+        while (size * 4 >= capacity) {  // keep the load at most 1/4 after the copy
+            capacity *= 2;
+        }
+        Table t = new Table(Math.max(capacity, MIN_CAPACITY));
+        for (int i = 0; i < old.keys.length; i++) {
+            Object value = old.values.get(i);
+            if (value != null && value != REMOVED) {
+                int j = hash(old.keys[i]) & t.mask;
+                while (t.values.get(j) != null) {
+                    j = (j + 1) & t.mask;
+                }
+                t.keys[j] = old.keys[i];
+                t.values.set(j, value);
+            }
+        }
+        used = size;
+        table = t;
+    }
+
+    // spreads consecutive keys (such as room numbers) over the table
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
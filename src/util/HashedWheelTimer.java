@@ -0,0 +1,280 @@
+package util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A timer for very many short tasks with coarse deadlines, such as invite expiry, idle checks and
+ * collecting typing changes.
+ *
+ * Time is cut into ticks, and the ticks into a wheel of buckets: a task due in d ticks goes in the bucket
+ * d ticks ahead of the current one, with the number of whole turns of the wheel it must wait. Every tick,
+ * a single worker thread walks one bucket and runs the tasks that are due. Scheduling and cancelling are
+ * O(1) and allocate one Timeout; a pending task costs one Timeout and nothing else, so millions of tasks
+ * can be pending at once. Tasks run late by up to one tick.
+ *
+ * Tasks run on the worker thread, one at a time, so they must be short: post work elsewhere (for example
+ * to a Room's mailbox) rather than doing it in the task. A task that throws is reported on stderr and
+ * does not stop the timer.
+ *
+ * Threadsafe argument:
+ * The buckets are only touched by the worker thread. Other threads hand new Timeouts to the worker through
+ * a ConcurrentLinkedQueue, and cancel them with a compareAndSet on the Timeout's state, adding them to a
+ * second queue so the worker unlinks them from their bucket; a task runs only if the worker wins the
+ * compareAndSet from pending to expired, so a task either runs or is cancelled, never both.
+ */
+public class HashedWheelTimer {
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private static final int MAX_TRANSFERS_PER_TICK = 100000; // so a burst of schedules cannot stall a tick
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added;
+    private final Queue<Timeout> cancelled;
+    private final AtomicInteger pending;
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean stopped;
+    private long tick;  // number of ticks done, only accessed by the worker
+
+    /**
+     * Creates and starts a timer with a daemon worker thread
+     * @param name - requires name not null, the name of the worker thread
+     * @param tickMillis - requires tickMillis > 0, the length of a tick
+     * @param ticksPerWheel - requires ticksPerWheel > 0, the number of buckets, rounded up to a power of two
+     * @throws IllegalArgumentException if tickMillis or ticksPerWheel is not positive
+     */
+    public HashedWheelTimer(String name, long tickMillis, int ticksPerWheel) {
+        if (tickMillis <= 0 || ticksPerWheel <= 0) {
+            throw new IllegalArgumentException("ERROR: tick length and wheel size must be positive");
+        }
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        added = new ConcurrentLinkedQueue<Timeout>();
+        cancelled = new ConcurrentLinkedQueue<Timeout>();
+        pending = new AtomicInteger();
+        stopped = false;
+        tick = 0;
+        startNanos = System.nanoTime();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                work();
+            }
+        }, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Schedules a task to run once after a delay
+     * @param task - requires task not null
+     * @param delay - the delay, a delay <= 0 runs the task on the next tick
+     * @param unit - requires unit not null
+     * @return - a handle that can cancel the task
+     * @throws IllegalArgumentException if task or unit is null
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null || unit == null) {
+            throw new IllegalArgumentException("ERROR: cannot schedule a null task");
+        }
+        long deadline = System.nanoTime() - startNanos + Math.max(0, unit.toNanos(delay));
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return - the number of tasks scheduled that have neither run nor been cancelled
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the worker thread. Tasks that have not run yet never will
+     */
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void work() {
+        while (!stopped) {
+            long deadline = tickNanos * (tick + 1);
+            long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                } catch (InterruptedException e) {
+                    if (stopped) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            unlinkCancelled();
+            transferAdded();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() != PENDING) {
+                continue;
+            }
+            long due = Math.max(timeout.deadline / tickNanos, tick);  // never in a bucket already walked
+            timeout.rounds = (due - tick) / wheel.length;
+            wheel[(int) (due & mask)].add(timeout);
+        }
+    }
+
+    private void unlinkCancelled() {
+        while (true) {
+            Timeout timeout = cancelled.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A task scheduled on the timer
+     */
+    public static class Timeout {
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        private final long deadline;        // nanos since the timer started
+        private final AtomicInteger state;
+        private long rounds;                // turns of the wheel still to wait, only accessed by the worker
+        private Bucket bucket;              // only accessed by the worker
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+            this.timer = timer;
+            this.task = task;
+            this.deadline = deadline;
+            this.state = new AtomicInteger(PENDING);
+        }
+
+        /**
+         * Cancels the task if it has not run yet
+         * @return - true if the task was cancelled, false if it has run or was already cancelled
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            timer.pending.decrementAndGet();
+            timer.cancelled.add(this);
+            return true;
+        }
+
+        /**
+         * @return - true if the task was cancelled
+         */
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * @return - true if the task has run, or is running
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            timer.pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A doubly linked list of the Timeouts in one slot of the wheel. Only accessed by the worker
+     */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * Runs the Timeouts that are due by deadline, and counts down the rounds of the rest
+         */
+        private void expire(long deadline) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.state.get() == CANCELLED) {
+                    remove(timeout);
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
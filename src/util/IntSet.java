@@ -0,0 +1,152 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative ints, stored in an int array with open addressing and linear probing,
+ * so there is no Integer boxing and no entry object per element.
+ *
+ * This class is not threadsafe: it is meant for state confined to a single thread at a time,
+ * such as the guest list of a Room, which is only accessed from the Room's mailbox.
+ */
+public class IntSet {
+
+    private static final int EMPTY = -1;
+    private static final int REMOVED = -2;
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] slots;
+    private int size; // number of elements
+    private int used; // number of slots holding an element or a REMOVED marker
+
+    /**
+     * Creates a new, empty set
+     */
+    public IntSet() {
+        slots = newSlots(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    /**
+     * @param value - requires value >= 0
+     * @return - true if value is in the set
+     */
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a value to the set
+     * @param value - requires value >= 0
+     * @return - true if the value was not already in the set
+     * @throws IllegalArgumentException if value < 0
+     */
+    public boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("ERROR: IntSet only holds non-negative values");
+        }
+        if (contains(value)) {
+            return false;
+        }
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] >= 0) {
+            i = (i + 1) & mask;
+        }
+        if (slots[i] == EMPTY) {
+            used++;
+        }
+        slots[i] = value;
+        size++;
+        if (used * 2 > slots.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Removes a value from the set
+     * @param value - any int
+     * @return - true if the value was in the set
+     */
+    public boolean remove(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int mask = slots.length - 1;
+        int i = hash(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value) {
+                slots[i] = REMOVED;
+                size--;
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @return - the number of values in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return - a copy of the values, in no particular order
+     */
+    public int[] toArray() {
+        int[] values = new int[size];
+        int n = 0;
+        for (int slot : slots) {
+            if (slot >= 0) {
+                values[n++] = slot;
+            }
+        }
+        return values;
+    }
+
+    private void rehash() {
+        int[] old = slots;
+        int capacity = MIN_CAPACITY;
+        while (size * 4 >= capacity) {
+            capacity *= 2;
+        }
+        slots = newSlots(capacity);
+        int mask = capacity - 1;
+        for (int value : old) {
+            if (value >= 0) {
+                int i = hash(value) & mask;
+                while (slots[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = value;
+            }
+        }
+        used = size;
+    }
+
+    private static int[] newSlots(int capacity) {
+        int[] slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    private static int hash(int value) {
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,53 @@
+package util;
+
+/**
+ * A token bucket that refills at a fixed rate up to a burst size, used to limit how fast a session may send
+ * commands.
+ *
+ * Rather than a token count and a refill timestamp, the bucket keeps only the time at which it will next be
+ * full (the generic cell rate algorithm form of a token bucket). Each taken token pushes that time one refill
+ * interval later, and a token may be taken as long as that time is no more than burst - 1 intervals ahead of
+ * now. A check is a few long comparisons and additions, with no division and no allocation.
+ *
+ * This class is not threadsafe: it is meant for state confined to a single thread, such as the buckets of a
+ * User, which are only checked by the User's own thread.
+ */
+public class TokenBucket {
+
+    private final long intervalNanos;   // time to refill one token, 0 if unlimited
+    private final long toleranceNanos;  // how far ahead of now fullAt may be while a token is left
+    private long fullAt;                // System.nanoTime() at which the bucket will be full again
+
+    /**
+     * Creates a full bucket
+     * @param perSecond - requires perSecond >= 0, the number of tokens refilled each second, 0 for a bucket
+     * that never runs out
+     * @param burst - requires burst > 0, the number of tokens a full bucket holds
+     * @throws IllegalArgumentException if perSecond < 0 or burst <= 0
+     */
+    public TokenBucket(double perSecond, int burst) {
+        if (perSecond < 0 || burst <= 0) {
+            throw new IllegalArgumentException("ERROR: Token bucket needs a non-negative rate and a positive burst.");
+        }
+        intervalNanos = perSecond == 0 ? 0 : Math.max(1, (long) (1e9 / perSecond));
+        toleranceNanos = intervalNanos * (burst - 1);
+        fullAt = Long.MIN_VALUE;
+    }
+
+    /**
+     * Takes a token if there is one
+     * @param now - System.nanoTime(), passed in so several buckets can be checked with one clock read
+     * @return - true if a token was taken, false if the bucket is empty
+     */
+    public boolean tryTake(long now) {
+        if (intervalNanos == 0) {
+            return true;
+        }
+        long start = fullAt == Long.MIN_VALUE || fullAt - now < 0 ? now : fullAt;
+        if (start - now > toleranceNanos) {
+            return false;
+        }
+        fullAt = start + intervalNanos;
+        return true;
+    }
+}
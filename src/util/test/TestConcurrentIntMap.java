@@ -0,0 +1,79 @@
+package util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import util.ConcurrentIntMap;
+
+/**
+ * Tests for the int keyed map used for room numbers
+ *
+ * Testing strategy
+ * 1. Test put, get and replace of a single key, and get of a missing key
+ * 2. Test remove, then put of the same key again
+ * 3. Test many keys, enough to resize the table several times, with every other key removed
+ * 4. Test keys and values copies
+ */
+public class TestConcurrentIntMap {
+
+    @Test
+    public void testPutGet() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<String>();
+        assertEquals(null, map.put(3, "three"));
+        assertEquals("three", map.get(3));
+        assertEquals(null, map.get(4));
+        assertEquals("three", map.put(3, "THREE"));
+        assertEquals("THREE", map.get(3));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testRemove() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<String>();
+        map.put(0, "zero");
+        assertEquals("zero", map.remove(0));
+        assertEquals(null, map.remove(0));
+        assertEquals(null, map.get(0));
+        assertEquals(true, map.isEmpty());
+        map.put(0, "again");
+        assertEquals("again", map.get(0));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testManyKeys() {
+        ConcurrentIntMap<Integer> map = new ConcurrentIntMap<Integer>();
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            map.remove(i);
+        }
+        for (int i = 10000; i < 20000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(15000, map.size());
+        for (int i = 0; i < 20000; i++) {
+            Integer expected = (i < 10000 && i % 2 == 0) ? null : i;
+            assertEquals(expected, map.get(i));
+        }
+    }
+
+    @Test
+    public void testKeysValues() {
+        ConcurrentIntMap<String> map = new ConcurrentIntMap<String>();
+        map.put(5, "five");
+        map.put(-1, "minus one");
+        map.put(7, "seven");
+        map.remove(7);
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals("[-1, 5]", Arrays.toString(keys));
+        assertEquals(2, map.values().size());
+        map.clear();
+        assertEquals(0, map.keys().length);
+    }
+}
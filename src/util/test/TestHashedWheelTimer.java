@@ -0,0 +1,101 @@
+package util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import util.HashedWheelTimer;
+
+/**
+ * Tests for the timer shared by Rooms and Users
+ *
+ * Testing strategy
+ * 1. Test that tasks run, not before their delay, including a delay longer than a turn of the wheel
+ * 2. Test that a cancelled task never runs, and that cancel after running has no effect
+ * 3. Test many pending tasks, half of them cancelled
+ */
+public class TestHashedWheelTimer {
+
+    @Test
+    public void testRuns() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 8);
+        final CountDownLatch done = new CountDownLatch(2);
+        final long start = System.nanoTime();
+        final long[] ran = new long[2];
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = System.nanoTime() - start;
+                done.countDown();
+            }
+        }, 20, TimeUnit.MILLISECONDS);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran[1] = System.nanoTime() - start;
+                done.countDown();
+            }
+        }, 100, TimeUnit.MILLISECONDS);     // 20 ticks, more than two turns of an 8 bucket wheel
+        boolean finished = done.await(2, TimeUnit.SECONDS);
+        timer.stop();
+        assertEquals(true, finished);
+        assertEquals(true, ran[0] >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(true, ran[1] >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, timer.getPending());
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 8);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        HashedWheelTimer.Timeout cancelled = timer.schedule(task, 30, TimeUnit.MILLISECONDS);
+        HashedWheelTimer.Timeout kept = timer.schedule(task, 10, TimeUnit.MILLISECONDS);
+        boolean cancelledOnce = cancelled.cancel();
+        boolean cancelledTwice = cancelled.cancel();
+        Thread.sleep(200);
+        boolean cancelledAfterRun = kept.cancel();
+        timer.stop();
+        assertEquals(true, cancelledOnce);
+        assertEquals(false, cancelledTwice);
+        assertEquals(false, cancelledAfterRun);
+        assertEquals(true, cancelled.isCancelled());
+        assertEquals(true, kept.isExpired());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testManyPending() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 512);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[200000];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = timer.schedule(task, 1000 + i % 100, TimeUnit.MILLISECONDS);
+        }
+        for (int i = 0; i < timeouts.length; i += 2) {
+            timeouts[i].cancel();
+        }
+        assertEquals(100000, timer.getPending());
+        for (int i = 0; i < 250 && timer.getPending() > 0; i++) {
+            Thread.sleep(20);
+        }
+        timer.stop();
+        assertEquals(0, timer.getPending());
+        assertEquals(100000, runs.get());
+    }
+}
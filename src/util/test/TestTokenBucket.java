@@ -0,0 +1,54 @@
+package util.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import util.TokenBucket;
+
+/**
+ * Tests for the token bucket used to rate limit sessions
+ *
+ * Testing strategy
+ * 1. Test that a full bucket gives exactly its burst of tokens at once
+ * 2. Test that tokens come back at the refill rate, and no more than the burst builds up while idle
+ * 3. Test that a bucket with a rate of 0 never runs out
+ */
+public class TestTokenBucket {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testBurst() {
+        TokenBucket bucket = new TokenBucket(10, 5);
+        long now = 12345;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(true, bucket.tryTake(now));
+        }
+        assertEquals(false, bucket.tryTake(now));
+    }
+
+    @Test
+    public void testRefill() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = -5 * SECOND;     // System.nanoTime() may be negative
+        assertEquals(true, bucket.tryTake(now));
+        assertEquals(true, bucket.tryTake(now));
+        assertEquals(false, bucket.tryTake(now));
+        assertEquals(false, bucket.tryTake(now + SECOND / 20));
+        assertEquals(true, bucket.tryTake(now + SECOND / 10));
+        assertEquals(false, bucket.tryTake(now + SECOND / 10));
+        now += 100 * SECOND;        // a long idle spell only refills up to the burst
+        assertEquals(true, bucket.tryTake(now));
+        assertEquals(true, bucket.tryTake(now));
+        assertEquals(false, bucket.tryTake(now));
+    }
+
+    @Test
+    public void testUnlimited() {
+        TokenBucket bucket = new TokenBucket(0, 1);
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(true, bucket.tryTake(0));
+        }
+    }
+}